@@ -0,0 +1,229 @@
+package se.moln.orderservice.analytics;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import se.moln.orderservice.model.Money;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.service.OrderPlacedEvent;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The lines of all CREATED orders in primitive, column-oriented arrays: epoch day (JVM time zone),
+ * product dictionary code, quantity and unit price in minor units. Analytics queries are plain loops
+ * over these arrays, without entities, boxing or BigDecimal per row. About 20 bytes per line.
+ * <p>
+ * Enabled with {@code analytics.columnar.enabled}. Loaded from {@code orders}/{@code order_items}
+ * before the application takes traffic, then appended to after each order commit. Appends are
+ * serialized; readers take the published {@link Columns} and never see a partially written row.
+ */
+@Component
+@ConditionalOnProperty(name = "analytics.columnar.enabled", havingValue = "true")
+@DependsOn("entityManagerFactory")
+public class ColumnarOrderItems {
+
+    private static final Logger log = LoggerFactory.getLogger(ColumnarOrderItems.class);
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    // Guarded by this; rows at index >= columns.size and new arrays are only written under the lock
+    private final Map<UUID, Integer> productCodes = new HashMap<>();
+    private int[] day = new int[INITIAL_CAPACITY];
+    private int[] product = new int[INITIAL_CAPACITY];
+    private int[] quantity = new int[INITIAL_CAPACITY];
+    private long[] priceCents = new long[INITIAL_CAPACITY];
+    private UUID[] productIds = new UUID[64];
+    private String[] productNames = new String[64];
+    private int size;
+
+    private volatile Columns columns = new Columns(day, product, quantity, priceCents, 0, productIds, productNames, 0);
+
+    /** Rows {@code [0, size)} and products {@code [0, productCount)} of a published view never change. */
+    record Columns(int[] day, int[] product, int[] quantity, long[] priceCents, int size,
+                   UUID[] productIds, String[] productNames, int productCount) {
+    }
+
+    public record Kpis(long unitsSold, long revenueCents, UUID topProductId, String topProductName,
+                       long topProductUnits, long topProductRevenueCents) {
+    }
+
+    public ColumnarOrderItems(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void load() {
+        long start = System.nanoTime();
+        synchronized (this) {
+            jdbcTemplate.query("""
+                    SELECT o.order_date, i.product_id, i.product_name, i.quantity, i.price_at_purchase
+                      FROM orders o JOIN order_items i ON i.order_id = o.id
+                     WHERE o.status = ? AND o.order_date IS NOT NULL AND i.product_id IS NOT NULL""",
+                    rs -> {
+                        LocalDate date = rs.getObject(1, OffsetDateTime.class).atZoneSameInstant(zone).toLocalDate();
+                        BigDecimal price = rs.getBigDecimal(5);
+                        add(date, rs.getObject(2, UUID.class), rs.getString(3), rs.getInt(4),
+                                price == null ? 0 : Money.of(price).minorUnits());
+                    },
+                    OrderStatus.CREATED.name());
+            publish();
+        }
+        log.info("Loaded {} order lines of {} products into the columnar analytics store in {} ms",
+                size, columns.productCount(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @TransactionalEventListener
+    public void onOrderPlaced(OrderPlacedEvent event) {
+        append(event.order());
+    }
+
+    public void append(Order order) {
+        if (order.getStatus() != OrderStatus.CREATED || order.getOrderDate() == null || order.getOrderItems() == null) {
+            return;
+        }
+        LocalDate date = order.getOrderDate().atZoneSameInstant(zone).toLocalDate();
+        synchronized (this) {
+            for (OrderItem item : order.getOrderItems()) {
+                add(date, item.getProductId(), item.getProductName(), item.getQuantity(),
+                        item.getPriceAtPurchase() == null ? 0 : item.getPriceAtPurchase().minorUnits());
+            }
+            publish();
+        }
+    }
+
+    public int size() {
+        return columns.size();
+    }
+
+    /**
+     * Units, revenue and the product with the most units (ties: most revenue) from {@code from} to
+     * {@code to}, both inclusive.
+     */
+    public Kpis kpis(LocalDate from, LocalDate to) {
+        Columns c = columns;
+        int lo = (int) from.toEpochDay();
+        int hi = (int) to.toEpochDay();
+        long[] units = new long[c.productCount()];
+        long[] cents = new long[c.productCount()];
+        int[] days = c.day();
+        int[] products = c.product();
+        int[] quantities = c.quantity();
+        long[] prices = c.priceCents();
+        for (int r = 0, n = c.size(); r < n; r++) {
+            int d = days[r];
+            if (d >= lo && d <= hi) {
+                int p = products[r];
+                int q = quantities[r];
+                units[p] += q;
+                cents[p] += q * prices[r];
+            }
+        }
+
+        long totalUnits = 0;
+        long totalCents = 0;
+        int top = -1;
+        for (int p = 0; p < units.length; p++) {
+            totalUnits += units[p];
+            totalCents += cents[p];
+            if (units[p] > 0 && (top < 0 || units[p] > units[top] || (units[p] == units[top] && cents[p] > cents[top]))) {
+                top = p;
+            }
+        }
+        return top < 0
+                ? new Kpis(totalUnits, totalCents, null, null, 0, 0)
+                : new Kpis(totalUnits, totalCents, c.productIds()[top], c.productNames()[top], units[top], cents[top]);
+    }
+
+    /**
+     * Units and cents per bucket of whole days. {@code boundsDays} holds the n bucket starts followed
+     * by the end of the last bucket, as epoch days.
+     *
+     * @param productIds only these products; all when empty
+     * @return units of bucket b at {@code [2b]}, cents at {@code [2b + 1]}
+     */
+    public long[] sumByDayBuckets(int[] boundsDays, Collection<UUID> productIds) {
+        Columns c = columns;
+        int first = boundsDays[0];
+        int end = boundsDays[boundsDays.length - 1];
+        int[] bucketOfDay = new int[end - first];
+        for (int b = 0; b + 1 < boundsDays.length; b++) {
+            Arrays.fill(bucketOfDay, boundsDays[b] - first, boundsDays[b + 1] - first, b);
+        }
+        boolean[] included = null;
+        if (productIds != null && !productIds.isEmpty()) {
+            included = new boolean[c.productCount()];
+            for (int p = 0; p < c.productCount(); p++) {
+                included[p] = productIds.contains(c.productIds()[p]);
+            }
+        }
+
+        long[] sum = new long[2 * (boundsDays.length - 1)];
+        int[] days = c.day();
+        int[] products = c.product();
+        int[] quantities = c.quantity();
+        long[] prices = c.priceCents();
+        for (int r = 0, n = c.size(); r < n; r++) {
+            int d = days[r];
+            if (d >= first && d < end && (included == null || included[products[r]])) {
+                int b = bucketOfDay[d - first];
+                int q = quantities[r];
+                sum[2 * b] += q;
+                sum[2 * b + 1] += q * prices[r];
+            }
+        }
+        return sum;
+    }
+
+    private void add(LocalDate date, UUID productId, String productName, int qty, long price) {
+        if (size == day.length) {
+            int capacity = size * 2;
+            day = Arrays.copyOf(day, capacity);
+            product = Arrays.copyOf(product, capacity);
+            quantity = Arrays.copyOf(quantity, capacity);
+            priceCents = Arrays.copyOf(priceCents, capacity);
+        }
+        day[size] = (int) date.toEpochDay();
+        product[size] = code(productId, productName);
+        quantity[size] = qty;
+        priceCents[size] = price;
+        size++;
+    }
+
+    private int code(UUID productId, String productName) {
+        Integer existing = productCodes.get(productId);
+        if (existing != null) {
+            return existing;
+        }
+        int code = productCodes.size();
+        if (code == productIds.length) {
+            productIds = Arrays.copyOf(productIds, code * 2);
+            productNames = Arrays.copyOf(productNames, code * 2);
+        }
+        productIds[code] = productId;
+        productNames[code] = productName;
+        productCodes.put(productId, code);
+        return code;
+    }
+
+    private void publish() {
+        columns = new Columns(day, product, quantity, priceCents, size, productIds, productNames, productCodes.size());
+    }
+}
@@ -0,0 +1,81 @@
+package se.moln.orderservice.analytics;
+
+import java.util.UUID;
+
+/**
+ * Count-Min Sketch over product ids: {@code depth} rows of {@code width} counters. An estimate is
+ * never below the true count and exceeds it by at most {@link #errorBound()} with probability
+ * {@code 1 - e^-depth}. Sketches of the same shape merge by adding counters. Not thread-safe.
+ */
+final class CountMinSketch {
+
+    private final int width;
+    private final int depth;
+    private final long[] counts;
+    private long total;
+
+    CountMinSketch(int width, int depth) {
+        if (Integer.bitCount(width) != 1 || depth < 1) {
+            throw new IllegalArgumentException("width must be a power of two and depth positive");
+        }
+        this.width = width;
+        this.depth = depth;
+        this.counts = new long[width * depth];
+    }
+
+    void add(UUID key, long count) {
+        long h1 = mix(key.getMostSignificantBits());
+        long h2 = mix(key.getLeastSignificantBits()) | 1;
+        for (int row = 0; row < depth; row++) {
+            counts[row * width + index(h1, h2, row)] += count;
+        }
+        total += count;
+    }
+
+    long estimate(UUID key) {
+        long h1 = mix(key.getMostSignificantBits());
+        long h2 = mix(key.getLeastSignificantBits()) | 1;
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counts[row * width + index(h1, h2, row)]);
+        }
+        return min;
+    }
+
+    void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge sketches of different shape");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    /** Sum of everything added. */
+    long total() {
+        return total;
+    }
+
+    /** e / width * total: the most an estimate overcounts, except with probability e^-depth. */
+    long errorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    double confidence() {
+        return 1 - Math.exp(-depth);
+    }
+
+
+    // Row i uses h1 + i * h2 (double hashing), so one pair of 64-bit mixes covers every row
+    private int index(long h1, long h2, int row) {
+        return (int) ((h1 + row * h2) >>> 32) & (width - 1);
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
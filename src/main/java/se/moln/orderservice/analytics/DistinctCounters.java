@@ -0,0 +1,227 @@
+package se.moln.orderservice.analytics;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.model.DailyDistinctSketchId.Metric;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.service.OrderPlacedEvent;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Distinct buyers ({@code Order.userId}) and distinct products of CREATED orders over any date range,
+ * from one {@link HyperLogLog} per day and metric kept in {@code daily_distinct_sketch} (8 KB a day).
+ * <p>
+ * Committed orders are added to in-memory sketches of their day, which are merged into the stored
+ * ones every {@code analytics.distinct.flush-interval-ms} and at shutdown; queries combine both. A
+ * restart therefore reads a few stored rows instead of every order. Since adding an order twice does
+ * not change a sketch, the nightly job simply adds the last {@code analytics.rollup.rebuild-days}
+ * days of orders again, which recovers anything lost in a crash before a flush, and the first startup
+ * backfills all days the same way.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class DistinctCounters {
+
+    private static final Logger log = LoggerFactory.getLogger(DistinctCounters.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int repairDays;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private final Object flushLock = new Object();
+    // Guarded by this: added since the last flush, and the batch a running flush is writing (no longer modified)
+    private Map<LocalDate, Day> pending = new TreeMap<>();
+    private Map<LocalDate, Day> flushing = Map.of();
+
+    private record Day(HyperLogLog buyers, HyperLogLog products) {
+        Day() {
+            this(new HyperLogLog(), new HyperLogLog());
+        }
+    }
+
+    public record Counts(long buyers, long products) {
+    }
+
+    public DistinctCounters(JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate,
+                            @Value("${analytics.rollup.rebuild-days:7}") int repairDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.repairDays = Math.max(1, repairDays);
+    }
+
+    @TransactionalEventListener
+    public void onOrderPlaced(OrderPlacedEvent event) {
+        record(event.order());
+    }
+
+    public void record(Order order) {
+        if (order.getStatus() != OrderStatus.CREATED || order.getOrderDate() == null) {
+            return;
+        }
+        LocalDate date = order.getOrderDate().atZoneSameInstant(zone).toLocalDate();
+        synchronized (this) {
+            Day day = pending.computeIfAbsent(date, d -> new Day());
+            if (order.getUserId() != null) {
+                day.buyers().add(order.getUserId());
+            }
+            if (order.getOrderItems() != null) {
+                for (OrderItem item : order.getOrderItems()) {
+                    if (item.getProductId() != null) {
+                        day.products().add(item.getProductId());
+                    }
+                }
+            }
+        }
+    }
+
+    /** Estimated distinct buyers and products from {@code from} to {@code to}, both inclusive (about 1.6% error). */
+    public Counts count(LocalDate from, LocalDate to) {
+        HyperLogLog buyers = new HyperLogLog();
+        HyperLogLog products = new HyperLogLog();
+        // Memory before the table: a batch flushed in between is then read twice, which a sketch ignores
+        synchronized (this) {
+            for (Map<LocalDate, Day> days : List.of(flushing, pending)) {
+                days.forEach((date, day) -> {
+                    if (!date.isBefore(from) && !date.isAfter(to)) {
+                        buyers.merge(day.buyers());
+                        products.merge(day.products());
+                    }
+                });
+            }
+        }
+        jdbcTemplate.query("SELECT metric, registers FROM daily_distinct_sketch WHERE sales_date BETWEEN ? AND ?",
+                rs -> {
+                    HyperLogLog stored = HyperLogLog.of(rs.getBytes(2));
+                    (Metric.valueOf(rs.getString(1)) == Metric.BUYERS ? buyers : products).merge(stored);
+                },
+                from, to);
+        return new Counts(buyers.estimate(), products.estimate());
+    }
+
+    /** Merges the in-memory sketches into {@code daily_distinct_sketch}. */
+    @Scheduled(fixedDelayString = "${analytics.distinct.flush-interval-ms:30000}")
+    @PreDestroy
+    public void flush() {
+        // Orders keep arriving into a fresh map while the swapped-out one is written
+        synchronized (flushLock) {
+            Map<LocalDate, Day> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                flushing = batch;
+                pending = new TreeMap<>();
+            }
+            try {
+                transactionTemplate.executeWithoutResult(status -> batch.forEach((date, day) -> {
+                    store(date, Metric.BUYERS, day.buyers());
+                    store(date, Metric.PRODUCTS, day.products());
+                }));
+            } catch (RuntimeException ex) {
+                log.warn("Could not store distinct-count sketches for {} days, retrying on next flush", batch.size(), ex);
+                synchronized (this) {
+                    batch.forEach((date, day) -> {
+                        Day current = pending.computeIfAbsent(date, d -> new Day());
+                        current.buyers().merge(day.buyers());
+                        current.products().merge(day.products());
+                    });
+                }
+            } finally {
+                synchronized (this) {
+                    flushing = Map.of();
+                }
+            }
+        }
+    }
+
+    @Scheduled(cron = "${analytics.rollup.rebuild-cron:0 30 3 * * *}")
+    public void repairRecent() {
+        int rows = addOrdersSince(LocalDate.now(zone).minusDays(repairDays - 1L));
+        flush();
+        log.info("Re-added the last {} days of orders to the distinct-count sketches ({} order lines)", repairDays, rows);
+    }
+
+    // Before MonthlyKpisCache starts keeping results
+    @EventListener(ApplicationReadyEvent.class)
+    @org.springframework.core.annotation.Order(Ordered.HIGHEST_PRECEDENCE)
+    public void backfillIfEmpty() {
+        boolean sketchesEmpty = jdbcTemplate.queryForList("SELECT 1 FROM daily_distinct_sketch LIMIT 1").isEmpty();
+        boolean hasOrders = !jdbcTemplate.queryForList("SELECT 1 FROM orders LIMIT 1").isEmpty();
+        if (sketchesEmpty && hasOrders) {
+            int rows = addOrdersSince(null);
+            flush();
+            log.info("Backfilled distinct-count sketches from existing orders ({} order lines)", rows);
+        }
+    }
+
+    /** Adds the CREATED orders from {@code since} (all when null) to the pending sketches. */
+    private int addOrdersSince(LocalDate since) {
+        String sql = """
+                SELECT o.order_date, o.user_id, i.product_id
+                  FROM orders o LEFT JOIN order_items i ON i.order_id = o.id
+                 WHERE o.status = ? AND o.order_date IS NOT NULL""";
+        Object[] args = since == null
+                ? new Object[]{OrderStatus.CREATED.name()}
+                : new Object[]{OrderStatus.CREATED.name(), since.atStartOfDay(zone).toOffsetDateTime()};
+        int[] rows = {0};
+        jdbcTemplate.query(since == null ? sql : sql + " AND o.order_date >= ?",
+                rs -> {
+                    LocalDate date = rs.getObject(1, OffsetDateTime.class).atZoneSameInstant(zone).toLocalDate();
+                    UUID userId = rs.getObject(2, UUID.class);
+                    UUID productId = rs.getObject(3, UUID.class);
+                    synchronized (this) {
+                        Day day = pending.computeIfAbsent(date, d -> new Day());
+                        if (userId != null) {
+                            day.buyers().add(userId);
+                        }
+                        if (productId != null) {
+                            day.products().add(productId);
+                        }
+                    }
+                    rows[0]++;
+                },
+                args);
+        return rows[0];
+    }
+
+    private void store(LocalDate date, Metric metric, HyperLogLog sketch) {
+        if (sketch.isEmpty()) {
+            return;
+        }
+        List<byte[]> stored = jdbcTemplate.query(
+                "SELECT registers FROM daily_distinct_sketch WHERE sales_date = ? AND metric = ? FOR UPDATE",
+                (rs, i) -> rs.getBytes(1), date, metric.name());
+        if (stored.isEmpty()) {
+            jdbcTemplate.update("INSERT INTO daily_distinct_sketch (sales_date, metric, registers) VALUES (?, ?, ?)",
+                    date, metric.name(), sketch.toBytes());
+        } else {
+            HyperLogLog merged = HyperLogLog.of(stored.get(0));
+            merged.merge(sketch);
+            jdbcTemplate.update("UPDATE daily_distinct_sketch SET registers = ? WHERE sales_date = ? AND metric = ?",
+                    merged.toBytes(), date, metric.name());
+        }
+    }
+}
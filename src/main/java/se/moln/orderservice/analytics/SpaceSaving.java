@@ -0,0 +1,113 @@
+package se.moln.orderservice.analytics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Weighted Space-Saving summary of the heaviest products, holding at most {@code capacity} counters
+ * whatever the catalog size. A tracked product's {@code count} never undercounts and overcounts by at
+ * most its {@code error}; any product with a true count above the smallest counter is tracked.
+ * Summaries merge (Agarwal et al., "Mergeable summaries") with the same guarantees. Not thread-safe.
+ */
+final class SpaceSaving {
+
+    static final class Counter {
+        final UUID productId;
+        String productName;
+        long count;
+        long error;
+
+        Counter(UUID productId, String productName, long count, long error) {
+            this.productId = productId;
+            this.productName = productName;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    private static final Comparator<Counter> HEAVIEST_FIRST = Comparator.comparingLong((Counter c) -> c.count).reversed()
+            .thenComparing(c -> c.productId);
+
+    private final int capacity;
+    private final Map<UUID, Counter> counters;
+
+    SpaceSaving(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.counters = new HashMap<>(this.capacity * 2);
+    }
+
+    void add(UUID productId, String productName, long weight) {
+        Counter c = counters.get(productId);
+        if (c != null) {
+            c.count += weight;
+            if (productName != null) {
+                c.productName = productName;
+            }
+            return;
+        }
+        if (counters.size() < capacity) {
+            counters.put(productId, new Counter(productId, productName, weight, 0));
+            return;
+        }
+        // Take over the smallest counter: the newcomer may have had up to that many before
+        Counter min = smallest();
+        counters.remove(min.productId);
+        counters.put(productId, new Counter(productId, productName, min.count + weight, min.count));
+    }
+
+    void merge(SpaceSaving other) {
+        long myMin = minCount();
+        long otherMin = other.minCount();
+        for (Counter c : counters.values()) {
+            Counter o = other.counters.get(c.productId);
+            if (o != null) {
+                c.count += o.count;
+                c.error += o.error;
+            } else {
+                c.count += otherMin;
+                c.error += otherMin;
+            }
+        }
+        for (Counter o : other.counters.values()) {
+            if (!counters.containsKey(o.productId)) {
+                counters.put(o.productId, new Counter(o.productId, o.productName, o.count + myMin, o.error + myMin));
+            }
+        }
+        if (counters.size() > capacity) {
+            List<Counter> keep = top(capacity);
+            counters.clear();
+            keep.forEach(c -> counters.put(c.productId, c));
+        }
+    }
+
+    /** The k heaviest counters, heaviest first. */
+    List<Counter> top(int k) {
+        List<Counter> all = new ArrayList<>(counters.values());
+        all.sort(HEAVIEST_FIRST);
+        return all.subList(0, Math.min(k, all.size()));
+    }
+
+    /** Upper bound on the count of any product that is not tracked. */
+    long minCount() {
+        return counters.size() < capacity ? 0 : smallest().count;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+
+    private Counter smallest() {
+        Counter min = null;
+        for (Counter c : counters.values()) {
+            if (min == null || c.count < min.count) {
+                min = c;
+            }
+        }
+        return min;
+    }
+}
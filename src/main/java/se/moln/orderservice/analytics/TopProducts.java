@@ -0,0 +1,221 @@
+package se.moln.orderservice.analytics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.server.ResponseStatusException;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.service.OrderPlacedEvent;
+import se.moln.orderservice.service.SalesRollupRebuiltEvent;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Streaming top-k of products by units sold (CREATED orders, like the other analytics endpoints).
+ * Every committed order is added to the window of its day and of its month; each window is a
+ * {@link SpaceSaving} summary plus a {@link CountMinSketch}, so memory depends on the configured
+ * capacity and sketch size only, never on the catalog. Ranges are answered by merging month windows
+ * for whole months and day windows for the rest; estimates come with their error bounds.
+ * <p>
+ * Windows are rebuilt from {@code daily_product_sales} once the startup backfill has filled it, and
+ * again after every nightly rebuild of the rollup.
+ */
+@Component
+public class TopProducts {
+
+    private static final Logger log = LoggerFactory.getLogger(TopProducts.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int capacity;
+    private final int sketchWidth;
+    private final int sketchDepth;
+    private final int retainDays;
+    private final int retainMonths;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    // Guarded by this
+    private final TreeMap<LocalDate, Window> days = new TreeMap<>();
+    private final TreeMap<YearMonth, Window> months = new TreeMap<>();
+
+    private record Window(SpaceSaving heavy, CountMinSketch sketch) {
+        void add(UUID productId, String productName, long units) {
+            heavy.add(productId, productName, units);
+            sketch.add(productId, units);
+        }
+
+        void merge(Window other) {
+            heavy.merge(other.heavy);
+            sketch.merge(other.sketch);
+        }
+    }
+
+    /**
+     * {@code unitsSold} is an upper bound and {@code minUnitsSold} a lower bound on the true count;
+     * {@code guaranteed} means the product is in the true top-k whatever the errors.
+     */
+    public record Estimate(UUID productId, String productName, long unitsSold, long minUnitsSold, boolean guaranteed) {
+    }
+
+    /** {@code sketchErrorBound}: no estimate overcounts by more, with probability {@code confidence}. */
+    public record Result(LocalDate from, LocalDate to, long totalUnits, long sketchErrorBound, double confidence,
+                         List<Estimate> products) {
+    }
+
+    public TopProducts(JdbcTemplate jdbcTemplate,
+                       @Value("${analytics.top-products.capacity:100}") int capacity,
+                       @Value("${analytics.top-products.sketch-width:1024}") int sketchWidth,
+                       @Value("${analytics.top-products.sketch-depth:4}") int sketchDepth,
+                       @Value("${analytics.top-products.retain-days:62}") int retainDays,
+                       @Value("${analytics.top-products.retain-months:13}") int retainMonths) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.capacity = capacity;
+        this.sketchWidth = sketchWidth;
+        this.sketchDepth = sketchDepth;
+        this.retainDays = retainDays;
+        this.retainMonths = retainMonths;
+    }
+
+    // Runs after the rollup backfill, which listens to the same event with a higher precedence
+    @EventListener(ApplicationReadyEvent.class)
+    @org.springframework.core.annotation.Order(Ordered.LOWEST_PRECEDENCE)
+    public void onBackfillsDone() {
+        load();
+    }
+
+    @EventListener
+    public void onRollupRebuilt(SalesRollupRebuiltEvent event) {
+        load();
+    }
+
+    public synchronized void load() {
+        long start = System.nanoTime();
+        days.clear();
+        months.clear();
+        LocalDate first = oldestMonth(LocalDate.now(zone)).atDay(1);
+        int[] rows = {0};
+        jdbcTemplate.query("""
+                SELECT sales_date, product_id, product_name, units_sold FROM daily_product_sales
+                 WHERE status = ? AND sales_date >= ?""",
+                rs -> {
+                    add(rs.getObject(1, LocalDate.class), rs.getObject(2, UUID.class), rs.getString(3), rs.getLong(4));
+                    rows[0]++;
+                },
+                OrderStatus.CREATED.name(), first);
+        log.info("Built top-product windows for {} days and {} months from {} rollup rows in {} ms",
+                days.size(), months.size(), rows[0], (System.nanoTime() - start) / 1_000_000);
+    }
+
+    @TransactionalEventListener
+    public void onOrderPlaced(OrderPlacedEvent event) {
+        record(event.order());
+    }
+
+    public void record(Order order) {
+        if (order.getStatus() != OrderStatus.CREATED || order.getOrderDate() == null || order.getOrderItems() == null) {
+            return;
+        }
+        LocalDate date = order.getOrderDate().atZoneSameInstant(zone).toLocalDate();
+        synchronized (this) {
+            evict(LocalDate.now(zone));
+            for (OrderItem item : order.getOrderItems()) {
+                if (item.getProductId() != null && item.getQuantity() > 0) {
+                    add(date, item.getProductId(), item.getProductName(), item.getQuantity());
+                }
+            }
+        }
+    }
+
+    /** The k products with the most units sold from {@code from} to {@code to}, both inclusive. */
+    public Result top(LocalDate from, LocalDate to, int k) {
+        if (k < 1 || k > capacity) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "k must be between 1 and " + capacity);
+        }
+        if (to.isBefore(from)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+        }
+        Window merged = new Window(new SpaceSaving(capacity), new CountMinSketch(sketchWidth, sketchDepth));
+        synchronized (this) {
+            LocalDate today = LocalDate.now(zone);
+            evict(today);
+            for (YearMonth ym = YearMonth.from(from); !ym.isAfter(YearMonth.from(to)); ym = ym.plusMonths(1)) {
+                LocalDate start = max(from, ym.atDay(1));
+                LocalDate end = min(to, ym.atEndOfMonth());
+                if (start.equals(ym.atDay(1)) && end.equals(ym.atEndOfMonth()) && !ym.isBefore(oldestMonth(today))) {
+                    Window w = months.get(ym);
+                    if (w != null) {
+                        merged.merge(w);
+                    }
+                } else if (!start.isBefore(oldestDay(today))) {
+                    days.subMap(start, true, end, true).values().forEach(merged::merge);
+                } else {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Partial months are only kept for the last "
+                            + retainDays + " days and whole months for the last " + retainMonths + " months");
+                }
+            }
+        }
+        return result(from, to, merged, k);
+    }
+
+    private static Result result(LocalDate from, LocalDate to, Window w, int k) {
+        List<SpaceSaving.Counter> counters = w.heavy().top(k + 1);
+        // Whatever is not listed has at most this many: the (k+1)-th counter, or an untracked product
+        long outsideMax = Math.max(w.heavy().minCount(), counters.size() > k ? counters.get(k).count : 0);
+        List<Estimate> products = new ArrayList<>(k);
+        for (SpaceSaving.Counter c : counters.subList(0, Math.min(k, counters.size()))) {
+            long upper = Math.min(c.count, w.sketch().estimate(c.productId));
+            long lower = Math.max(0, c.count - c.error);
+            products.add(new Estimate(c.productId, c.productName, upper, lower, lower >= outsideMax));
+        }
+        return new Result(from, to, w.sketch().total(), w.sketch().errorBound(), w.sketch().confidence(), products);
+    }
+
+    private void add(LocalDate date, UUID productId, String productName, long units) {
+        if (date.isBefore(oldestMonth(LocalDate.now(zone)).atDay(1))) {
+            return;
+        }
+        window(months, YearMonth.from(date)).add(productId, productName, units);
+        if (!date.isBefore(oldestDay(LocalDate.now(zone)))) {
+            window(days, date).add(productId, productName, units);
+        }
+    }
+
+    private <K> Window window(TreeMap<K, Window> windows, K key) {
+        return windows.computeIfAbsent(key, x -> new Window(new SpaceSaving(capacity), new CountMinSketch(sketchWidth, sketchDepth)));
+    }
+
+    private void evict(LocalDate today) {
+        days.headMap(oldestDay(today)).clear();
+        months.headMap(oldestMonth(today)).clear();
+    }
+
+    private LocalDate oldestDay(LocalDate today) {
+        return today.minusDays(retainDays - 1L);
+    }
+
+    private YearMonth oldestMonth(LocalDate today) {
+        return YearMonth.from(today).minusMonths(retainMonths - 1L);
+    }
+
+    private static LocalDate max(LocalDate a, LocalDate b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static LocalDate min(LocalDate a, LocalDate b) {
+        return a.isBefore(b) ? a : b;
+    }
+}
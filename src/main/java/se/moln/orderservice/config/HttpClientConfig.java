@@ -0,0 +1,16 @@
+package se.moln.orderservice.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.client.RestTemplate;
+import se.moln.orderservice.http.OutboundHttp;
+
+@Configuration
+public class HttpClientConfig {
+
+    // Shared by ProductCatalog and InventoryClient (same host, same pool, same limits)
+    @Bean
+    public RestTemplate productServiceRestTemplate(OutboundHttp outboundHttp) {
+        return outboundHttp.restTemplate("product-service");
+    }
+}
@@ -0,0 +1,37 @@
+package se.moln.orderservice.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.lang.NonNull;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import se.moln.orderservice.security.AuthenticatedUserArgumentResolver;
+import se.moln.orderservice.security.JwtAuthenticationFilter;
+import se.moln.orderservice.service.JwtService;
+
+import java.util.List;
+
+@Configuration
+public class SecurityConfig implements WebMvcConfigurer {
+
+    // Efter CORS-filtret så att 401-svar också får CORS-headers
+    @Bean
+    public FilterRegistrationBean<JwtAuthenticationFilter> jwtAuthenticationFilter(
+            JwtService jwtService,
+            ObjectMapper objectMapper,
+            @Value("${security.jwt.protected-paths}") List<String> protectedPaths) {
+        FilterRegistrationBean<JwtAuthenticationFilter> registration =
+                new FilterRegistrationBean<>(new JwtAuthenticationFilter(jwtService, objectMapper, protectedPaths));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+        return registration;
+    }
+
+    @Override
+    public void addArgumentResolvers(@NonNull List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new AuthenticatedUserArgumentResolver());
+    }
+}
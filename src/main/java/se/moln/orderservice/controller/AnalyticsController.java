@@ -1,6 +1,7 @@
 package se.moln.orderservice.controller;
 
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -8,38 +9,46 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import lombok.RequiredArgsConstructor;
-import org.springframework.http.HttpStatus;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.web.bind.annotation.GetMapping;
-import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.server.ResponseStatusException;
-import se.moln.orderservice.model.Order;
-import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.analytics.ColumnarOrderItems;
+import se.moln.orderservice.analytics.DistinctCounters;
+import se.moln.orderservice.analytics.TopProducts;
+import se.moln.orderservice.dto.MonthlyKpisResponse;
+import se.moln.orderservice.dto.ProductStat;
+import se.moln.orderservice.model.Money;
 import se.moln.orderservice.model.OrderStatus;
-import se.moln.orderservice.repository.OrderRepository;
-import se.moln.orderservice.service.JwtService;
-
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.time.OffsetDateTime;
+import se.moln.orderservice.repository.DailyProductSalesRepository;
+import se.moln.orderservice.repository.DailyProductSalesRepository.SalesTotals;
+import se.moln.orderservice.security.AuthenticatedUser;
+import se.moln.orderservice.service.MonthlyKpisCache;
+import se.moln.orderservice.service.SalesTimeseries;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.YearMonth;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
+import java.util.Optional;
 import java.util.UUID;
 
 @RestController
 @RequiredArgsConstructor
 public class AnalyticsController {
 
-    private final OrderRepository orders;
-    private final JwtService jwtService;
+    private final DailyProductSalesRepository dailySales;
+    private final SalesTimeseries timeseries;
+    private final TopProducts topProducts;
+    private final DistinctCounters distinctCounters;
+    private final MonthlyKpisCache kpiCache;
+    private final Optional<ColumnarOrderItems> columnar;
 
     @GetMapping("/analytics/monthly-kpis")
     @Operation(
             summary = "Enkel analytics",
-            description = "Returnerar antal sålda enheter, intäkter och mest populär produkt för angiven månad (standard är innevarande månad).",
+            description = "Returnerar antal sålda enheter, intäkter, mest populär produkt samt uppskattat antal unika köpare och produkter för angiven månad (standard är innevarande månad).",
             responses = {
                     @ApiResponse(responseCode = "200", description = "OK", content = @Content(
                             schema = @Schema(implementation = MonthlyKpisResponse.class),
@@ -54,7 +63,9 @@ public class AnalyticsController {
                                                 "productName": "USB-C Hub 8-in-1",
                                                 "unitsSold": 42,
                                                 "revenue": "4199.00"
-                                              }
+                                              },
+                                              "uniqueBuyers": 57,
+                                              "uniqueProducts": 31
                                             }
                                             """)
                     )),
@@ -62,83 +73,147 @@ public class AnalyticsController {
             }
     )
     public MonthlyKpisResponse monthlyKpis(
+            // Krävs här också: utan giltig token svarar resolvern 401 även om filtret skulle missa sökvägen
+            @Parameter(hidden = true) AuthenticatedUser user,
             @RequestParam(required = false) Integer year,
-            @RequestParam(required = false) @Min(1) @Max(12) Integer month,
-            @RequestHeader(name = "Authorization", required = false) String authorization
+            @RequestParam(required = false) @Min(1) @Max(12) Integer month
     ) {
-        // Kräver giltig bearer-token
-        if (authorization == null || !authorization.startsWith("Bearer ")) {
-            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Missing Bearer token");
-        }
-        String token = authorization.substring(7);
-        if (!jwtService.isTokenValid(token)) {
-            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Invalid or expired token");
-        }
-
         YearMonth ym = (year == null || month == null)
                 ? YearMonth.now()
                 : YearMonth.of(year, month);
 
-        // Använd samma offset som "nu" för att passa OffsetDateTime-fält
-        var offset = OffsetDateTime.now().getOffset();
-        OffsetDateTime from = ym.atDay(1).atStartOfDay().atOffset(offset);
-        OffsetDateTime to = ym.plusMonths(1).atDay(1).atStartOfDay().atOffset(offset);
-
-        // Hämta endast CREATED ordrar inom intervallet
-        List<Order> created = orders.findByStatusAndOrderDateBetween(OrderStatus.CREATED, from, to);
+        // Stängda månader räknas en gång; innevarande månad tills nästa order sparas
+        return kpiCache.get(ym, () -> computeMonthlyKpis(ym));
+    }
 
-        // unitsSold = summa av alla item.quantity
-        int unitsSold = created.stream()
-                .flatMap(o -> o.getOrderItems().stream())
-                .mapToInt(OrderItem::getQuantity)
-                .sum();
+    private MonthlyKpisResponse computeMonthlyKpis(YearMonth ym) {
+        LocalDate from = ym.atDay(1);
+        LocalDate to = ym.atEndOfMonth();
+        // Unika köpare och produkter: uppskattas ur HyperLogLog-skisser per dag (ca 1.6 % fel)
+        DistinctCounters.Counts distinct = distinctCounters.count(from, to);
+
+        // Kolumnlagret i minnet om det är påslaget (analytics.columnar.enabled)
+        if (columnar.isPresent()) {
+            ColumnarOrderItems.Kpis kpis = columnar.get().kpis(from, to);
+            ProductStat top = kpis.topProductId() == null ? null : new ProductStat(kpis.topProductId(), kpis.topProductName(),
+                    (int) kpis.topProductUnits(), Money.ofMinor(kpis.topProductRevenueCents()));
+            return new MonthlyKpisResponse(ym.toString(), (int) kpis.unitsSold(), Money.ofMinor(kpis.revenueCents()), top,
+                    distinct.buyers(), distinct.products());
+        }
 
-        // revenue = summa av order.totalAmount
-        BigDecimal revenue = created.stream()
-                .map(o -> o.getTotalAmount() == null ? BigDecimal.ZERO : o.getTotalAmount())
-                .reduce(BigDecimal.ZERO, BigDecimal::add)
-                .setScale(2, RoundingMode.HALF_UP);
+        // Annars aggregeras i databasen över dagsaggregaten för månaden (CREATED ordrar)
+        SalesTotals totals = dailySales.totals(OrderStatus.CREATED, from, to);
 
         // topProduct = flest sålda enheter
-        record Agg(BigDecimal revenue, int units, String name) {
-        }
-        Map<UUID, Agg> byProduct = new HashMap<>();
-        for (Order o : created) {
-            for (OrderItem it : o.getOrderItems()) {
-                UUID pid = it.getProductId();
-                BigDecimal line = (it.getPriceAtPurchase() == null ? BigDecimal.ZERO : it.getPriceAtPurchase())
-                        .multiply(BigDecimal.valueOf(it.getQuantity()));
-                Agg prev = byProduct.getOrDefault(pid, new Agg(BigDecimal.ZERO, 0, it.getProductName()));
-                byProduct.put(pid, new Agg(prev.revenue.add(line), prev.units + it.getQuantity(), it.getProductName()));
-            }
-        }
-
-        ProductStat top = byProduct.entrySet().stream()
-                .sorted((a, b) -> Integer.compare(b.getValue().units, a.getValue().units))
-                .map(e -> new ProductStat(e.getKey(), e.getValue().name,
-                        e.getValue().units,
-                        e.getValue().revenue.setScale(2, RoundingMode.HALF_UP)))
-                .findFirst()
+        ProductStat top = dailySales.topProduct(OrderStatus.CREATED, from, to)
+                .map(p -> new ProductStat(p.getProductId(), p.getProductName(), (int) p.getUnitsSold(), Money.of(p.getRevenue())))
                 .orElse(null);
 
-        return new MonthlyKpisResponse(ym.toString(), unitsSold, revenue, top);
+        return new MonthlyKpisResponse(ym.toString(), (int) totals.getUnitsSold(), Money.of(totals.getRevenue()), top,
+                distinct.buyers(), distinct.products());
     }
 
 
-    public record MonthlyKpisResponse(
-            String yearMonth,
-            int unitsSold,
-            String revenue,   // serialiseras som sträng för exakt pengar-format
-            ProductStat topProduct
+
+    @GetMapping("/analytics/timeseries")
+    @Operation(
+            summary = "Tidsserie",
+            description = "Sålda enheter och intäkter per timme, dag, vecka eller månad mellan from (inklusive) och to (exklusive), "
+                    + "valfritt filtrerat på produkter. Tider anges i serverns tidszon och intervallet utökas till hela perioder.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK", content = @Content(
+                            schema = @Schema(implementation = TimeseriesResponse.class),
+                            examples = @ExampleObject(name = "Example",
+                                    value = """
+                                            {
+                                              "granularity": "day",
+                                              "from": "2025-09-01T00:00:00",
+                                              "to": "2025-09-03T00:00:00",
+                                              "buckets": [
+                                                { "start": "2025-09-01T00:00:00", "unitsSold": 12, "revenue": "1190.00" },
+                                                { "start": "2025-09-02T00:00:00", "unitsSold": 0, "revenue": "0.00" }
+                                              ]
+                                            }
+                                            """)
+                    )),
+                    @ApiResponse(responseCode = "400", description = "Ogiltigt intervall eller granularitet"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+            }
+    )
+    public TimeseriesResponse timeseries(
+            @Parameter(hidden = true) AuthenticatedUser user,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(defaultValue = "day") String granularity,
+            @RequestParam(name = "productId", required = false) List<UUID> productIds
     ) {
-        public MonthlyKpisResponse(String ym, int units, BigDecimal revenue, ProductStat top) {
-            this(ym, units, revenue.setScale(2, RoundingMode.HALF_UP).toPlainString(), top);
-        }
+        SalesTimeseries.Series series = timeseries.query(from, to, SalesTimeseries.Granularity.parse(granularity), productIds);
+        return new TimeseriesResponse(
+                series.granularity().name().toLowerCase(Locale.ROOT),
+                series.from(),
+                series.to(),
+                series.buckets().stream()
+                        .map(b -> new TimeseriesBucket(b.start(), b.unitsSold(), b.revenue()))
+                        .toList());
     }
 
-    public record ProductStat(UUID productId, String productName, int unitsSold, String revenue) {
-        public ProductStat(UUID id, String name, int units, BigDecimal revenue) {
-            this(id, name, units, revenue.setScale(2, RoundingMode.HALF_UP).toPlainString());
-        }
+    @GetMapping("/analytics/top-products")
+    @Operation(
+            summary = "Topplista produkter",
+            description = "De k produkter som sålt flest enheter mellan from och to (båda inklusive, standard är innevarande månad). "
+                    + "Räknas strömmande med Space-Saving och Count-Min Sketch: unitsSold är en övre gräns, minUnitsSold en undre, "
+                    + "och guaranteed betyder att produkten säkert hör till topp k.",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "OK", content = @Content(
+                            schema = @Schema(implementation = TopProductsResponse.class),
+                            examples = @ExampleObject(name = "Example",
+                                    value = """
+                                            {
+                                              "from": "2025-09-01",
+                                              "to": "2025-09-30",
+                                              "totalUnits": 134,
+                                              "errorBound": 1,
+                                              "confidence": 0.98,
+                                              "products": [
+                                                {
+                                                  "productId": "de305d54-75b4-431b-adb2-eb6b9e546014",
+                                                  "productName": "USB-C Hub 8-in-1",
+                                                  "unitsSold": 42,
+                                                  "minUnitsSold": 42,
+                                                  "guaranteed": true
+                                                }
+                                              ]
+                                            }
+                                            """)
+                    )),
+                    @ApiResponse(responseCode = "400", description = "Ogiltigt k eller intervall utanför det som sparas"),
+                    @ApiResponse(responseCode = "401", description = "Unauthorized")
+            }
+    )
+    public TopProductsResponse topProducts(
+            @Parameter(hidden = true) AuthenticatedUser user,
+            @RequestParam(defaultValue = "10") int k,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to
+    ) {
+        YearMonth current = YearMonth.now();
+        TopProducts.Result r = topProducts.top(from == null ? current.atDay(1) : from, to == null ? current.atEndOfMonth() : to, k);
+        return new TopProductsResponse(r.from(), r.to(), r.totalUnits(), r.sketchErrorBound(), r.confidence(),
+                r.products().stream()
+                        .map(p -> new TopProductEstimate(p.productId(), p.productName(), p.unitsSold(), p.minUnitsSold(), p.guaranteed()))
+                        .toList());
+    }
+
+    public record TopProductsResponse(LocalDate from, LocalDate to, long totalUnits, long errorBound, double confidence,
+                                      List<TopProductEstimate> products) {
+    }
+
+    public record TopProductEstimate(UUID productId, String productName, long unitsSold, long minUnitsSold, boolean guaranteed) {
+    }
+
+    public record TimeseriesResponse(String granularity, LocalDateTime from, LocalDateTime to, List<TimeseriesBucket> buckets) {
+    }
+
+    public record TimeseriesBucket(LocalDateTime start, long unitsSold, Money revenue) {
     }
-}
\ No newline at end of file
+}
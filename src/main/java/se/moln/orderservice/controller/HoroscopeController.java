@@ -8,6 +8,7 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import se.moln.orderservice.dto.HoroscopeRequest;
+import se.moln.orderservice.security.AuthenticatedUser;
 import se.moln.orderservice.service.EntitlementClient;
 import se.moln.orderservice.service.HoroscopeService;
 
@@ -27,13 +28,11 @@ public class HoroscopeController {
     }
 
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<?> create(@RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String auth,
+    public ResponseEntity<?> create(AuthenticatedUser user,
                                     @Valid @RequestBody HoroscopeRequest req) {
         // Require entitlement HOROSCOPE_PDF
         String sku = "HOROSCOPE_PDF";
-        if (auth == null || auth.isBlank()) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("code", "NEEDS_PURCHASE", "sku", sku));
-        }
+        String auth = user.bearer();
         boolean has = false;
         try {
             has = entitlementClient.hasEntitlement(auth, sku);
@@ -8,14 +8,17 @@ import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
-import org.springframework.http.HttpHeaders;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import se.moln.orderservice.dto.OrderHistoryDto;
+import se.moln.orderservice.dto.OrderHistoryPage;
 import se.moln.orderservice.dto.PurchaseRequest;
 import se.moln.orderservice.dto.PurchaseResponse;
+import se.moln.orderservice.security.AuthenticatedUser;
 import se.moln.orderservice.service.OrderService;
 import java.util.List;
 
@@ -40,11 +43,9 @@ public class OrderController {
                     content = @Content(mediaType = "application/json",
                             schema = @Schema(implementation = PurchaseResponse.class),
                             examples = @ExampleObject(name = "PurchaseResponse",
-                                    value = "{\n  \"orderId\": \"3fa85f64-5717-4562-b3fc-2c963f66afa6\",\n  \"orderNumber\": \"ORD-ABC12345\",\n  \"totalAmount\": 12999\n}"))),
+                                    value = "{\n  \"orderId\": \"3fa85f64-5717-4562-b3fc-2c963f66afa6\",\n  \"orderNumber\": \"ORD-250912-000001234\",\n  \"totalAmount\": 12999\n}"))),
             @ApiResponse(responseCode = "400", description = "Ogiltig förfrågan",
-                    content = @Content(mediaType = "application/problem+json",
-                            examples = @ExampleObject(name = "BadRequest",
-                                    value = "{\n  \"type\": \"about:blank\",\n  \"title\": \"Bad Request\",\n  \"status\": 400,\n  \"detail\": \"Missing bearer token\"\n}"))),
+                    content = @Content(mediaType = "application/problem+json")),
             @ApiResponse(responseCode = "401", description = "Otillåten (saknar eller ogiltig token)",
                     content = @Content(mediaType = "application/problem+json",
                             examples = @ExampleObject(name = "Unauthorized",
@@ -57,40 +58,47 @@ public class OrderController {
                     content = @Content(mediaType = "application/problem+json",
                             examples = @ExampleObject(name = "ConflictInsufficientStock",
                                     value = "{\n  \"type\": \"about:blank\",\n  \"title\": \"Conflict\",\n  \"status\": 409,\n  \"detail\": \"Insufficient stock | <downstream-body> | cid=<correlation-id>\"\n}"))),
+            @ApiResponse(responseCode = "422", description = "Idempotency-Key återanvänd för en annan förfrågan",
+                    content = @Content(mediaType = "application/problem+json")),
             @ApiResponse(responseCode = "502", description = "Fel i bakomliggande tjänst (Product/Inventory)",
                     content = @Content(mediaType = "application/problem+json",
                             examples = @ExampleObject(name = "BadGateway",
                                     value = "{\n  \"type\": \"about:blank\",\n  \"title\": \"Bad Gateway\",\n  \"status\": 502,\n  \"detail\": \"Product service error | cid=<correlation-id>\"\n}")))
     })
     public ResponseEntity<PurchaseResponse> purchase(
-            @Parameter(description = "Bearer-token i formatet 'Bearer <JWT>'")
-            @RequestHeader(name = HttpHeaders.AUTHORIZATION, required = false) String authHeader,
+            @Parameter(hidden = true) AuthenticatedUser user,
+            @Parameter(description = "Valfri nyckel per köpförsök. Omförsök med samma nyckel ger samma svar utan ny order")
+            @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey,
             @RequestBody PurchaseRequest purchaseRequest) {
-        String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : null;
-        PurchaseResponse resp = orderService.purchaseProduct(purchaseRequest, token);
+        PurchaseResponse resp = orderService.purchaseProduct(purchaseRequest, user, idempotencyKey);
         return ResponseEntity.ok(resp);
     }
 
     @GetMapping(path = "/history", produces = MediaType.APPLICATION_JSON_VALUE)
     @Operation(
             summary = "Hämta orderhistorik",
-            description = "Returnerar paginerad lista av användarens ordrar med orderrader. Kräver autentisering."
+            description = "Returnerar paginerad lista av användarens ordrar med orderrader, nyast först. Finns fler ordrar "
+                    + "sätts headern X-Next-Cursor; skicka dess värde som cursor för nästa sida. Kräver autentisering."
     )
     @ApiResponses({
             @ApiResponse(responseCode = "200", description = "OK",
                     content = @Content(mediaType = "application/json",
                             schema = @Schema(implementation = OrderHistoryDto.class),
                             examples = @ExampleObject(name = "OrderHistory",
-                                    value = "[{\n  \"id\": \"3fa85f64-5717-4562-b3fc-2c963f66afa6\",\n  \"orderNumber\": \"ORD-ABC12345\",\n  \"totalAmount\": 25998,\n  \"status\": \"CREATED\",\n  \"orderDate\": \"2025-09-12T10:15:30Z\",\n  \"items\": [{\n    \"productId\": \"aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaa3\",\n    \"productName\": \"iPhone 16 Pro\",\n    \"quantity\": 2,\n    \"priceAtPurchase\": 12999\n  }]\n}]"))),
+                                    value = "[{\n  \"id\": \"3fa85f64-5717-4562-b3fc-2c963f66afa6\",\n  \"orderNumber\": \"ORD-250912-000001234\",\n  \"totalAmount\": 25998,\n  \"status\": \"CREATED\",\n  \"orderDate\": \"2025-09-12T10:15:30Z\",\n  \"items\": [{\n    \"productId\": \"aaaaaaaa-aaaa-aaaa-aaaa-aaaaaaaaaaa3\",\n    \"productName\": \"iPhone 16 Pro\",\n    \"quantity\": 2,\n    \"priceAtPurchase\": 12999\n  }]\n}]"))),
+            @ApiResponse(responseCode = "400", description = "Ogiltig cursor eller sidstorlek", content = @Content),
             @ApiResponse(responseCode = "401", description = "Otillåten (saknar eller ogiltig token)", content = @Content)
     })
     public ResponseEntity<List<OrderHistoryDto>> history(
-            @Parameter(description = "Bearer-token i formatet 'Bearer <JWT>'")
-            @RequestHeader(name = HttpHeaders.AUTHORIZATION, required = false) String authHeader,
-            @Parameter(description = "Sida (0-baserad)") @RequestParam(defaultValue = "0") int page,
-            @Parameter(description = "Radsstorlek") @RequestParam(defaultValue = "200") int size) {
-        String token = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : null;
-        List<OrderHistoryDto> history = orderService.getOrderHistory(token, page, size);
-        return ResponseEntity.ok(history);
+            @Parameter(hidden = true) AuthenticatedUser user,
+            @Parameter(description = "X-Next-Cursor från föregående sida; page ignoreras då") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Sida (0-baserad)") @RequestParam(defaultValue = "0") @Min(0) int page,
+            @Parameter(description = "Radsstorlek (max 100)") @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size) {
+        OrderHistoryPage history = orderService.getOrderHistory(user, cursor, page, size);
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok();
+        if (history.nextCursor() != null) {
+            ok.header("X-Next-Cursor", history.nextCursor());
+        }
+        return ok.body(history.orders());
     }
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package se.moln.orderservice.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+public record InventoryBatchRequest(
+        @NotEmpty List<@Valid InventoryPurchaseRequest> items
+) {}
@@ -1,8 +1,18 @@
 package se.moln.orderservice.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 
+import java.util.UUID;
+
+// productId is only sent in batch calls; the per-item endpoints take it from the path
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public record InventoryPurchaseRequest(
+        UUID productId,
         @NotNull @Min(1) int quantity
-) {}
+) {
+    public InventoryPurchaseRequest(int quantity) {
+        this(null, quantity);
+    }
+}
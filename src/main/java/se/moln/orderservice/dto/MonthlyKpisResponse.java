@@ -0,0 +1,13 @@
+package se.moln.orderservice.dto;
+
+import se.moln.orderservice.model.Money;
+
+public record MonthlyKpisResponse(
+        String yearMonth,
+        int unitsSold,
+        Money revenue,   // serialiseras som sträng för exakt pengar-format
+        ProductStat topProduct,
+        long uniqueBuyers,
+        long uniqueProducts
+) {
+}
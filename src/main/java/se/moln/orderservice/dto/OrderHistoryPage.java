@@ -0,0 +1,6 @@
+package se.moln.orderservice.dto;
+
+import java.util.List;
+
+/** One page of order history; {@code nextCursor} is null when there are no more orders. */
+public record OrderHistoryPage(List<OrderHistoryDto> orders, String nextCursor) {}
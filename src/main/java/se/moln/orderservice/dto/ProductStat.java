@@ -0,0 +1,8 @@
+package se.moln.orderservice.dto;
+
+import se.moln.orderservice.model.Money;
+
+import java.util.UUID;
+
+public record ProductStat(UUID productId, String productName, int unitsSold, Money revenue) {
+}
@@ -0,0 +1,14 @@
+package se.moln.orderservice.http;
+
+import java.net.ConnectException;
+
+/**
+ * No permit for the host within {@code outbound.http.acquire-timeout}. The request never left the
+ * JVM, so like a refused connection it is safe to treat as not sent.
+ */
+public class HostLimitExceededException extends ConnectException {
+
+    public HostLimitExceededException(String host) {
+        super("Too many concurrent requests to " + host);
+    }
+}
@@ -0,0 +1,238 @@
+package se.moln.orderservice.http;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * The one outbound HTTP stack for calls to product-service, user-service and the LLM provider.
+ * <p>
+ * All callers share a single JDK {@link HttpClient}: keep-alive connection pool, connect timeout,
+ * and HTTP/1.1 unless {@code outbound.http.version} says otherwise (HTTP_2 suits https peers; on
+ * plain http the JDK tries an h2c upgrade on every new connection). On top of that every request
+ * gets a read timeout per logical client ({@code outbound.http.clients.<name>.read-timeout}), a cap
+ * on concurrent requests per host, and an {@code outbound.http.requests} timer tagged with client,
+ * host, route and status.
+ * <p>
+ * The JDK reads its pool settings ({@code jdk.httpclient.keepalive.timeout},
+ * {@code jdk.httpclient.connectionPoolSize}) from JVM-wide system properties; they are set on the
+ * command line in the Dockerfile, not from here.
+ */
+@Component
+public class OutboundHttp {
+
+    private static final Pattern ID_SEGMENT = Pattern.compile(
+            "/(?:[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|\\d+)(?=/|$)");
+
+    private final HttpClient httpClient;
+    private final Environment env;
+    private final MeterRegistry meterRegistry;
+    private final Duration defaultReadTimeout;
+    private final int maxPerHost;
+    private final Duration acquireTimeout;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    public OutboundHttp(Environment env,
+                        MeterRegistry meterRegistry,
+                        @Value("${outbound.http.connect-timeout:2s}") Duration connectTimeout,
+                        @Value("${outbound.http.read-timeout:10s}") Duration defaultReadTimeout,
+                        @Value("${outbound.http.version:HTTP_1_1}") HttpClient.Version version,
+                        @Value("${outbound.http.max-per-host:64}") int maxPerHost,
+                        @Value("${outbound.http.acquire-timeout:1s}") Duration acquireTimeout) {
+        this.httpClient = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        this.env = env;
+        this.meterRegistry = meterRegistry;
+        this.defaultReadTimeout = defaultReadTimeout;
+        this.maxPerHost = Math.max(1, maxPerHost);
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    /**
+     * Sends a request on the shared client. A request without its own timeout gets the
+     * read timeout configured for {@code client}.
+     */
+    public <T> HttpResponse<T> send(String client, java.net.http.HttpRequest request,
+                                    HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        java.net.http.HttpRequest timed = request.timeout().isPresent()
+                ? request
+                : java.net.http.HttpRequest.newBuilder(request, (name, value) -> true).timeout(readTimeout(client)).build();
+        URI uri = timed.uri();
+        Semaphore permits = acquire(uri);
+        long start = System.nanoTime();
+        String status = "IO_ERROR";
+        try {
+            HttpResponse<T> response = httpClient.send(timed, bodyHandler);
+            status = String.valueOf(response.statusCode());
+            return response;
+        } catch (HttpTimeoutException ex) {
+            status = "TIMEOUT";
+            throw ex;
+        } finally {
+            permits.release();
+            record(client, timed.method(), uri, status, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * A {@link RestTemplate} backed by the shared client, with the read timeout, host limit and
+     * metrics of {@code client}.
+     */
+    public RestTemplate restTemplate(String client) {
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(readTimeout(client));
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+        restTemplate.getInterceptors().add(new LimitAndTimeInterceptor(client));
+        return restTemplate;
+    }
+
+    Duration readTimeout(String client) {
+        String value = env.getProperty("outbound.http.clients." + client + ".read-timeout");
+        return value == null || value.isBlank() ? defaultReadTimeout : DurationStyle.detectAndParse(value.trim());
+    }
+
+    static String route(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        return ID_SEGMENT.matcher(path).replaceAll("/{id}");
+    }
+
+    private static String hostKey(URI uri) {
+        return uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+    }
+
+    private Semaphore acquire(URI uri) throws IOException {
+        String host = hostKey(uri);
+        Semaphore permits = hostPermits.computeIfAbsent(host, h -> new Semaphore(maxPerHost));
+        try {
+            if (!permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                meterRegistry.counter("outbound.http.rejected", "host", host).increment();
+                throw new HostLimitExceededException(host);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + host, ex);
+        }
+        return permits;
+    }
+
+    private void record(String client, String method, URI uri, String status, long nanos) {
+        Timer.builder("outbound.http.requests")
+                .tag("client", client)
+                .tag("host", hostKey(uri))
+                .tag("method", method)
+                .tag("route", route(uri.getPath()))
+                .tag("status", status)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private final class LimitAndTimeInterceptor implements ClientHttpRequestInterceptor {
+
+        private final String client;
+
+        LimitAndTimeInterceptor(String client) {
+            this.client = client;
+        }
+
+        @Override
+        public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+            URI uri = request.getURI();
+            Semaphore permits = acquire(uri);
+            long start = System.nanoTime();
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                // The permit is held until RestTemplate has read and closed the body
+                return new ReleasingResponse(response, () -> {
+                    permits.release();
+                    record(client, request.getMethod().name(), uri, String.valueOf(statusOf(response)), System.nanoTime() - start);
+                });
+            } catch (IOException | RuntimeException ex) {
+                permits.release();
+                String status = ex instanceof HttpTimeoutException ? "TIMEOUT" : "IO_ERROR";
+                record(client, request.getMethod().name(), uri, status, System.nanoTime() - start);
+                throw ex;
+            }
+        }
+
+        private static int statusOf(ClientHttpResponse response) {
+            try {
+                return response.getStatusCode().value();
+            } catch (IOException ex) {
+                return 0;
+            }
+        }
+    }
+
+    private static final class ReleasingResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse delegate;
+        private final Runnable onClose;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        ReleasingResponse(ClientHttpResponse delegate, Runnable onClose) {
+            this.delegate = delegate;
+            this.onClose = onClose;
+        }
+
+        @Override
+        public org.springframework.http.HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public org.springframework.http.HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public void close() {
+            try {
+                delegate.close();
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    onClose.run();
+                }
+            }
+        }
+    }
+}
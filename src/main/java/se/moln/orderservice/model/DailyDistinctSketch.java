@@ -0,0 +1,25 @@
+package se.moln.orderservice.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * HyperLogLog registers of the distinct buyers or products of one day (the order's local date).
+ * Maintained by {@link se.moln.orderservice.analytics.DistinctCounters}.
+ */
+@Entity
+@Table(name = "daily_distinct_sketch")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DailyDistinctSketch {
+    @EmbeddedId
+    private DailyDistinctSketchId id;
+    @Column(nullable = false, length = 4096)
+    private byte[] registers;
+}
@@ -0,0 +1,23 @@
+package se.moln.orderservice.model;
+
+import jakarta.persistence.Embeddable;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+@Embeddable
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DailyDistinctSketchId implements Serializable {
+    private LocalDate salesDate;
+    @Enumerated(EnumType.STRING)
+    private Metric metric;
+
+    public enum Metric { BUYERS, PRODUCTS }
+}
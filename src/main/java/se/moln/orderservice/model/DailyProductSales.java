@@ -0,0 +1,29 @@
+package se.moln.orderservice.model;
+
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Sales of one product on one day (the order's local date), per order status. Maintained by
+ * {@link se.moln.orderservice.service.DailySalesRollup} in the same transaction as the orders.
+ */
+@Entity
+@Table(name = "daily_product_sales")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DailyProductSales {
+    @EmbeddedId
+    private DailyProductSalesId id;
+    private String productName;
+    private long unitsSold;
+    private BigDecimal revenue;
+    // Orders that contained the product that day
+    private long orderCount;
+}
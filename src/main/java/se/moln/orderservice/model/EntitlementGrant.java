@@ -0,0 +1,76 @@
+package se.moln.orderservice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import se.moln.orderservice.model.id.TimeOrderedUuid;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Outbox row for an entitlement grant in user-service. Written in the same transaction as the
+ * order and removed once user-service has accepted the grant.
+ */
+@Entity
+@Table(name = "entitlement_outbox", indexes = {
+        @Index(name = "idx_entitlement_outbox_due", columnList = "status, nextAttemptAt"),
+        @Index(name = "idx_entitlement_outbox_claim", columnList = "claimId")
+})
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class EntitlementGrant {
+
+    @Id
+    @TimeOrderedUuid
+    private UUID id;
+
+    @Column(nullable = false)
+    private UUID orderId;
+
+    @Column(nullable = false)
+    private UUID userId;
+
+    @Column(nullable = false)
+    private String sku;
+
+    @Column(nullable = false)
+    private int quantity;
+
+    // user-service grants to "me", so the buyer's token is needed to deliver the grant. Kept in
+    // plaintext until the row is delivered or FAILED, then removed with the row or cleared
+    @Column(length = 4096)
+    private String bearerToken;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private OutboxStatus status;
+
+    // Delivery attempts started, counted when the row is claimed
+    private int attempts;
+
+    // Set by the dispatcher that holds the row until nextAttemptAt (the lease) passes
+    private UUID claimId;
+
+    @Column(nullable = false)
+    private Instant nextAttemptAt;
+
+    @Column(length = 1000)
+    private String lastError;
+
+    private Instant createdAt;
+
+    @PrePersist
+    public void onCreate() {
+        Instant now = Instant.now();
+        createdAt = now;
+        if (nextAttemptAt == null) {
+            nextAttemptAt = now;
+        }
+        if (status == null) {
+            status = OutboxStatus.PENDING;
+        }
+    }
+}
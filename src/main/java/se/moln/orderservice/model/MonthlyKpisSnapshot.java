@@ -0,0 +1,29 @@
+package se.moln.orderservice.model;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.OffsetDateTime;
+
+/**
+ * The monthly KPI response of a closed month as JSON, so it is computed once and survives restarts.
+ * Written by {@link se.moln.orderservice.service.MonthlyKpisCache}.
+ */
+@Entity
+@Table(name = "monthly_kpis_snapshot")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MonthlyKpisSnapshot {
+    @Id
+    @Column(length = 7)
+    private String yearMonth;
+    @Column(nullable = false, length = 4000)
+    private String response;
+    private OffsetDateTime computedAt;
+}
@@ -3,22 +3,29 @@ package se.moln.orderservice.model;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import java.math.BigDecimal;
+import se.moln.orderservice.model.id.TimeOrderedUuid;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
 
 @Entity
-@Table(name = "orders")
+@Table(name = "orders", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_orders_order_number", columnNames = "order_number")
+}, indexes = {
+        // Order history: one user's orders newest first, paged by (orderDate, id)
+        @Index(name = "idx_orders_user_date", columnList = "userId, orderDate DESC, id DESC"),
+        @Index(name = "idx_orders_status_date", columnList = "status, orderDate")
+})
 @Data
 @NoArgsConstructor
 public class Order {
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
+    @TimeOrderedUuid
     private UUID id;
     private UUID userId;
+    @Column(name = "order_number", nullable = false, length = 32)
     private String orderNumber;
-    private BigDecimal totalAmount;
+    private Money totalAmount;
     private OffsetDateTime orderDate;
     @Enumerated(EnumType.STRING)
     private OrderStatus status;
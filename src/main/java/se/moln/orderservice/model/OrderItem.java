@@ -3,7 +3,7 @@ package se.moln.orderservice.model;
 import jakarta.persistence.*;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import java.math.BigDecimal;
+import se.moln.orderservice.model.id.TimeOrderedUuid;
 import java.util.UUID;
 
 @Entity
@@ -12,11 +12,11 @@ import java.util.UUID;
 @NoArgsConstructor
 public class OrderItem {
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
+    @TimeOrderedUuid
     private UUID id;
     private UUID productId;
     private int quantity;
-    private BigDecimal priceAtPurchase;
+    private Money priceAtPurchase;
     private String productName;
 
     @ManyToOne
@@ -0,0 +1,7 @@
+package se.moln.orderservice.model;
+
+public enum OutboxStatus {
+    PENDING,
+    // gav upp efter max antal försök, kräver manuell hantering
+    FAILED
+}
@@ -2,13 +2,16 @@ package se.moln.orderservice.model;
 
 import jakarta.persistence.*;
 import lombok.*;
+import se.moln.orderservice.model.id.TimeOrderedUuid;
 import se.moln.orderservice.payment.dto.PaymentStatus;
 
 import java.time.Instant;
 import java.util.UUID;
 
 @Entity
-@Table(name = "payments")
+@Table(name = "payments", indexes = {
+        @Index(name = "idx_payments_provider_ref", columnList = "provider, providerRef")
+})
 @Getter
 @Setter
 @Builder
@@ -17,7 +20,7 @@ import java.util.UUID;
 public class Payment {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.UUID)
+    @TimeOrderedUuid
     private UUID id;
 
     @Column(nullable = false)
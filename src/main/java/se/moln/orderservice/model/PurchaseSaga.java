@@ -0,0 +1,74 @@
+package se.moln.orderservice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+import se.moln.orderservice.model.id.TimeOrderedUuid;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Persisted progress of one purchase: what has been reserved in product-service and whether
+ * the order made it to the database. Anything that did not reach {@link SagaState#COMPLETED}
+ * gets its reservation returned.
+ */
+@Entity
+@Table(name = "purchase_sagas", indexes = {
+        @Index(name = "idx_purchase_sagas_state", columnList = "state, nextAttemptAt")
+})
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PurchaseSaga {
+
+    @Id
+    @TimeOrderedUuid
+    private UUID id;
+
+    @Column(nullable = false)
+    private UUID userId;
+
+    @Column(nullable = false)
+    private String correlationId;
+
+    private UUID orderId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private SagaState state;
+
+    @ElementCollection(fetch = FetchType.EAGER)
+    @CollectionTable(name = "purchase_saga_lines", joinColumns = @JoinColumn(name = "saga_id"))
+    @Builder.Default
+    private List<SagaLine> lines = new ArrayList<>();
+
+    // product-service needs the buyer's token to return stock; cleared when the saga ends. Stored in
+    // plaintext, and a retry after the token expired fails until the saga gives up
+    @Column(length = 4096)
+    private String bearerToken;
+
+    private int attempts;
+    private Instant nextAttemptAt;
+
+    @Column(length = 1000)
+    private String lastError;
+
+    private Instant createdAt;
+    private Instant updatedAt;
+
+    @PrePersist
+    public void onCreate() {
+        Instant now = Instant.now();
+        createdAt = now;
+        updatedAt = now;
+    }
+
+    @PreUpdate
+    public void onUpdate() {
+        updatedAt = Instant.now();
+    }
+}
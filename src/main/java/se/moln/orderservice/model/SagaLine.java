@@ -0,0 +1,17 @@
+package se.moln.orderservice.model;
+
+import jakarta.persistence.Embeddable;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Embeddable
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SagaLine {
+    private UUID productId;
+    private int quantity;
+}
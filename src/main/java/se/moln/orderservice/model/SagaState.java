@@ -0,0 +1,15 @@
+package se.moln.orderservice.model;
+
+public enum SagaState {
+    // skrivs innan lagret reserveras, så en krasch mitt i reservationen syns vid omstart
+    RESERVING,
+    RESERVED,
+    // ordern och dess entitlement-outbox är sparade
+    COMPLETED,
+    // reservationen misslyckades, inget att lämna tillbaka
+    ABORTED,
+    COMPENSATING,
+    COMPENSATED,
+    // gav upp efter max antal försök, kräver manuell hantering
+    COMPENSATION_FAILED
+}
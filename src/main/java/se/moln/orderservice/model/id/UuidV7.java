@@ -0,0 +1,39 @@
+package se.moln.orderservice.model.id;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * UUID version 7 (RFC 9562): 48 bits of Unix milliseconds, a 12-bit counter, then 62 random bits.
+ * Ids from one JVM are strictly increasing; the counter keeps ids created in the same millisecond
+ * in order, and if it runs out the timestamp is bumped by one instead of going backwards.
+ */
+public final class UuidV7 {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    // (unix millis << 12) | counter of the last id handed out
+    private static final AtomicLong LAST = new AtomicLong();
+
+    private UuidV7() {
+    }
+
+    public static UUID randomUuid() {
+        long now = System.currentTimeMillis() << 12;
+        long stamp = LAST.updateAndGet(prev -> Math.max(now, prev + 1));
+        long millis = stamp >>> 12;
+        long counter = stamp & 0xFFF;
+
+        long msb = (millis << 16) | 0x7000L | counter;
+        long lsb = (RANDOM.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    /** Creation time encoded in a version 7 UUID, in Unix milliseconds. */
+    public static long timestamp(UUID uuid) {
+        if (uuid.version() != 7) {
+            throw new IllegalArgumentException("Not a version 7 UUID: " + uuid);
+        }
+        return uuid.getMostSignificantBits() >>> 16;
+    }
+}
@@ -0,0 +1,46 @@
+package se.moln.orderservice.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import se.moln.orderservice.model.DailyProductSales;
+import se.moln.orderservice.model.DailyProductSalesId;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface DailyProductSalesRepository extends JpaRepository<DailyProductSales, DailyProductSalesId> {
+
+    interface SalesTotals {
+        long getUnitsSold();
+        BigDecimal getRevenue();
+    }
+
+    interface ProductTotals {
+        UUID getProductId();
+        String getProductName();
+        long getUnitsSold();
+        BigDecimal getRevenue();
+    }
+
+    // Summeras i databasen över högst (antal dagar) x (antal produkter) rader: en rad tillbaka
+    @Query("""
+            select coalesce(sum(d.unitsSold), 0) as unitsSold, coalesce(sum(d.revenue), 0) as revenue
+              from DailyProductSales d
+             where d.id.status = :status and d.id.salesDate between :from and :to""")
+    SalesTotals totals(@Param("status") OrderStatus status, @Param("from") LocalDate from, @Param("to") LocalDate to);
+
+    // Produkten med flest sålda enheter i intervallet (vid lika: högst intäkt)
+    @Query("""
+            select d.id.productId as productId, max(d.productName) as productName,
+                   sum(d.unitsSold) as unitsSold, coalesce(sum(d.revenue), 0) as revenue
+              from DailyProductSales d
+             where d.id.status = :status and d.id.salesDate between :from and :to
+             group by d.id.productId
+             order by sum(d.unitsSold) desc, coalesce(sum(d.revenue), 0) desc
+             limit 1""")
+    Optional<ProductTotals> topProduct(@Param("status") OrderStatus status, @Param("from") LocalDate from, @Param("to") LocalDate to);
+}
@@ -0,0 +1,37 @@
+package se.moln.orderservice.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import se.moln.orderservice.model.EntitlementGrant;
+import se.moln.orderservice.model.OutboxStatus;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface EntitlementGrantRepository extends JpaRepository<EntitlementGrant, UUID> {
+
+    //används av outbox-dispatchern. Äldsta först så att ingen rad svälter
+    List<EntitlementGrant> findByStatusAndNextAttemptAtLessThanEqualOrderByCreatedAtAsc(
+            OutboxStatus status, Instant now, Pageable pageable);
+
+    // Tar de rader som fortfarande är förfallna; en annan dispatcher som hann före har redan flyttat nextAttemptAt
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("""
+            update EntitlementGrant g
+               set g.claimId = :claimId, g.nextAttemptAt = :leaseUntil, g.attempts = g.attempts + 1
+             where g.id in :ids and g.status = se.moln.orderservice.model.OutboxStatus.PENDING and g.nextAttemptAt <= :now
+            """)
+    int claim(@Param("ids") Collection<UUID> ids, @Param("claimId") UUID claimId,
+              @Param("now") Instant now, @Param("leaseUntil") Instant leaseUntil);
+
+    List<EntitlementGrant> findByClaimIdOrderByCreatedAtAsc(UUID claimId);
+
+    long countByStatus(OutboxStatus status);
+}
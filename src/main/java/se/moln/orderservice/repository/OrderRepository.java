@@ -1,23 +1,37 @@
 package se.moln.orderservice.repository;
 
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import se.moln.orderservice.model.Order;
-import se.moln.orderservice.model.OrderStatus;
 
 import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
 public interface OrderRepository extends JpaRepository<Order, UUID> {
     List<Order> findByUserIdOrderByOrderDateDesc(UUID userId);
 
-    @EntityGraph(attributePaths = {"orderItems"})
-    Page<Order> findByUserId(UUID userId, Pageable pageable);
+    /**
+     * One page of a user's order ids, newest first. Paged in the database (LIMIT/OFFSET); fetching
+     * the items here instead would make Hibernate load every order of the user and page in memory.
+     */
+    @Query("select o.id from Order o where o.userId = :userId order by o.orderDate desc, o.id desc")
+    List<UUID> findIdsByUserId(UUID userId, Pageable pageable);
 
-    //används av analytics. Hämtar COMPLETED ordrar i intervallet och laddar orderItems
-    @EntityGraph(attributePaths = {"orderItems"})
-    List<Order> findByStatusAndOrderDateBetween(OrderStatus status, OffsetDateTime from, OffsetDateTime to);
+    /**
+     * The next page of a user's order ids after {@code (orderDate, id)} in the same order. A seek on
+     * {@code idx_orders_user_date}, so each page costs the same however far the client has scrolled.
+     */
+    @Query("""
+            select o.id from Order o
+             where o.userId = :userId
+               and (o.orderDate < :orderDate or (o.orderDate = :orderDate and o.id < :id))
+             order by o.orderDate desc, o.id desc""")
+    List<UUID> findIdsByUserIdBefore(UUID userId, OffsetDateTime orderDate, UUID id, Pageable pageable);
+
+    /** The given orders with their items in one query, in no particular order. */
+    @Query("select o from Order o left join fetch o.orderItems where o.id in :ids")
+    List<Order> findWithItemsByIdIn(Collection<UUID> ids);
 }
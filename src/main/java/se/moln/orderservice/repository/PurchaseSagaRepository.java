@@ -0,0 +1,39 @@
+package se.moln.orderservice.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import se.moln.orderservice.model.PurchaseSaga;
+import se.moln.orderservice.model.SagaState;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+public interface PurchaseSagaRepository extends JpaRepository<PurchaseSaga, UUID> {
+
+    //används av kompensations-sweepern: förfallna återlämningar och köp som ingen har rört sedan abandonedBefore
+    @Query("""
+            select s from PurchaseSaga s
+             where (s.state = se.moln.orderservice.model.SagaState.COMPENSATING and s.nextAttemptAt <= :now)
+                or (s.state in (se.moln.orderservice.model.SagaState.RESERVING, se.moln.orderservice.model.SagaState.RESERVED)
+                    and s.updatedAt < :abandonedBefore)
+            """)
+    List<PurchaseSaga> findDue(@Param("now") Instant now, @Param("abandonedBefore") Instant abandonedBefore);
+
+    // Tar sagan om den fortfarande är förfallen; en annan instans som hann före har redan flyttat nextAttemptAt
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("""
+            update PurchaseSaga s
+               set s.state = se.moln.orderservice.model.SagaState.COMPENSATING, s.nextAttemptAt = :leaseUntil, s.updatedAt = :now
+             where s.id = :id
+               and ((s.state = se.moln.orderservice.model.SagaState.COMPENSATING and s.nextAttemptAt <= :now)
+                 or (s.state in (se.moln.orderservice.model.SagaState.RESERVING, se.moln.orderservice.model.SagaState.RESERVED)
+                     and s.updatedAt < :abandonedBefore))
+            """)
+    int claim(@Param("id") UUID id, @Param("now") Instant now, @Param("leaseUntil") Instant leaseUntil,
+              @Param("abandonedBefore") Instant abandonedBefore);
+}
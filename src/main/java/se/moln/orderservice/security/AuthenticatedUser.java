@@ -0,0 +1,20 @@
+package se.moln.orderservice.security;
+
+import io.jsonwebtoken.Claims;
+
+import java.util.UUID;
+
+/**
+ * The caller of the current request, as established once by {@link JwtAuthenticationFilter}.
+ * Declare it as a controller method parameter to receive it.
+ *
+ * @param token the raw JWT (without "Bearer "), forwarded to downstream services
+ */
+public record AuthenticatedUser(UUID userId, String token, Claims claims) {
+
+    static final String REQUEST_ATTRIBUTE = AuthenticatedUser.class.getName();
+
+    public String bearer() {
+        return "Bearer " + token;
+    }
+}
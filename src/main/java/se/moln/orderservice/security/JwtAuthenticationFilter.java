@@ -0,0 +1,92 @@
+package se.moln.orderservice.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+import se.moln.orderservice.service.JwtService;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Verifies the bearer token once per request for the paths in {@code security.jwt.protected-paths}
+ * and publishes the caller as an {@link AuthenticatedUser} request attribute. Requests without a
+ * valid token get a 401 problem response before any controller or database work.
+ * <p>
+ * Paths are matched the way Spring MVC routes them: percent-decoded, with {@code ;} parameters
+ * removed and {@code //} and {@code ..} collapsed, so {@code /analytics;x/top-products} or
+ * {@code /%61nalytics/...} are protected too. Handlers still declare an {@link AuthenticatedUser}
+ * parameter so a request that slips past the filter gets a 401 rather than data.
+ */
+public class JwtAuthenticationFilter extends OncePerRequestFilter {
+
+    private static final String BEARER = "Bearer ";
+
+    private final JwtService jwtService;
+    private final ObjectMapper objectMapper;
+    private final List<String> protectedPaths;
+    private final AntPathMatcher matcher = new AntPathMatcher();
+    private final UrlPathHelper pathHelper = new UrlPathHelper();
+
+    public JwtAuthenticationFilter(JwtService jwtService,
+                                   ObjectMapper objectMapper,
+                                   List<String> protectedPaths) {
+        this.jwtService = jwtService;
+        this.objectMapper = objectMapper;
+        this.protectedPaths = protectedPaths;
+        this.pathHelper.setUrlDecode(true);
+        this.pathHelper.setRemoveSemicolonContent(true);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (HttpMethod.OPTIONS.matches(request.getMethod())) {
+            return true;
+        }
+        String path = StringUtils.cleanPath(pathHelper.getPathWithinApplication(request));
+        return protectedPaths.stream().noneMatch(p -> matcher.match(p, path));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String header = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (header == null || !header.startsWith(BEARER) || header.length() == BEARER.length()) {
+            reject(response, "Missing Bearer token");
+            return;
+        }
+        String token = header.substring(BEARER.length()).trim();
+        AuthenticatedUser user;
+        try {
+            Claims claims = jwtService.extractAllClaims(token);
+            UUID userId = jwtService.userIdOf(claims);
+            user = new AuthenticatedUser(userId, token, claims);
+        } catch (Exception ex) {
+            reject(response, "Invalid or expired token");
+            return;
+        }
+        request.setAttribute(AuthenticatedUser.REQUEST_ATTRIBUTE, user);
+        chain.doFilter(request, response);
+    }
+
+    private void reject(HttpServletResponse response, String detail) throws IOException {
+        ProblemDetail pd = ProblemDetail.forStatusAndDetail(HttpStatus.UNAUTHORIZED, detail);
+        response.setStatus(HttpStatus.UNAUTHORIZED.value());
+        response.setHeader(HttpHeaders.WWW_AUTHENTICATE, "Bearer");
+        response.setContentType(MediaType.APPLICATION_PROBLEM_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), pd);
+    }
+}
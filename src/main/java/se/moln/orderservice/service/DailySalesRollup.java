@@ -0,0 +1,232 @@
+package se.moln.orderservice.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.model.Money;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.sql.BatchUpdateException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Keeps {@code daily_product_sales} (units, revenue and order count per day, order status and
+ * product) current so analytics reads a handful of rollup rows instead of every order of a period.
+ * <p>
+ * {@link #record} is called by {@link OrderWriter} inside the transaction that saves the orders, so
+ * the rollup commits or rolls back with them. {@link #rebuild} recomputes a date range from
+ * {@code orders}/{@code order_items}; it runs once at startup when the table is still empty (backfill)
+ * and nightly for the last {@code analytics.rollup.rebuild-days} days, after which a
+ * {@link SalesRollupRebuiltEvent} is published. Days are the order's date in the JVM time zone.
+ */
+@Component
+public class DailySalesRollup {
+
+    private static final Logger log = LoggerFactory.getLogger(DailySalesRollup.class);
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final String UPDATE = """
+            UPDATE daily_product_sales
+               SET units_sold = units_sold + ?, revenue = revenue + ?, order_count = order_count + ?, product_name = ?
+             WHERE sales_date = ? AND status = ? AND product_id = ?""";
+    private static final String INSERT = """
+            INSERT INTO daily_product_sales (sales_date, status, product_id, product_name, units_sold, revenue, order_count)
+            VALUES (?, ?, ?, ?, ?, ?, ?)""";
+    private static final String AGGREGATE = """
+            INSERT INTO daily_product_sales (sales_date, status, product_id, product_name, units_sold, revenue, order_count)
+            SELECT CAST(o.order_date AS DATE), o.status, i.product_id, MAX(i.product_name),
+                   SUM(i.quantity), SUM(COALESCE(i.price_at_purchase, 0) * i.quantity), COUNT(DISTINCT o.id)
+              FROM orders o JOIN order_items i ON i.order_id = o.id
+             WHERE o.order_date IS NOT NULL AND o.status IS NOT NULL AND i.product_id IS NOT NULL %s
+             GROUP BY CAST(o.order_date AS DATE), o.status, i.product_id""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int rebuildDays;
+    private final ApplicationEventPublisher events;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private record Key(LocalDate day, OrderStatus status, UUID productId) { }
+
+    private static final Comparator<Key> LOCK_ORDER = Comparator.comparing(Key::day)
+            .thenComparing(Key::status)
+            .thenComparing(Key::productId);
+
+    private static final class Totals {
+        String productName;
+        long units;
+        Money revenue = Money.ZERO;
+        long orders;
+    }
+
+    public DailySalesRollup(JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate,
+                            @Value("${analytics.rollup.rebuild-days:7}") int rebuildDays,
+                            ApplicationEventPublisher events) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.rebuildDays = Math.max(1, rebuildDays);
+        this.events = events;
+    }
+
+    /**
+     * Adds freshly saved orders to the rollup. Must run in the transaction that saves them.
+     */
+    public void record(Collection<Order> orders) {
+        // Sorted keys: concurrent transactions lock rollup rows in the same order and cannot deadlock
+        Map<Key, Totals> totals = new TreeMap<>(LOCK_ORDER);
+        for (Order order : orders) {
+            if (order.getOrderDate() == null || order.getStatus() == null || order.getOrderItems() == null) {
+                continue;
+            }
+            LocalDate day = order.getOrderDate().atZoneSameInstant(zone).toLocalDate();
+            Set<UUID> productsInOrder = new HashSet<>();
+            for (OrderItem item : order.getOrderItems()) {
+                Totals t = totals.computeIfAbsent(new Key(day, order.getStatus(), item.getProductId()), k -> new Totals());
+                t.productName = item.getProductName();
+                t.units += item.getQuantity();
+                if (item.getPriceAtPurchase() != null) {
+                    t.revenue = t.revenue.plus(item.getPriceAtPurchase().times(item.getQuantity()));
+                }
+                if (productsInOrder.add(item.getProductId())) {
+                    t.orders++;
+                }
+            }
+        }
+        addAll(totals);
+    }
+
+    /**
+     * Recomputes the rollup for {@code from}..{@code to} (inclusive) from the order tables in one
+     * transaction. Safe to run while orders are being written.
+     *
+     * @return number of rollup rows written
+     */
+    public int rebuild(LocalDate from, LocalDate to) {
+        return rebuild("AND CAST(o.order_date AS DATE) BETWEEN ? AND ?",
+                "DELETE FROM daily_product_sales WHERE sales_date BETWEEN ? AND ?", from, to);
+    }
+
+    public int rebuildAll() {
+        return rebuild("", "DELETE FROM daily_product_sales");
+    }
+
+    @Scheduled(cron = "${analytics.rollup.rebuild-cron:0 30 3 * * *}")
+    public void rebuildRecent() {
+        LocalDate today = LocalDate.now(zone);
+        LocalDate from = today.minusDays(rebuildDays - 1L);
+        int rows = rebuild(from, today);
+        log.info("Rebuilt daily sales rollup for the last {} days ({} rows)", rebuildDays, rows);
+        events.publishEvent(new SalesRollupRebuiltEvent(from, today));
+    }
+
+    // Before MonthlyKpisCache starts keeping results and TopProducts loads its windows
+    @EventListener(ApplicationReadyEvent.class)
+    @org.springframework.core.annotation.Order(Ordered.HIGHEST_PRECEDENCE)
+    public void backfillIfEmpty() {
+        boolean rollupEmpty = jdbcTemplate.queryForList("SELECT 1 FROM daily_product_sales LIMIT 1").isEmpty();
+        boolean hasOrders = !jdbcTemplate.queryForList("SELECT 1 FROM orders LIMIT 1").isEmpty();
+        if (rollupEmpty && hasOrders) {
+            int rows = rebuildAll();
+            log.info("Backfilled daily sales rollup from existing orders ({} rows)", rows);
+        }
+    }
+
+    private int rebuild(String rangeCondition, String delete, Object... range) {
+        // A purchase inserting a new rollup row concurrently makes our insert collide; the rerun then sees its order
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Integer rows = transactionTemplate.execute(status -> {
+                    jdbcTemplate.update(delete, range);
+                    return jdbcTemplate.update(AGGREGATE.formatted(rangeCondition), range);
+                });
+                return rows == null ? 0 : rows;
+            } catch (DuplicateKeyException ex) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /*
+     * One UPDATE batch for all rows, then one INSERT batch for the rows that did not exist yet. Rows
+     * whose insert failed (created by a concurrent transaction meanwhile) are retried one by one.
+     */
+    private void addAll(Map<Key, Totals> totals) {
+        if (totals.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Key, Totals>> rows = new ArrayList<>(totals.entrySet());
+        int[] updated = jdbcTemplate.batchUpdate(UPDATE, rows.stream()
+                .map(e -> new Object[]{e.getValue().units, e.getValue().revenue.toBigDecimal(), e.getValue().orders,
+                        e.getValue().productName, e.getKey().day(), e.getKey().status().name(), e.getKey().productId()})
+                .toList());
+        List<Map.Entry<Key, Totals>> missing = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (updated[i] == 0) {
+                missing.add(rows.get(i));
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(INSERT, missing.stream()
+                    .map(e -> new Object[]{e.getKey().day(), e.getKey().status().name(), e.getKey().productId(),
+                            e.getValue().productName, e.getValue().units, e.getValue().revenue.toBigDecimal(), e.getValue().orders})
+                    .toList());
+        } catch (DuplicateKeyException ex) {
+            int[] inserted = ex.getCause() instanceof BatchUpdateException bue ? bue.getUpdateCounts() : new int[0];
+            for (int i = 0; i < missing.size(); i++) {
+                boolean done = i < inserted.length
+                        && (inserted[i] > 0 || inserted[i] == Statement.SUCCESS_NO_INFO);
+                if (!done) {
+                    add(missing.get(i).getKey(), missing.get(i).getValue());
+                }
+            }
+        }
+    }
+
+    private void add(Key key, Totals t) {
+        for (int attempt = 1; ; attempt++) {
+            int updated = jdbcTemplate.update(UPDATE, t.units, t.revenue.toBigDecimal(), t.orders, t.productName,
+                    key.day(), key.status().name(), key.productId());
+            if (updated > 0) {
+                return;
+            }
+            try {
+                jdbcTemplate.update(INSERT, key.day(), key.status().name(), key.productId(), t.productName,
+                        t.units, t.revenue.toBigDecimal(), t.orders);
+                return;
+            } catch (DuplicateKeyException ex) {
+                // Another transaction created the row first; add to it instead
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw ex;
+                }
+            }
+        }
+    }
+}
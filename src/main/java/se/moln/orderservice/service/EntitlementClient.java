@@ -4,9 +4,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import se.moln.orderservice.http.OutboundHttp;
 
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
@@ -15,11 +15,12 @@ import java.util.Map;
 @Component
 public class EntitlementClient {
     private final String userServiceBase;
-    private final HttpClient http = HttpClient.newHttpClient();
+    private final OutboundHttp http;
     private final com.fasterxml.jackson.databind.ObjectMapper objectMapper;
 
-    public EntitlementClient(@Value("${USERSERVICE_URL:http://user-service:8083}") String base) {
+    public EntitlementClient(@Value("${USERSERVICE_URL:http://user-service:8083}") String base, OutboundHttp http) {
         this.userServiceBase = base;
+        this.http = http;
         this.objectMapper = new com.fasterxml.jackson.databind.ObjectMapper();
     }
 
@@ -40,7 +41,7 @@ public class EntitlementClient {
                     .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
                     .GET()
                     .build();
-            HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            HttpResponse<String> resp = http.send("user-service", req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
             return resp.statusCode() == 200;
         } catch (Exception e) {
             throw new RuntimeException("Entitlement check failed", e);
@@ -57,7 +58,7 @@ public class EntitlementClient {
                     .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                     .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
                     .build();
-            HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            HttpResponse<String> resp = http.send("user-service", req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
             if (resp.statusCode() == 200) return true;
             if (resp.statusCode() == 409) return false; // insufficient
             throw new RuntimeException("Entitlement consume failed: " + resp.statusCode() + " - " + resp.body());
@@ -66,17 +67,19 @@ public class EntitlementClient {
         }
     }
 
-    public void grantEntitlement(String authBearerToken, String sku, int count) {
+    // The same idempotency key is sent on every retry, so user-service applies a grant at most once
+    public void grantEntitlement(String authBearerToken, String sku, int count, String idempotencyKey) {
         try {
             URI uri = URI.create(userServiceBase + "/api/users/me/entitlements/grant");
             String body = toJson(Map.of("sku", sku, "count", count));
             HttpRequest req = HttpRequest.newBuilder()
                     .uri(uri)
                     .header(HttpHeaders.AUTHORIZATION, authBearerToken)
+                    .header("Idempotency-Key", idempotencyKey)
                     .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
                     .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
                     .build();
-            HttpResponse<String> resp = http.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            HttpResponse<String> resp = http.send("user-service", req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
             if (resp.statusCode() != 200) {
                 throw new RuntimeException("Grant entitlement failed: " + resp.statusCode() + " - " + resp.body());
             }
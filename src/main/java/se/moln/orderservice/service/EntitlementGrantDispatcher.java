@@ -0,0 +1,196 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.model.EntitlementGrant;
+import se.moln.orderservice.model.OutboxStatus;
+import se.moln.orderservice.repository.EntitlementGrantRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Drains the entitlement outbox. Due rows are read in batches and claimed first: the claim moves
+ * {@code nextAttemptAt} forward by {@code claim-lease}, so another dispatcher skips them, and a
+ * dispatcher that dies mid-delivery leaves them to be picked up once the lease has passed. Rows for
+ * the same user and SKU that were never sent are merged into one row and one grant call. Every call
+ * carries the row id as its idempotency key, so a grant that reached user-service but was not
+ * deleted here (crash, lost response, failed delete) is not applied twice on retry. Delivered rows
+ * are deleted, failed ones are retried with exponential backoff and marked
+ * {@link OutboxStatus#FAILED} after {@code max-attempts}, with the stored token cleared.
+ */
+@Component
+public class EntitlementGrantDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(EntitlementGrantDispatcher.class);
+
+    private final EntitlementGrantRepository grantRepository;
+    private final EntitlementClient entitlementClient;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration claimLease;
+
+    private final Counter delivered;
+    private final Counter retried;
+    private final Counter failed;
+
+    private record GroupKey(UUID userId, String sku) { }
+
+    // One grant call: the row that is sent and the number of outbox rows it stands for
+    private record Delivery(EntitlementGrant row, int rows) { }
+
+    public EntitlementGrantDispatcher(EntitlementGrantRepository grantRepository,
+                                      EntitlementClient entitlementClient,
+                                      TransactionTemplate transactionTemplate,
+                                      @Value("${entitlements.outbox.enabled:true}") boolean enabled,
+                                      @Value("${entitlements.outbox.batch-size:100}") int batchSize,
+                                      @Value("${entitlements.outbox.max-attempts:10}") int maxAttempts,
+                                      @Value("${entitlements.outbox.initial-backoff:2s}") Duration initialBackoff,
+                                      @Value("${entitlements.outbox.max-backoff:10m}") Duration maxBackoff,
+                                      @Value("${entitlements.outbox.claim-lease:1m}") Duration claimLease,
+                                      MeterRegistry meterRegistry) {
+        this.grantRepository = grantRepository;
+        this.entitlementClient = entitlementClient;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.claimLease = claimLease;
+
+        this.delivered = Counter.builder("entitlement.outbox.grants").tag("result", "delivered").register(meterRegistry);
+        this.retried = Counter.builder("entitlement.outbox.grants").tag("result", "retry").register(meterRegistry);
+        this.failed = Counter.builder("entitlement.outbox.grants").tag("result", "failed").register(meterRegistry);
+        Gauge.builder("entitlement.outbox.pending", grantRepository, r -> r.countByStatus(OutboxStatus.PENDING))
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${entitlements.outbox.poll-interval-ms:2000}",
+            initialDelayString = "${entitlements.outbox.poll-interval-ms:2000}")
+    public void poll() {
+        if (enabled) {
+            drain();
+        }
+    }
+
+    /**
+     * Delivers everything that is due right now. Claimed and failed rows are pushed into the future,
+     * so the loop ends once a batch comes back short.
+     *
+     * @return number of outbox rows delivered
+     */
+    public int drain() {
+        int deliveredRows = 0;
+        List<EntitlementGrant> due;
+        do {
+            Instant now = Instant.now();
+            due = grantRepository.findByStatusAndNextAttemptAtLessThanEqualOrderByCreatedAtAsc(
+                    OutboxStatus.PENDING, now, Pageable.ofSize(batchSize));
+            if (due.isEmpty()) {
+                break;
+            }
+            UUID claimId = UUID.randomUUID();
+            grantRepository.claim(due.stream().map(EntitlementGrant::getId).toList(), claimId, now, now.plus(claimLease));
+            for (Delivery delivery : merge(grantRepository.findByClaimIdOrderByCreatedAtAsc(claimId))) {
+                deliveredRows += deliver(delivery);
+            }
+        } while (due.size() == batchSize);
+        return deliveredRows;
+    }
+
+    // Rows that were sent before keep their id, and with it their idempotency key
+    private List<Delivery> merge(List<EntitlementGrant> claimed) {
+        List<Delivery> deliveries = new ArrayList<>();
+        Map<GroupKey, List<EntitlementGrant>> neverSent = new LinkedHashMap<>();
+        for (EntitlementGrant row : claimed) {
+            if (row.getAttempts() == 1) {
+                neverSent.computeIfAbsent(new GroupKey(row.getUserId(), row.getSku()), k -> new ArrayList<>()).add(row);
+            } else {
+                deliveries.add(new Delivery(row, 1));
+            }
+        }
+        for (List<EntitlementGrant> rows : neverSent.values()) {
+            EntitlementGrant row = rows.size() == 1 ? rows.getFirst() : transactionTemplate.execute(tx -> mergeInto(rows));
+            deliveries.add(new Delivery(row, rows.size()));
+        }
+        return deliveries;
+    }
+
+    // Keeps the oldest row with the summed quantity; newest token, since older ones are more likely to have expired
+    private EntitlementGrant mergeInto(List<EntitlementGrant> rows) {
+        EntitlementGrant kept = rows.getFirst();
+        kept.setQuantity(rows.stream().mapToInt(EntitlementGrant::getQuantity).sum());
+        kept.setBearerToken(rows.stream()
+                .max(Comparator.comparing(EntitlementGrant::getCreatedAt, Comparator.nullsFirst(Comparator.naturalOrder())))
+                .map(EntitlementGrant::getBearerToken)
+                .orElseThrow());
+        grantRepository.deleteAllInBatch(rows.subList(1, rows.size()));
+        return grantRepository.save(kept);
+    }
+
+    private int deliver(Delivery delivery) {
+        EntitlementGrant row = delivery.row();
+        try {
+            entitlementClient.grantEntitlement("Bearer " + row.getBearerToken(), row.getSku(), row.getQuantity(),
+                    row.getId().toString());
+        } catch (Exception ex) {
+            reschedule(row, ex);
+            return 0;
+        }
+        grantRepository.deleteAllInBatch(List.of(row));
+        delivered.increment(delivery.rows());
+        return delivery.rows();
+    }
+
+    private void reschedule(EntitlementGrant row, Exception ex) {
+        String error = rootMessage(ex);
+        int attempts = row.getAttempts();
+        row.setLastError(error);
+        row.setClaimId(null);
+        if (attempts >= maxAttempts) {
+            row.setStatus(OutboxStatus.FAILED);
+            row.setBearerToken(null);
+            failed.increment();
+            log.error("Giving up on entitlement grant {} for order {} (user {}, sku {}, qty {}) after {} attempts: {}",
+                    row.getId(), row.getOrderId(), row.getUserId(), row.getSku(), row.getQuantity(), attempts, error);
+        } else {
+            row.setNextAttemptAt(Instant.now().plus(backoff(attempts)));
+            retried.increment();
+            log.warn("Entitlement grant {} for user {} sku {} failed, will retry: {}", row.getId(), row.getUserId(), row.getSku(), error);
+        }
+        grantRepository.save(row);
+    }
+    Duration backoff(int attempts) {
+        long factor = 1L << Math.min(attempts - 1, 20);
+        Duration next = initialBackoff.multipliedBy(factor);
+        return next.compareTo(maxBackoff) > 0 ? maxBackoff : next;
+    }
+
+    private static String rootMessage(Throwable ex) {
+        Throwable t = ex;
+        while (t.getCause() != null && t.getCause() != t) {
+            t = t.getCause();
+        }
+        String msg = t.getMessage() != null ? t.getMessage() : t.getClass().getSimpleName();
+        return msg.length() > 1000 ? msg.substring(0, 1000) : msg;
+    }
+}
@@ -0,0 +1,144 @@
+package se.moln.orderservice.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Coalesces writes from concurrent callers into one transaction.
+ * <p>
+ * A single writer thread takes the first queued item, then keeps collecting until it has
+ * {@code maxBatch} items or {@code maxWait} has passed since that first item, and hands the batch to
+ * {@code batchWriter}. Each caller blocks until its own item is written, so the added latency is at
+ * most {@code maxWait} plus the time of the batch transaction. If the batch fails, its items are
+ * written one by one with {@code singleWriter}, so one bad item only fails its own caller. When the
+ * queue is full, callers write directly instead of waiting.
+ */
+public class GroupCommit<T, R> {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommit.class);
+
+    private final Function<List<T>, List<R>> batchWriter;
+    private final Function<T, R> singleWriter;
+    private final int maxBatch;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Pending<T, R>> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private record Pending<T, R>(T item, CompletableFuture<R> result) { }
+
+    public GroupCommit(String name, Function<List<T>, List<R>> batchWriter, Function<T, R> singleWriter,
+                       int maxBatch, Duration maxWait, int queueCapacity) {
+        this.batchWriter = batchWriter;
+        this.singleWriter = singleWriter;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxWaitNanos = maxWait.toNanos();
+        this.queue = new ArrayBlockingQueue<>(Math.max(this.maxBatch, queueCapacity));
+        this.writer = Thread.ofPlatform().name(name).daemon().start(this::loop);
+    }
+
+    public R submit(T item) {
+        Pending<T, R> pending = new Pending<>(item, new CompletableFuture<>());
+        if (!running || !queue.offer(pending)) {
+            return singleWriter.apply(item);
+        }
+        try {
+            return pending.result().join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw ex;
+        }
+    }
+
+    /** Stops the writer thread and writes whatever is still queued on the calling thread. */
+    public void close() {
+        running = false;
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        List<Pending<T, R>> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.forEach(this::writeSingle);
+    }
+
+    private void loop() {
+        List<Pending<T, R>> batch = new ArrayList<>(maxBatch);
+        while (running) {
+            try {
+                Pending<T, R> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatch) {
+                    if (queue.drainTo(batch, maxBatch - batch.size()) > 0) {
+                        continue;
+                    }
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        break;
+                    }
+                    Pending<T, R> next = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException ex) {
+                if (!running) {
+                    break;
+                }
+            } catch (RuntimeException ex) {
+                log.error("Group commit writer failed", ex);
+            } finally {
+                // non-empty only if collecting was interrupted; those items are written, not dropped
+                batch.forEach(this::writeSingle);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Pending<T, R>> batch) {
+        List<R> results;
+        try {
+            results = batchWriter.apply(batch.stream().map(Pending::item).toList());
+        } catch (RuntimeException ex) {
+            log.warn("Group commit of {} items failed, writing them one by one: {}", batch.size(), ex.getMessage());
+            batch.forEach(this::writeSingle);
+            batch.clear();
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result().complete(results.get(i));
+        }
+        batch.clear();
+    }
+
+    private void writeSingle(Pending<T, R> pending) {
+        if (pending.result().isDone()) {
+            return;
+        }
+        try {
+            pending.result().complete(singleWriter.apply(pending.item()));
+        } catch (RuntimeException ex) {
+            pending.result().completeExceptionally(ex);
+        }
+    }
+}
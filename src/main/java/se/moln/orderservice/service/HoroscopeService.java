@@ -14,12 +14,12 @@ import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import se.moln.orderservice.dto.HoroscopeRequest;
+import se.moln.orderservice.http.OutboundHttp;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
@@ -53,9 +53,13 @@ public class HoroscopeService {
     @Value("${HOROSCOPE_STORAGE_DIR:./data/horoscopes}")
     private String storageDir;
 
-    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private final OutboundHttp http;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    public HoroscopeService(OutboundHttp http) {
+        this.http = http;
+    }
+
     public String generateHoroscopePdf(HoroscopeRequest req) {
         ensureApiKey();
         ensureStorageDir();
@@ -164,7 +168,7 @@ public class HoroscopeService {
                 .POST(HttpRequest.BodyPublishers.ofString(json, StandardCharsets.UTF_8))
                 .build();
         try {
-            HttpResponse<String> resp = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            HttpResponse<String> resp = http.send("llm", request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
             if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
                 throw new RuntimeException("OpenAI request failed: " + resp.statusCode() + " - " + resp.body());
             }
@@ -0,0 +1,179 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the outcome of requests sent with an {@code Idempotency-Key}, per user, for {@code ttl}.
+ * <p>
+ * The first request with a key runs; duplicates that arrive while it is running wait for its result,
+ * and later duplicates get the stored result back without running again. A key reused with a
+ * different request body is rejected with 422. Failures are not stored, so a failed attempt can be
+ * retried with the same key.
+ */
+@Component
+public class IdempotencyStore {
+
+    public static final int MAX_KEY_LENGTH = 255;
+    private static final int EVICTION_SAMPLE = 16;
+
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final Duration waitTimeout;
+    private final int maxSize;
+
+    private final Map<Scope, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Counter executed;
+    private final Counter replayed;
+    private final Counter joined;
+    private final Counter mismatched;
+
+    private record Scope(UUID userId, String key) { }
+
+    private static final class Entry {
+        final Object fingerprint;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        final long createdAt = System.nanoTime();
+        // set when the result is stored; 0 while running
+        volatile long expiresAt;
+
+        Entry(Object fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        boolean expired(long now) {
+            long until = expiresAt;
+            return until != 0 && now - until > 0;
+        }
+    }
+
+    public IdempotencyStore(@Value("${orders.idempotency.enabled:true}") boolean enabled,
+                            @Value("${orders.idempotency.ttl:24h}") Duration ttl,
+                            @Value("${orders.idempotency.wait-timeout:30s}") Duration waitTimeout,
+                            @Value("${orders.idempotency.max-size:100000}") int maxSize,
+                            MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.ttlNanos = ttl.toNanos();
+        this.waitTimeout = waitTimeout;
+        this.maxSize = Math.max(1, maxSize);
+
+        this.executed = Counter.builder("idempotency.requests").tag("result", "executed").register(meterRegistry);
+        this.replayed = Counter.builder("idempotency.requests").tag("result", "replayed").register(meterRegistry);
+        this.joined = Counter.builder("idempotency.requests").tag("result", "joined").register(meterRegistry);
+        this.mismatched = Counter.builder("idempotency.requests").tag("result", "mismatch").register(meterRegistry);
+        Gauge.builder("idempotency.keys", entries, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Runs {@code action} once per user and key. {@code fingerprint} identifies the request body and
+     * must implement {@code equals}; a record of the request does.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(UUID userId, String key, Object fingerprint, Supplier<T> action) {
+        if (!enabled || key == null) {
+            return action.get();
+        }
+        if (key.isBlank() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency-Key must be 1-" + MAX_KEY_LENGTH + " characters");
+        }
+        Scope scope = new Scope(userId, key);
+        Entry mine = new Entry(fingerprint);
+        while (true) {
+            Entry existing = entries.putIfAbsent(scope, mine);
+            if (existing == null) {
+                break;
+            }
+            if (existing.expired(System.nanoTime())) {
+                if (entries.replace(scope, existing, mine)) {
+                    break;
+                }
+                continue;
+            }
+            if (!existing.fingerprint.equals(fingerprint)) {
+                mismatched.increment();
+                throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                        "Idempotency-Key was already used for a different request");
+            }
+            (existing.result.isDone() ? replayed : joined).increment();
+            return (T) await(existing);
+        }
+
+        executed.increment();
+        try {
+            T value = action.get();
+            mine.expiresAt = System.nanoTime() + ttlNanos;
+            mine.result.complete(value);
+            if (entries.size() > maxSize) {
+                evictOldest();
+            }
+            return value;
+        } catch (RuntimeException ex) {
+            entries.remove(scope, mine);
+            mine.result.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${orders.idempotency.purge-interval-ms:60000}")
+    public void purgeExpired() {
+        long now = System.nanoTime();
+        entries.values().removeIf(e -> e.expired(now));
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private Object await(Entry entry) {
+        try {
+            return entry.result.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT,
+                    "A request with this Idempotency-Key is still being processed");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted");
+        }
+    }
+
+    // Over capacity: drop the oldest completed key among a small sample, like ProductCatalog does
+    private void evictOldest() {
+        Scope victim = null;
+        Entry victimEntry = null;
+        Iterator<Map.Entry<Scope, Entry>> it = entries.entrySet().iterator();
+        for (int i = 0; i < EVICTION_SAMPLE && it.hasNext(); i++) {
+            Map.Entry<Scope, Entry> e = it.next();
+            Entry entry = e.getValue();
+            if (entry.result.isDone() && (victimEntry == null || entry.createdAt - victimEntry.createdAt < 0)) {
+                victim = e.getKey();
+                victimEntry = entry;
+            }
+        }
+        if (victim != null) {
+            entries.remove(victim, victimEntry);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package se.moln.orderservice.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import se.moln.orderservice.dto.InventoryBatchRequest;
+import se.moln.orderservice.dto.InventoryPurchaseRequest;
+
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reserves and returns stock in the product service's inventory.
+ * All lines of a purchase go out in one batch call; if the product service does not
+ * expose the batch endpoints we fall back to one call per line and re-probe after a while.
+ * A 404 from a batch call only counts as a missing endpoint when an OPTIONS request to the
+ * same path is also answered with 404; otherwise it is the answer for the cart (e.g. an
+ * unknown product) and the batch endpoint stays in use.
+ */
+@Component
+public class InventoryClient {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryClient.class);
+    private static final long BATCH_REPROBE_MILLIS = Duration.ofMinutes(10).toMillis();
+
+    private final RestTemplate restTemplate;
+    private final String productUrl;
+    private final boolean batchEnabled;
+    private final PurchaseLineExecutor lineExecutor;
+
+    // 0 = batch assumed supported; otherwise the time after which we try the batch endpoint again
+    private volatile long batchUnsupportedUntil;
+
+    public InventoryClient(RestTemplate productServiceRestTemplate,
+                           @Value("${productservice.url}") String productUrl,
+                           @Value("${productservice.inventory.batch.enabled:true}") boolean batchEnabled,
+                           PurchaseLineExecutor lineExecutor) {
+        this.restTemplate = productServiceRestTemplate;
+        this.productUrl = productUrl;
+        this.batchEnabled = batchEnabled;
+        this.lineExecutor = lineExecutor;
+    }
+
+    /**
+     * Reserves every line, or throws an {@link InventoryReservationException} listing the lines that
+     * may still be held. Only a 4xx answer, or a request that never got a connection, is a definite
+     * "nothing reserved" for a call; anything else may have taken effect upstream. Returning those
+     * lines is left to the caller (the purchase saga), so it is persisted and retried.
+     */
+    public void reserve(List<InventoryPurchaseRequest> lines, String jwtToken, String correlationId) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        if (useBatch()) {
+            try {
+                restTemplate.exchange(
+                        productUrl + "/api/inventory/batch/purchase",
+                        HttpMethod.POST,
+                        new HttpEntity<>(new InventoryBatchRequest(lines), jsonPostHeaders(jwtToken, correlationId)),
+                        Void.class
+                );
+                return;
+            } catch (RestClientResponseException ex) {
+                if (!markBatchUnsupported(ex, "/api/inventory/batch/purchase", jwtToken, correlationId)) {
+                    throw rejectedOrUnknown(ex, lines, correlationId);
+                }
+            } catch (ResourceAccessException ex) {
+                throw unreachable(ex, lines, correlationId);
+            }
+        }
+        // Lines reserved before another one failed, and failed lines with an unknown outcome
+        Queue<InventoryPurchaseRequest> held = new ConcurrentLinkedQueue<>();
+        try {
+            lineExecutor.run(lines, line -> reserveOne(line, jwtToken, correlationId, held), held::add);
+        } catch (InventoryReservationException ex) {
+            throw new InventoryReservationException(ex, List.copyOf(held));
+        }
+    }
+
+    /**
+     * Returns previously reserved stock. Failures are logged with the correlation id so that
+     * stuck reservations can be traced; they are not rethrown.
+     *
+     * @return true if every line was returned
+     */
+    public boolean release(List<InventoryPurchaseRequest> lines, String jwtToken, String correlationId) {
+        if (lines.isEmpty()) {
+            return true;
+        }
+        if (useBatch()) {
+            try {
+                restTemplate.exchange(
+                        productUrl + "/api/inventory/batch/return",
+                        HttpMethod.POST,
+                        new HttpEntity<>(new InventoryBatchRequest(lines), jsonPostHeaders(jwtToken, correlationId)),
+                        Void.class
+                );
+                return true;
+            } catch (RestClientResponseException ex) {
+                if (!markBatchUnsupported(ex, "/api/inventory/batch/return", jwtToken, correlationId)) {
+                    log.error("Batch inventory return failed for {} lines | status={} | cid={}",
+                            lines.size(), ex.getStatusCode().value(), correlationId);
+                    return false;
+                }
+            } catch (Exception ex) {
+                log.error("Batch inventory return failed for {} lines: {} | cid={}", lines.size(), ex.getMessage(), correlationId);
+                return false;
+            }
+        }
+        boolean allReturned = true;
+        for (InventoryPurchaseRequest line : lines) {
+            try {
+                returnOne(line, jwtToken, correlationId);
+            } catch (Exception ex) {
+                allReturned = false;
+                log.error("Inventory return failed for product {} qty {}: {} | cid={}",
+                        line.productId(), line.quantity(), ex.getMessage(), correlationId);
+            }
+        }
+        return allReturned;
+    }
+
+    private InventoryPurchaseRequest reserveOne(InventoryPurchaseRequest line, String jwtToken, String correlationId,
+                                                Queue<InventoryPurchaseRequest> held) {
+        InventoryReservationException failure;
+        try {
+            restTemplate.exchange(
+                    productUrl + "/api/inventory/{id}/purchase",
+                    HttpMethod.POST,
+                    new HttpEntity<>(new InventoryPurchaseRequest(line.quantity()), jsonPostHeaders(jwtToken, correlationId)),
+                    Void.class,
+                    line.productId()
+            );
+            return line;
+        } catch (RestClientResponseException ex) {
+            failure = rejectedOrUnknown(ex, List.of(line), correlationId);
+        } catch (ResourceAccessException ex) {
+            failure = unreachable(ex, List.of(line), correlationId);
+        }
+        held.addAll(failure.possiblyReserved());
+        throw failure;
+    }
+
+    // A 4xx is a definite rejection; a 5xx may come from a call that was (partly) applied
+    private static InventoryReservationException rejectedOrUnknown(RestClientResponseException ex, List<InventoryPurchaseRequest> lines,
+                                                                   String correlationId) {
+        ResponseStatusException error = UpstreamErrors.toResponseStatus("Insufficient stock or product service error", ex, correlationId);
+        return new InventoryReservationException(error, ex.getStatusCode().is4xxClientError() ? List.of() : lines);
+    }
+
+    // Without a connection the request was never sent; a timeout or a connection lost later may have been applied
+    private static InventoryReservationException unreachable(ResourceAccessException ex, List<InventoryPurchaseRequest> lines,
+                                                             String correlationId) {
+        ResponseStatusException error = UpstreamErrors.unreachable("Inventory service unavailable", ex, correlationId);
+        // ConnectException covers HostLimitExceededException: the per-host cap turned the request away before sending
+        boolean notSent = ex.getCause() instanceof ConnectException || ex.getCause() instanceof HttpConnectTimeoutException;
+        return new InventoryReservationException(error, notSent ? List.of() : lines);
+    }
+
+    private void returnOne(InventoryPurchaseRequest line, String jwtToken, String correlationId) {
+        restTemplate.exchange(
+                productUrl + "/api/inventory/{id}/return",
+                HttpMethod.POST,
+                new HttpEntity<>(new InventoryPurchaseRequest(line.quantity()), jsonPostHeaders(jwtToken, correlationId)),
+                Void.class,
+                line.productId()
+        );
+    }
+
+    private boolean useBatch() {
+        long until = batchUnsupportedUntil;
+        return batchEnabled && (until == 0 || System.currentTimeMillis() >= until);
+    }
+
+    // 405/501 on the batch path means the product service has no batch endpoint (yet). A 404 may
+    // also be an unknown product, so the route itself is probed before falling back
+    private boolean markBatchUnsupported(RestClientResponseException ex, String path, String jwtToken, String correlationId) {
+        int status = ex.getStatusCode().value();
+        boolean unsupported = status == HttpStatus.METHOD_NOT_ALLOWED.value()
+                || status == HttpStatus.NOT_IMPLEMENTED.value()
+                || (status == HttpStatus.NOT_FOUND.value() && !batchRouteExists(path, jwtToken, correlationId));
+        if (!unsupported) {
+            batchUnsupportedUntil = 0;
+            return false;
+        }
+        if (batchUnsupportedUntil == 0) {
+            log.info("Product service has no inventory batch endpoint (status {}), using per-item calls", status);
+        }
+        batchUnsupportedUntil = System.currentTimeMillis() + BATCH_REPROBE_MILLIS;
+        return true;
+    }
+
+    // OPTIONS is answered by the route without running it; only a definite "no such route" counts
+    private boolean batchRouteExists(String path, String jwtToken, String correlationId) {
+        try {
+            restTemplate.exchange(productUrl + path, HttpMethod.OPTIONS,
+                    new HttpEntity<>(jsonPostHeaders(jwtToken, correlationId)), Void.class);
+            return true;
+        } catch (RestClientResponseException ex) {
+            int status = ex.getStatusCode().value();
+            return status != HttpStatus.NOT_FOUND.value()
+                    && status != HttpStatus.METHOD_NOT_ALLOWED.value()
+                    && status != HttpStatus.NOT_IMPLEMENTED.value();
+        } catch (ResourceAccessException ex) {
+            log.warn("Could not probe inventory batch endpoint: {} | cid={}", ex.getMessage(), correlationId);
+            return true;
+        }
+    }
+
+    private HttpHeaders jsonPostHeaders(String jwtToken, String correlationId) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + jwtToken);
+        headers.set(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+        headers.set(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
+        headers.set("X-Correlation-Id", correlationId);
+        return headers;
+    }
+}
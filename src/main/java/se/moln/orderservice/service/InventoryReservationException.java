@@ -0,0 +1,30 @@
+package se.moln.orderservice.service;
+
+import org.springframework.http.HttpStatusCode;
+import org.springframework.web.server.ResponseStatusException;
+import se.moln.orderservice.dto.InventoryPurchaseRequest;
+
+import java.util.List;
+
+/**
+ * A failed {@link InventoryClient#reserve}, with the lines product-service may still hold: lines
+ * that were reserved before another line failed, and lines whose call failed without a definite
+ * answer (5xx, timeout, connection lost after sending). Empty when nothing can be held.
+ */
+class InventoryReservationException extends ResponseStatusException {
+
+    private final transient List<InventoryPurchaseRequest> possiblyReserved;
+
+    InventoryReservationException(HttpStatusCode status, String reason, List<InventoryPurchaseRequest> possiblyReserved) {
+        super(status, reason);
+        this.possiblyReserved = List.copyOf(possiblyReserved);
+    }
+
+    InventoryReservationException(ResponseStatusException upstream, List<InventoryPurchaseRequest> possiblyReserved) {
+        this(upstream.getStatusCode(), upstream.getReason(), possiblyReserved);
+    }
+
+    List<InventoryPurchaseRequest> possiblyReserved() {
+        return possiblyReserved;
+    }
+}
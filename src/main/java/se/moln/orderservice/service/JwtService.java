@@ -1,36 +1,115 @@
 package se.moln.orderservice.service;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Date;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
+/**
+ * Verifies user-service JWTs. One parser is built up front and reused. Verified claims are cached
+ * under the SHA-256 of the token until the token's {@code exp} (or {@code max-ttl}, whichever comes
+ * first), so the several lookups a request makes on the same token verify the signature once.
+ */
 @Service
-public class JwtService {
+public class JwtService implements MeterBinder {
 
-    private final SecretKey key;
-    private final String issuer;
+    private static final int EVICTION_SAMPLE = 16;
 
-    public JwtService(@Value("${jwt.secret}") String secret, @Value("${jwt.issuer:user-service}") String issuer) {
-        this.key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
-        this.issuer = issuer;
+    private final JwtParser parser;
+    private final int maxCacheSize;
+    private final long maxTtlMillis;
+
+    private final Map<TokenHash, CachedClaims> cache = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private record TokenHash(long a, long b, long c, long d) { }
+
+    private static final class CachedClaims {
+        final Claims claims;
+        final long expiresAt;
+        volatile long lastAccess;
+
+        CachedClaims(Claims claims, long expiresAt, long now) {
+            this.claims = claims;
+            this.expiresAt = expiresAt;
+            this.lastAccess = now;
+        }
     }
 
-    public Claims extractAllClaims(String token) {
-        return Jwts
-                .parserBuilder()
+    public JwtService(String secret, String issuer) {
+        this(secret, issuer, 10_000, Duration.ofMinutes(15));
+    }
+
+    @Autowired
+    public JwtService(@Value("${jwt.secret}") String secret,
+                      @Value("${jwt.issuer:user-service}") String issuer,
+                      @Value("${jwt.cache.max-size:10000}") int maxCacheSize,
+                      @Value("${jwt.cache.max-ttl:15m}") Duration maxTtl) {
+        SecretKey key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parserBuilder()
                 .setSigningKey(key)
                 .requireIssuer(issuer)
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+                .build();
+        this.maxCacheSize = Math.max(0, maxCacheSize);
+        this.maxTtlMillis = maxTtl.toMillis();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("jwt.claims.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(registry);
+        FunctionCounter.builder("jwt.claims.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(registry);
+        Gauge.builder("jwt.claims.cache.size", cache, Map::size).register(registry);
+    }
+
+    public Claims extractAllClaims(String token) {
+        if (maxCacheSize == 0) {
+            return parser.parseClaimsJws(token).getBody();
+        }
+        TokenHash hash = hash(token);
+        long now = System.currentTimeMillis();
+        CachedClaims cached = cache.get(hash);
+        if (cached != null && now < cached.expiresAt) {
+            cached.lastAccess = now;
+            hits.increment();
+            return cached.claims;
+        }
+        misses.increment();
+        if (cached != null) {
+            cache.remove(hash, cached);
+        }
+        // Throws for bad signature, wrong issuer or expired token; none of those are cached
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        long expiresAt = now + maxTtlMillis;
+        Date exp = claims.getExpiration();
+        if (exp != null) {
+            expiresAt = Math.min(expiresAt, exp.getTime());
+        }
+        cache.put(hash, new CachedClaims(claims, expiresAt, now));
+        while (cache.size() > maxCacheSize) {
+            evictOne(now);
+        }
+        return claims;
     }
 
     public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
@@ -62,7 +141,10 @@ public class JwtService {
      * Extract authenticated user UUID. Prefer custom 'uid' claim; fallback to standard 'sub'.
      */
     public UUID extractUserId(String token) {
-        Claims claims = extractAllClaims(token);
+        return userIdOf(extractAllClaims(token));
+    }
+
+    public UUID userIdOf(Claims claims) {
         Object uid = claims.get("uid");
         if (uid != null) {
             return UUID.fromString(uid.toString());
@@ -70,4 +152,27 @@ public class JwtService {
         String sub = claims.getSubject();
         return UUID.fromString(sub);
     }
-}
\ No newline at end of file
+
+    int cacheSize() {
+        return cache.size();
+    }
+
+    // Sampled LRU; expired entries in the sample go first
+    private void evictOne(long now) {
+        TokenHash victim = SampledEviction.victim(cache, EVICTION_SAMPLE,
+                c -> now >= c.expiresAt ? Long.MIN_VALUE : c.lastAccess);
+        if (victim != null) {
+            cache.remove(victim);
+        }
+    }
+
+    private static TokenHash hash(String token) {
+        try {
+            ByteBuffer digest = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256")
+                    .digest(token.getBytes(StandardCharsets.US_ASCII)));
+            return new TokenHash(digest.getLong(), digest.getLong(), digest.getLong(), digest.getLong());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 not available", ex);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package se.moln.orderservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import se.moln.orderservice.dto.MonthlyKpisResponse;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caches {@link MonthlyKpisResponse} per year-month.
+ * <p>
+ * A month is closed once it ended more than {@code analytics.rollup.rebuild-days} days ago: no new
+ * orders and no nightly rebuild touch it any more. Closed months are computed once, kept in memory and
+ * stored in {@code monthly_kpis_snapshot}, so they survive restarts. Other months (the current one,
+ * and the previous one during the rebuild window) are kept in memory only and dropped after each
+ * order placed in them commits. Months after the current one are computed on every request.
+ * <p>
+ * Nothing is cached until the startup backfills of {@link DailySalesRollup} and
+ * {@link se.moln.orderservice.analytics.DistinctCounters} have run: a month computed from half-filled
+ * rollups would otherwise be kept, and for a closed month stored for good.
+ */
+@Component
+public class MonthlyKpisCache implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(MonthlyKpisCache.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final int rebuildDays;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    private final Map<YearMonth, MonthlyKpisResponse> closed = new ConcurrentHashMap<>();
+    private final Map<YearMonth, MonthlyKpisResponse> open = new ConcurrentHashMap<>();
+    // Bumped by every invalidation; a result computed across one is not kept
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile boolean backfilled;
+
+    public MonthlyKpisCache(JdbcTemplate jdbcTemplate,
+                            ObjectMapper objectMapper,
+                            @Value("${analytics.rollup.rebuild-days:7}") int rebuildDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.objectMapper = objectMapper;
+        this.rebuildDays = Math.max(1, rebuildDays);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("analytics.kpi.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(registry);
+        FunctionCounter.builder("analytics.kpi.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(registry);
+        Gauge.builder("analytics.kpi.cache.size", this, MonthlyKpisCache::size).register(registry);
+    }
+
+    public MonthlyKpisResponse get(YearMonth ym, Supplier<MonthlyKpisResponse> compute) {
+        if (!backfilled || ym.isAfter(YearMonth.now(zone))) {
+            misses.increment();
+            return compute.get();
+        }
+        if (isClosed(ym)) {
+            open.remove(ym);
+            MonthlyKpisResponse cached = closed.get(ym);
+            if (cached == null) {
+                cached = load(ym);
+            }
+            if (cached != null) {
+                closed.putIfAbsent(ym, cached);
+                hits.increment();
+                return cached;
+            }
+            misses.increment();
+            MonthlyKpisResponse fresh = compute.get();
+            store(ym, fresh);
+            closed.put(ym, fresh);
+            return fresh;
+        }
+
+        MonthlyKpisResponse cached = open.get(ym);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long before = generation.get();
+        MonthlyKpisResponse fresh = compute.get();
+        if (generation.get() == before) {
+            open.put(ym, fresh);
+            // An order committed between the check and the put
+            if (generation.get() != before) {
+                open.remove(ym, fresh);
+            }
+        }
+        return fresh;
+    }
+
+    // Runs after the backfills, which listen to the same event with a higher precedence
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onBackfillsDone() {
+        open.clear();
+        backfilled = true;
+    }
+
+    @TransactionalEventListener
+    public void onOrderPlaced(OrderPlacedEvent event) {
+        if (event.order().getOrderDate() != null) {
+            invalidate(YearMonth.from(event.order().getOrderDate().atZoneSameInstant(zone)));
+        }
+    }
+
+    public void invalidate(YearMonth ym) {
+        generation.incrementAndGet();
+        open.remove(ym);
+    }
+
+    int size() {
+        return closed.size() + open.size();
+    }
+
+    boolean isClosed(YearMonth ym) {
+        return ym.atEndOfMonth().plusDays(rebuildDays).isBefore(LocalDate.now(zone));
+    }
+
+    private MonthlyKpisResponse load(YearMonth ym) {
+        List<String> json = jdbcTemplate.queryForList(
+                "SELECT response FROM monthly_kpis_snapshot WHERE year_month = ?", String.class, ym.toString());
+        if (json.isEmpty()) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(json.get(0), MonthlyKpisResponse.class);
+        } catch (JsonProcessingException ex) {
+            log.warn("Dropping unreadable KPI snapshot for {}", ym, ex);
+            jdbcTemplate.update("DELETE FROM monthly_kpis_snapshot WHERE year_month = ?", ym.toString());
+            return null;
+        }
+    }
+
+    private void store(YearMonth ym, MonthlyKpisResponse response) {
+        try {
+            jdbcTemplate.update("INSERT INTO monthly_kpis_snapshot (year_month, response, computed_at) VALUES (?, ?, ?)",
+                    ym.toString(), objectMapper.writeValueAsString(response), OffsetDateTime.now());
+        } catch (DuplicateKeyException ex) {
+            // Computed concurrently by another request; both are the same closed month
+        } catch (JsonProcessingException ex) {
+            log.warn("Could not store KPI snapshot for {}", ym, ex);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import se.moln.orderservice.dto.OrderHistoryDto;
+import se.moln.orderservice.dto.OrderHistoryPage;
+import se.moln.orderservice.dto.OrderItemDto;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * The first {@code orders.history.cache.max-pages} offset pages of order history per user, for at
+ * most {@code max-users} users (sampled LRU) and {@code expire-after}. A user's pages are dropped as
+ * soon as one of their orders is committed, in the committing thread, so a purchase never returns
+ * before its order shows in the history; {@link #evict} does the same for other changes to a user's
+ * orders. Cursor pages are not cached.
+ */
+@Component
+public class OrderHistoryCache implements MeterBinder {
+
+    private static final int EVICTION_SAMPLE = 16;
+    private static final int STRIPES = 64;
+
+    private final int maxUsers;
+    private final int maxPages;
+    private final long expireAfterNanos;
+
+    private final Map<UUID, Entry> users = new ConcurrentHashMap<>();
+    // Bumped by every eviction of a user in the stripe; a page loaded across one is not kept
+    private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private record PageKey(int page, int size) { }
+
+    private record CachedPage(OrderHistoryPage page, long loadedAt, long bytes) { }
+
+    private static final class Entry {
+        final Map<PageKey, CachedPage> pages;
+        final long bytes;
+        volatile long lastAccess;
+
+        Entry(Map<PageKey, CachedPage> pages, long now) {
+            this.pages = pages;
+            this.bytes = pages.values().stream().mapToLong(CachedPage::bytes).sum();
+            this.lastAccess = now;
+        }
+    }
+
+    public OrderHistoryCache(@Value("${orders.history.cache.max-users:10000}") int maxUsers,
+                             @Value("${orders.history.cache.max-pages:1}") int maxPages,
+                             @Value("${orders.history.cache.expire-after:10m}") Duration expireAfter) {
+        this.maxUsers = Math.max(0, maxUsers);
+        this.maxPages = Math.max(0, maxPages);
+        this.expireAfterNanos = expireAfter.toNanos();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("orders.history.cache.requests", hits, LongAdder::sum).tag("result", "hit").register(registry);
+        FunctionCounter.builder("orders.history.cache.requests", misses, LongAdder::sum).tag("result", "miss").register(registry);
+        Gauge.builder("orders.history.cache.size", users, Map::size).register(registry);
+        Gauge.builder("orders.history.cache.memory", bytes, AtomicLong::get)
+                .description("Estimated heap used by the cached pages")
+                .baseUnit(BaseUnits.BYTES)
+                .register(registry);
+    }
+
+    public OrderHistoryPage get(UUID userId, int page, int size, Supplier<OrderHistoryPage> load) {
+        if (maxUsers == 0 || page >= maxPages) {
+            return load.get();
+        }
+        PageKey key = new PageKey(page, size);
+        long now = System.nanoTime();
+        Entry entry = users.get(userId);
+        CachedPage cached = entry == null ? null : entry.pages.get(key);
+        if (cached != null && now - cached.loadedAt() < expireAfterNanos) {
+            entry.lastAccess = now;
+            hits.increment();
+            return cached.page();
+        }
+        misses.increment();
+        int stripe = stripe(userId);
+        long before = generations.get(stripe);
+        OrderHistoryPage fresh = load.get();
+        if (generations.get(stripe) == before) {
+            put(userId, key, new CachedPage(fresh, now, estimateBytes(fresh)), now);
+            // An order of the user committed between the check and the put
+            if (generations.get(stripe) != before) {
+                remove(userId);
+            }
+        }
+        return fresh;
+    }
+
+    @TransactionalEventListener
+    public void onOrderPlaced(OrderPlacedEvent event) {
+        if (event.order().getUserId() != null) {
+            evict(event.order().getUserId());
+        }
+    }
+
+    /** Drops the user's pages; call after committing any change to their orders. */
+    public void evict(UUID userId) {
+        generations.incrementAndGet(stripe(userId));
+        remove(userId);
+    }
+
+    long estimatedBytes() {
+        return bytes.get();
+    }
+
+    int size() {
+        return users.size();
+    }
+
+    private void put(UUID userId, PageKey key, CachedPage page, long now) {
+        users.compute(userId, (id, old) -> {
+            Map<PageKey, CachedPage> pages = new HashMap<>();
+            if (old != null) {
+                old.pages.forEach((k, p) -> {
+                    if (now - p.loadedAt() < expireAfterNanos) {
+                        pages.put(k, p);
+                    }
+                });
+            }
+            pages.put(key, page);
+            Entry updated = new Entry(Map.copyOf(pages), now);
+            bytes.addAndGet(updated.bytes - (old == null ? 0 : old.bytes));
+            return updated;
+        });
+        while (users.size() > maxUsers) {
+            evictOne();
+        }
+    }
+
+    private void remove(UUID userId) {
+        Entry removed = users.remove(userId);
+        if (removed != null) {
+            bytes.addAndGet(-removed.bytes);
+        }
+    }
+
+    private void evictOne() {
+        UUID victim = SampledEviction.victim(users, EVICTION_SAMPLE, e -> e.lastAccess);
+        if (victim != null) {
+            remove(victim);
+        }
+    }
+
+    private static int stripe(UUID userId) {
+        return (userId.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    // Rough heap size of a page: object headers, UUIDs, BigDecimals, timestamps and Latin-1 strings
+    static long estimateBytes(OrderHistoryPage page) {
+        long size = 48 + length(page.nextCursor());
+        for (OrderHistoryDto order : page.orders()) {
+            size += 240 + length(order.orderNumber());
+            for (OrderItemDto item : order.items()) {
+                size += 128 + length(item.productName());
+            }
+        }
+        return size;
+    }
+
+    private static long length(String s) {
+        return s == null ? 0 : 40 + s.length();
+    }
+}
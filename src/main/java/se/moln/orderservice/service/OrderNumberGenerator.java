@@ -0,0 +1,99 @@
+package se.moln.orderservice.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Order numbers of the form {@code ORD-yyMMdd-000012345}: the UTC date followed by a number from the
+ * {@code order_number_seq} database sequence.
+ * <p>
+ * The sequence is advanced by its increment (the block size, defined by the migration that creates
+ * it) and each instance hands out the numbers of its block from memory, so only one order per block
+ * costs a database round trip. Numbers are unique across instances and sort by day; within a day they
+ * follow block allocation order. Numbers left in a block at shutdown are skipped.
+ */
+@Component
+public class OrderNumberGenerator {
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyMMdd");
+
+    private final LongSupplier blockAllocator;
+    private final int blockSize;
+    private final Clock clock;
+
+    private volatile Block current = new Block(1, 0);
+
+    // Numbers first..last; cursor is the next one to hand out
+    private static final class Block {
+        final AtomicLong cursor;
+        final long last;
+
+        Block(long first, long last) {
+            this.cursor = new AtomicLong(first);
+            this.last = last;
+        }
+    }
+
+    @Autowired
+    public OrderNumberGenerator(JdbcTemplate jdbcTemplate) {
+        this(() -> nextValue(jdbcTemplate), sequenceIncrement(jdbcTemplate), Clock.systemUTC());
+    }
+
+    /**
+     * @param blockAllocator returns the last number of a freshly reserved block of {@code blockSize}
+     *                       numbers; successive calls must return strictly increasing values
+     */
+    OrderNumberGenerator(LongSupplier blockAllocator, int blockSize, Clock clock) {
+        this.blockAllocator = blockAllocator;
+        this.blockSize = Math.max(1, blockSize);
+        this.clock = clock;
+    }
+
+    public String next() {
+        while (true) {
+            Block block = current;
+            long n = block.cursor.getAndIncrement();
+            if (n <= block.last) {
+                return format(n);
+            }
+            refill(block);
+        }
+    }
+
+    private synchronized void refill(Block exhausted) {
+        if (current == exhausted) {
+            long last = blockAllocator.getAsLong();
+            current = new Block(last - blockSize + 1, last);
+        }
+    }
+
+    private String format(long n) {
+        return "ORD-" + LocalDate.now(clock.withZone(ZoneOffset.UTC)).format(DAY) + "-" + String.format("%09d", n);
+    }
+
+    // The sequence value is the last number of the block, so the block is (value - increment, value]
+    private static long nextValue(JdbcTemplate jdbcTemplate) {
+        Long value = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR order_number_seq", Long.class);
+        if (value == null) {
+            throw new IllegalStateException("order_number_seq returned no value");
+        }
+        return value;
+    }
+
+    private static int sequenceIncrement(JdbcTemplate jdbcTemplate) {
+        Long increment = jdbcTemplate.queryForObject("SELECT INCREMENT FROM INFORMATION_SCHEMA.SEQUENCES "
+                + "WHERE SEQUENCE_SCHEMA = SCHEMA() AND SEQUENCE_NAME = 'ORDER_NUMBER_SEQ'", Long.class);
+        if (increment == null || increment < 1) {
+            throw new IllegalStateException("order_number_seq must count up, found increment " + increment);
+        }
+        return Math.toIntExact(increment);
+    }
+}
@@ -0,0 +1,10 @@
+package se.moln.orderservice.service;
+
+import se.moln.orderservice.model.Order;
+
+/**
+ * Published by {@link OrderWriter} for every saved order, inside the saving transaction. Listen with
+ * {@code @TransactionalEventListener} to act only once the order is committed.
+ */
+public record OrderPlacedEvent(Order order) {
+}
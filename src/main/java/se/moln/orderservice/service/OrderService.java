@@ -1,61 +1,93 @@
 package se.moln.orderservice.service;
 
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestClientResponseException;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.web.server.ResponseStatusException;
 import se.moln.orderservice.dto.*;
+import se.moln.orderservice.model.EntitlementGrant;
+import se.moln.orderservice.model.Money;
 import se.moln.orderservice.model.Order;
 import se.moln.orderservice.model.OrderItem;
 import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.model.PurchaseSaga;
 import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.security.AuthenticatedUser;
 
 import java.math.BigDecimal;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
 
 @Service
 public class OrderService {
 
-    private final RestTemplate restTemplate;
     private final OrderRepository orderRepository;
-    private final String productUrl;
     private final JwtService jwtService;
-    private final EntitlementClient entitlementClient;
+    private final OrderWriter orderWriter;
+    private final PurchaseLineExecutor lineExecutor;
+    private final InventoryClient inventoryClient;
+    private final ProductCatalog productCatalog;
+    private final PurchaseSagas sagas;
+    private final IdempotencyStore idempotencyStore;
+    private final OrderNumberGenerator orderNumbers;
+    private final OrderHistoryCache historyCache;
 
     public OrderService(OrderRepository orderRepository,
-                        @Value("${productservice.url}") String productUrl,
                         JwtService jwtService,
-                        EntitlementClient entitlementClient) {
-        this.restTemplate = new RestTemplate();
+                        OrderWriter orderWriter,
+                        PurchaseLineExecutor lineExecutor,
+                        InventoryClient inventoryClient,
+                        ProductCatalog productCatalog,
+                        PurchaseSagas sagas,
+                        IdempotencyStore idempotencyStore,
+                        OrderNumberGenerator orderNumbers,
+                        OrderHistoryCache historyCache) {
         this.orderRepository = orderRepository;
-        this.productUrl = productUrl;
         this.jwtService = jwtService;
-        this.entitlementClient = entitlementClient;
+        this.orderWriter = orderWriter;
+        this.lineExecutor = lineExecutor;
+        this.inventoryClient = inventoryClient;
+        this.productCatalog = productCatalog;
+        this.sagas = sagas;
+        this.idempotencyStore = idempotencyStore;
+        this.orderNumbers = orderNumbers;
+        this.historyCache = historyCache;
     }
 
     public PurchaseResponse purchaseProduct(PurchaseRequest request, String jwtToken) {
+        return purchaseProduct(request, jwtToken, null);
+    }
+
+    /**
+     * Same as {@link #purchaseProduct(PurchaseRequest, String)}, but a repeated {@code idempotencyKey}
+     * from the same user gets the first attempt's response instead of a second order.
+     */
+    public PurchaseResponse purchaseProduct(PurchaseRequest request, String jwtToken, String idempotencyKey) {
         if (jwtToken == null || jwtToken.isBlank()) {
             throw new IllegalArgumentException("Missing bearer token");
         }
-        UUID userId = jwtService.extractUserId(jwtToken);
+        return purchaseProduct(request, jwtService.extractUserId(jwtToken), jwtToken, idempotencyKey);
+    }
+
+    /** For callers already authenticated by {@link se.moln.orderservice.security.JwtAuthenticationFilter}. */
+    public PurchaseResponse purchaseProduct(PurchaseRequest request, AuthenticatedUser user, String idempotencyKey) {
+        return purchaseProduct(request, user.userId(), user.token(), idempotencyKey);
+    }
+
+    private PurchaseResponse purchaseProduct(PurchaseRequest request, UUID userId, String jwtToken, String idempotencyKey) {
+        return idempotencyStore.execute(userId, idempotencyKey, request, () -> purchase(request, jwtToken, userId));
+    }
+
+    private PurchaseResponse purchase(PurchaseRequest request, String jwtToken, UUID userId) {
         String correlationId = UUID.randomUUID().toString();
 
         Order order = new Order();
         order.setUserId(userId);
         order.setOrderDate(OffsetDateTime.now());
-        order.setOrderNumber(generateOrderNumber());
+        order.setOrderNumber(orderNumbers.next());
         
         // Link to payment if provided. If payment succeeded, order is completed.
         if (request.paymentId() != null && !request.paymentId().isBlank()) {
@@ -65,137 +97,123 @@ public class OrderService {
             order.setStatus(OrderStatus.CREATED);
         }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + jwtToken);
-        headers.set(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
-        headers.set("X-Correlation-Id", correlationId);
-
-        List<OrderItem> items = new ArrayList<>();
-        for (var itemReq : request.items()) {
-            // Get product info
-            ResponseEntity<ProductResponse> prodResp;
-            try {
-                prodResp = restTemplate.exchange(
-                        productUrl + "/api/products/{id}",
-                        HttpMethod.GET,
-                        new HttpEntity<>(headers),
-                        ProductResponse.class,
-                        itemReq.productId()
-                );
-            } catch (RestClientResponseException ex) {
-                throw toUpstreamException("Product service error", ex, correlationId);
-            }
-
-            ProductResponse prod = prodResp.getBody();
-            if (prod == null) {
-                throw new ResponseStatusException(org.springframework.http.HttpStatus.BAD_GATEWAY, "Product service returned empty body | cid=" + correlationId);
-            }
-
-            // Reserve inventory
-            try {
-                HttpHeaders postHeaders = new HttpHeaders();
-                postHeaders.set(HttpHeaders.AUTHORIZATION, "Bearer " + jwtToken);
-                postHeaders.set(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
-                postHeaders.set(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
-                postHeaders.set("X-Correlation-Id", correlationId);
-
-                restTemplate.exchange(
-                        productUrl + "/api/inventory/{id}/purchase",
-                        HttpMethod.POST,
-                        new HttpEntity<>(new InventoryPurchaseRequest(itemReq.quantity()), postHeaders),
-                        Void.class,
-                        itemReq.productId()
-                );
-            } catch (RestClientResponseException ex) {
-                throw toUpstreamException("Insufficient stock or product service error", ex, correlationId);
-            }
-
-            OrderItem item = new OrderItem();
-            item.setProductId(itemReq.productId());
-            item.setQuantity(itemReq.quantity());
-            item.setPriceAtPurchase(prod.price());
-            item.setProductName(prod.name());
-            item.setOrder(order);
-            items.add(item);
+        // Product lookups per line (concurrent when enabled), then one reservation call for the whole cart
+        List<ProductResponse> products = lineExecutor.run(
+                request.items(),
+                itemReq -> productCatalog.get(itemReq.productId(), jwtToken, correlationId)
+        );
+        List<OrderItem> items = new ArrayList<>(products.size());
+        // The response total keeps the scale of the product prices ("10", "10.5"), as it always has
+        BigDecimal totalAsPriced = BigDecimal.ZERO;
+        for (int i = 0; i < products.size(); i++) {
+            PurchaseRequest.OrderItemRequest itemReq = request.items().get(i);
+            ProductResponse prod = products.get(i);
+            items.add(toOrderItem(order, itemReq, prod));
+            totalAsPriced = totalAsPriced.add(prod.price().multiply(BigDecimal.valueOf(itemReq.quantity())));
+        }
+        List<InventoryPurchaseRequest> reservation = items.stream()
+                .map(i -> new InventoryPurchaseRequest(i.getProductId(), i.getQuantity()))
+                .toList();
+        PurchaseSaga saga = sagas.begin(userId, correlationId, jwtToken, reservation);
+        try {
+            inventoryClient.reserve(reservation, jwtToken, correlationId);
+        } catch (RuntimeException ex) {
+            sagas.reservationFailed(saga, ex);
+            throw ex;
         }
+        sagas.reserved(saga);
 
         order.setOrderItems(items);
 
-        BigDecimal total = items.stream()
-                .map(i -> i.getPriceAtPurchase().multiply(BigDecimal.valueOf(i.getQuantity())))
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        Money total = Money.ZERO;
+        for (OrderItem i : items) {
+            total = total.plus(i.getPriceAtPurchase().times(i.getQuantity()));
+        }
         order.setTotalAmount(total);
 
+        // Grants are queued in the same transaction as the order and delivered by EntitlementGrantDispatcher.
+        // For now, hardcoded: HOROSCOPE_PDF gives 1 entitlement (tracked in https://github.com/your-org/your-repo/issues/123)
+        List<EntitlementGrant> grants = request.items().stream()
+                .map(itemReq -> EntitlementGrant.builder()
+                        .userId(userId)
+                        .sku("HOROSCOPE_PDF")
+                        .quantity(itemReq.quantity())
+                        .bearerToken(jwtToken)
+                        .build())
+                .toList();
+
         try {
-            Order saved = orderRepository.save(order);
-            
-            // Grant entitlements for purchased products
-            for (var itemReq : request.items()) {
-                try {
-                    // For now, hardcoded: HOROSCOPE_PDF gives 1 entitlement (tracked in https://github.com/your-org/your-repo/issues/123)
-                    entitlementClient.grantEntitlement("Bearer " + jwtToken, "HOROSCOPE_PDF", itemReq.quantity());
-                } catch (Exception entErr) {
-                    // Log but don't fail the order - entitlement can be granted manually
-                    System.err.println("Failed to grant entitlement for order " + saved.getId() + ": " + entErr.getMessage());
-                }
-            }
-            
-            return new PurchaseResponse(saved.getId(), saved.getOrderNumber(), saved.getTotalAmount());
+            Order saved = orderWriter.save(order, grants, saga.getId());
+            return new PurchaseResponse(saved.getId(), saved.getOrderNumber(), totalAsPriced);
         } catch (Exception err) {
-            // Rollback: return all reserved products (best-effort)
-            for (OrderItem item : items) {
-                try {
-                    HttpHeaders postHeaders = new HttpHeaders();
-                    postHeaders.set(HttpHeaders.AUTHORIZATION, "Bearer " + jwtToken);
-                    postHeaders.set(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
-                    postHeaders.set(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE);
-                    postHeaders.set("X-Correlation-Id", correlationId);
-                    restTemplate.exchange(
-                            productUrl + "/api/inventory/{id}/return",
-                            HttpMethod.POST,
-                            new HttpEntity<>(new InventoryPurchaseRequest(item.getQuantity()), postHeaders),
-                            Void.class,
-                            item.getProductId()
-                    );
-                } catch (Exception ignore) {
-                    // ignore rollback errors
-                }
-            }
+            // Stock is returned in the background (and retried) by the saga, not on the request thread
+            sagas.compensate(saga, err);
             throw err;
         }
     }
 
 
-    public List<OrderHistoryDto> getOrderHistory(String jwtToken, int page, int size) {
-        if (jwtToken == null || jwtToken.isBlank()) {
-            throw new IllegalArgumentException("Missing bearer token");
+    /**
+     * One page of the user's orders, newest first. With a {@code cursor} from a previous page the next
+     * page is found by seeking past it and {@code page} is ignored; without one, {@code page} is an offset.
+     * The first offset pages come from the {@link OrderHistoryCache}.
+     */
+    public OrderHistoryPage getOrderHistory(AuthenticatedUser user, String cursor, int page, int size) {
+        if (cursor == null || cursor.isBlank()) {
+            return historyCache.get(user.userId(), page, size, () -> loadHistory(user.userId(), null, page, size));
+        }
+        return loadHistory(user.userId(), HistoryCursor.decode(cursor), page, size);
+    }
+
+    private OrderHistoryPage loadHistory(UUID userId, HistoryCursor after, int page, int size) {
+        List<UUID> ids = after == null
+                ? orderRepository.findIdsByUserId(userId, PageRequest.of(page, size))
+                : orderRepository.findIdsByUserIdBefore(userId, after.orderDate(), after.id(), PageRequest.ofSize(size));
+        List<Order> orders = fetchInOrder(ids);
+        // A full page may have more after it; the last page costs one extra, empty request
+        String next = null;
+        if (orders.size() == size) {
+            Order last = orders.get(orders.size() - 1);
+            next = new HistoryCursor(last.getOrderDate(), last.getId()).encode();
+        }
+        return new OrderHistoryPage(orders.stream().map(OrderService::toHistoryDto).toList(), next);
+    }
+
+    // Second query of a history page: those orders with their items, in the order of the ids
+    private List<Order> fetchInOrder(List<UUID> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
         }
-        UUID userId = jwtService.extractUserId(jwtToken);
-        var pageObj = orderRepository.findByUserId(userId, PageRequest.of(page, size, Sort.by(Sort.Direction.DESC, "orderDate")));
-        return pageObj.getContent().stream().map(o -> new OrderHistoryDto(
+        Map<UUID, Order> byId = new HashMap<>();
+        for (Order o : orderRepository.findWithItemsByIdIn(ids)) {
+            byId.put(o.getId(), o);
+        }
+        return ids.stream().map(byId::get).filter(Objects::nonNull).toList();
+    }
+
+    // Two decimals, as the numeric(38,2) columns have always been read back
+    private static OrderHistoryDto toHistoryDto(Order o) {
+        return new OrderHistoryDto(
                 o.getId(),
                 o.getOrderNumber(),
-                o.getTotalAmount(),
+                o.getTotalAmount() == null ? null : o.getTotalAmount().toBigDecimal(),
                 o.getStatus(),
                 o.getOrderDate(),
                 o.getOrderItems().stream().map(oi -> new OrderItemDto(
-                        oi.getProductId(), oi.getProductName(), oi.getQuantity(), oi.getPriceAtPurchase()
+                        oi.getProductId(), oi.getProductName(), oi.getQuantity(),
+                        oi.getPriceAtPurchase() == null ? null : oi.getPriceAtPurchase().toBigDecimal()
                 )).toList()
-        )).toList();
+        );
     }
 
 
-    private String generateOrderNumber() {
-        return "ORD-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
-    }
-
-    private ResponseStatusException toUpstreamException(String message, RestClientResponseException ex, String cid) {
-        HttpStatus status = ex.getStatusCode() instanceof HttpStatus hs
-                ? hs
-                : HttpStatus.resolve(ex.getStatusCode().value());
-        if (status == null) {
-            status = HttpStatus.BAD_GATEWAY;
-        }
-        return new ResponseStatusException(status, message + " | " + ex.getResponseBodyAsString() + " | cid=" + cid);
+    private static OrderItem toOrderItem(Order order, PurchaseRequest.OrderItemRequest itemReq, ProductResponse prod) {
+        OrderItem item = new OrderItem();
+        item.setProductId(itemReq.productId());
+        item.setQuantity(itemReq.quantity());
+        item.setPriceAtPurchase(Money.of(prod.price()));
+        item.setProductName(prod.name());
+        item.setOrder(order);
+        return item;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+package se.moln.orderservice.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.model.EntitlementGrant;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.repository.EntitlementGrantRepository;
+import se.moln.orderservice.repository.OrderRepository;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Persists an order together with its entitlement outbox rows, the completion of its purchase saga
+ * and its share of the {@link DailySalesRollup} in one transaction, so a stored order always has its
+ * grants queued and is counted in analytics, and a failed save leaves the saga open for compensation.
+ * An {@link OrderPlacedEvent} is published for every saved order.
+ * <p>
+ * With {@code orders.write.group-commit.enabled} the orders of concurrent purchases are collected
+ * for up to {@code max-wait} (or {@code max-batch} orders) and committed together, see {@link GroupCommit}.
+ */
+@Component
+public class OrderWriter {
+
+    private final OrderRepository orderRepository;
+    private final EntitlementGrantRepository grantRepository;
+    private final PurchaseSagas sagas;
+    private final DailySalesRollup salesRollup;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher events;
+    private final GroupCommit<PendingOrder, Order> groupCommit;
+
+    private record PendingOrder(Order order, List<EntitlementGrant> grants, UUID sagaId) {
+
+        // A rolled-back persist leaves its generated ids on the entities; save() would then merge
+        // rows that do not exist and fail with an optimistic locking error instead of inserting
+        void clearIds() {
+            order.setId(null);
+            if (order.getOrderItems() != null) {
+                order.getOrderItems().forEach(item -> item.setId(null));
+            }
+            grants.forEach(grant -> {
+                grant.setId(null);
+                grant.setOrderId(null);
+            });
+        }
+    }
+
+    public OrderWriter(OrderRepository orderRepository,
+                       EntitlementGrantRepository grantRepository,
+                       PurchaseSagas sagas,
+                       DailySalesRollup salesRollup,
+                       TransactionTemplate transactionTemplate,
+                       ApplicationEventPublisher events,
+                       @Value("${orders.write.group-commit.enabled:false}") boolean groupCommitEnabled,
+                       @Value("${orders.write.group-commit.max-batch:64}") int maxBatch,
+                       @Value("${orders.write.group-commit.max-wait:5ms}") Duration maxWait) {
+        this.orderRepository = orderRepository;
+        this.grantRepository = grantRepository;
+        this.sagas = sagas;
+        this.salesRollup = salesRollup;
+        this.transactionTemplate = transactionTemplate;
+        this.events = events;
+        this.groupCommit = groupCommitEnabled
+                ? new GroupCommit<>("order-group-commit", this::writeAll, this::writeOne, maxBatch, maxWait, maxBatch * 16)
+                : null;
+    }
+
+    public Order save(Order order, List<EntitlementGrant> grants, UUID sagaId) {
+        PendingOrder pending = new PendingOrder(order, grants, sagaId);
+        return groupCommit != null ? groupCommit.submit(pending) : writeOne(pending);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (groupCommit != null) {
+            groupCommit.close();
+        }
+    }
+
+    // Also the fallback after a failed group commit, so the order may carry ids from that batch
+    private Order writeOne(PendingOrder pending) {
+        pending.clearIds();
+        return transactionTemplate.execute(status -> {
+            Order saved = write(pending);
+            placed(List.of(saved));
+            return saved;
+        });
+    }
+
+    private List<Order> writeAll(List<PendingOrder> batch) {
+        return transactionTemplate.execute(status -> {
+            List<Order> saved = new ArrayList<>(batch.size());
+            for (PendingOrder pending : batch) {
+                saved.add(write(pending));
+            }
+            placed(saved);
+            return saved;
+        });
+    }
+
+    private void placed(List<Order> saved) {
+        salesRollup.record(saved);
+        saved.forEach(order -> events.publishEvent(new OrderPlacedEvent(order)));
+    }
+
+    private Order write(PendingOrder pending) {
+        Order saved = orderRepository.save(pending.order());
+        List<EntitlementGrant> grants = pending.grants();
+        if (!grants.isEmpty()) {
+            grants.forEach(g -> g.setOrderId(saved.getId()));
+            grantRepository.saveAll(grants);
+        }
+        sagas.complete(pending.sagaId(), saved.getId());
+        return saved;
+    }
+}
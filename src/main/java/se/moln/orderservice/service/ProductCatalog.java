@@ -0,0 +1,244 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import se.moln.orderservice.dto.ProductResponse;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Product lookups against product-service with an in-process cache in front.
+ * <p>
+ * Entries younger than {@code refresh-after} are served as is. Older entries are still served
+ * but trigger one background reload; entries older than {@code expire-after} are never served.
+ * Concurrent misses for the same product share one upstream request, made with the first caller's
+ * token; if product-service rejects that token (401/403) the others retry with their own. The cache
+ * holds at most {@code max-size} products and evicts the least recently used of a small random
+ * sample when full.
+ */
+@Component
+public class ProductCatalog {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductCatalog.class);
+    private static final int EVICTION_SAMPLE = 16;
+
+    private final RestTemplate restTemplate;
+    private final String productUrl;
+    private final boolean enabled;
+    private final int maxSize;
+    private final long refreshAfterNanos;
+    private final long expireAfterNanos;
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<UUID, CompletableFuture<ProductResponse>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService refresher = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Counter hits;
+    private final Counter staleHits;
+    private final Counter misses;
+    private final Counter refreshFailures;
+    private final Timer loadTimer;
+
+    private static final class Entry {
+        final ProductResponse product;
+        final long loadedAt;
+        volatile long lastAccess;
+
+        Entry(ProductResponse product, long loadedAt) {
+            this.product = product;
+            this.loadedAt = loadedAt;
+            this.lastAccess = loadedAt;
+        }
+    }
+
+    public ProductCatalog(RestTemplate productServiceRestTemplate,
+                          @Value("${productservice.url}") String productUrl,
+                          @Value("${productservice.cache.enabled:true}") boolean enabled,
+                          @Value("${productservice.cache.max-size:10000}") int maxSize,
+                          @Value("${productservice.cache.refresh-after:10s}") Duration refreshAfter,
+                          @Value("${productservice.cache.expire-after:60s}") Duration expireAfter,
+                          MeterRegistry meterRegistry) {
+        this.restTemplate = productServiceRestTemplate;
+        this.productUrl = productUrl;
+        this.enabled = enabled;
+        this.maxSize = Math.max(1, maxSize);
+        this.refreshAfterNanos = refreshAfter.toNanos();
+        this.expireAfterNanos = Math.max(refreshAfter.toNanos(), expireAfter.toNanos());
+
+        this.hits = Counter.builder("product.cache.requests").tag("result", "hit").register(meterRegistry);
+        this.staleHits = Counter.builder("product.cache.requests").tag("result", "stale").register(meterRegistry);
+        this.misses = Counter.builder("product.cache.requests").tag("result", "miss").register(meterRegistry);
+        this.refreshFailures = Counter.builder("product.cache.refresh.failures").register(meterRegistry);
+        this.loadTimer = Timer.builder("product.cache.load").description("Upstream product lookups").register(meterRegistry);
+        Gauge.builder("product.cache.size", entries, Map::size).register(meterRegistry);
+    }
+
+    public ProductResponse get(UUID productId, String jwtToken, String correlationId) {
+        if (!enabled) {
+            return loadTimer.record(() -> fetch(productId, jwtToken, correlationId));
+        }
+        long now = System.nanoTime();
+        Entry entry = entries.get(productId);
+        if (entry != null) {
+            long age = now - entry.loadedAt;
+            if (age < refreshAfterNanos) {
+                entry.lastAccess = now;
+                hits.increment();
+                return entry.product;
+            }
+            if (age < expireAfterNanos) {
+                entry.lastAccess = now;
+                staleHits.increment();
+                refreshInBackground(productId, jwtToken, correlationId);
+                return entry.product;
+            }
+        }
+        misses.increment();
+        return load(productId, jwtToken, correlationId);
+    }
+
+    public void evict(UUID productId) {
+        entries.remove(productId);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        refresher.shutdownNow();
+    }
+
+    // Single flight: the first caller loads, concurrent callers for the same id wait on its result
+    private ProductResponse load(UUID productId, String jwtToken, String correlationId) {
+        CompletableFuture<ProductResponse> mine = new CompletableFuture<>();
+        CompletableFuture<ProductResponse> existing = inFlight.putIfAbsent(productId, mine);
+        if (existing != null) {
+            try {
+                return await(existing);
+            } catch (ResponseStatusException ex) {
+                if (!isAuthFailure(ex)) {
+                    throw ex;
+                }
+                // The leader's token was rejected, which says nothing about ours
+                ProductResponse product = loadTimer.record(() -> fetch(productId, jwtToken, correlationId));
+                store(productId, product);
+                return product;
+            }
+        }
+        try {
+            ProductResponse product = loadTimer.record(() -> fetch(productId, jwtToken, correlationId));
+            store(productId, product);
+            mine.complete(product);
+            return product;
+        } catch (RuntimeException ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(productId, mine);
+        }
+    }
+
+    private void refreshInBackground(UUID productId, String jwtToken, String correlationId) {
+        CompletableFuture<ProductResponse> mine = new CompletableFuture<>();
+        if (inFlight.putIfAbsent(productId, mine) != null) {
+            return;
+        }
+        refresher.execute(() -> {
+            try {
+                ProductResponse product = loadTimer.record(() -> fetch(productId, jwtToken, correlationId));
+                store(productId, product);
+                mine.complete(product);
+            } catch (RuntimeException ex) {
+                refreshFailures.increment();
+                log.debug("Background refresh of product {} failed: {} | cid={}", productId, ex.getMessage(), correlationId);
+                mine.completeExceptionally(ex);
+            } finally {
+                inFlight.remove(productId, mine);
+            }
+        });
+    }
+
+    private static ProductResponse await(CompletableFuture<ProductResponse> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw ex;
+        }
+    }
+
+    private static boolean isAuthFailure(ResponseStatusException ex) {
+        return ex.getStatusCode().value() == HttpStatus.UNAUTHORIZED.value()
+                || ex.getStatusCode().value() == HttpStatus.FORBIDDEN.value();
+    }
+
+    private void store(UUID productId, ProductResponse product) {
+        entries.put(productId, new Entry(product, System.nanoTime()));
+        while (entries.size() > maxSize) {
+            evictOne();
+        }
+    }
+
+    private void evictOne() {
+        UUID victim = SampledEviction.victim(entries, EVICTION_SAMPLE, e -> e.lastAccess);
+        if (victim != null) {
+            entries.remove(victim);
+        }
+    }
+
+    private ProductResponse fetch(UUID productId, String jwtToken, String correlationId) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.AUTHORIZATION, "Bearer " + jwtToken);
+        headers.set(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE);
+        headers.set("X-Correlation-Id", correlationId);
+
+        ResponseEntity<ProductResponse> prodResp;
+        try {
+            prodResp = restTemplate.exchange(
+                    productUrl + "/api/products/{id}",
+                    HttpMethod.GET,
+                    new HttpEntity<>(headers),
+                    ProductResponse.class,
+                    productId
+            );
+        } catch (RestClientResponseException ex) {
+            throw UpstreamErrors.toResponseStatus("Product service error", ex, correlationId);
+        } catch (ResourceAccessException ex) {
+            throw UpstreamErrors.unreachable("Product service unavailable", ex, correlationId);
+        }
+
+        ProductResponse prod = prodResp.getBody();
+        if (prod == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_GATEWAY, "Product service returned empty body | cid=" + correlationId);
+        }
+        return prod;
+    }
+}
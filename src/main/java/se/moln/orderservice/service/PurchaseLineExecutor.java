@@ -0,0 +1,122 @@
+package se.moln.orderservice.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs the per-line upstream calls of a purchase (product lookup, inventory reservation).
+ * Lines run one after another by default. When {@code orders.purchase.concurrent.enabled} is set
+ * they run concurrently on virtual threads, with at most
+ * {@code orders.purchase.concurrent.max-parallelism} calls in flight per purchase.
+ */
+@Component
+public class PurchaseLineExecutor {
+
+    private static final Logger log = LoggerFactory.getLogger(PurchaseLineExecutor.class);
+
+    private final boolean concurrent;
+    private final int maxParallelism;
+
+    public PurchaseLineExecutor(@Value("${orders.purchase.concurrent.enabled:false}") boolean concurrent,
+                                @Value("${orders.purchase.concurrent.max-parallelism:8}") int maxParallelism) {
+        this.concurrent = concurrent;
+        this.maxParallelism = Math.max(1, maxParallelism);
+    }
+
+    public static PurchaseLineExecutor sequential() {
+        return new PurchaseLineExecutor(false, 1);
+    }
+
+    /**
+     * Applies {@code call} to every line and returns the results in line order, for calls that
+     * leave nothing to undo. If a line fails, the first failure in line order is rethrown.
+     */
+    public <T, R> List<R> run(List<T> lines, Function<T, R> call) {
+        return run(lines, call, result -> { });
+    }
+
+    /**
+     * Applies {@code call} to every line and returns the results in line order.
+     * If a line fails, {@code compensate} runs for every line that did succeed and the
+     * failure of the first failing line (in line order, not completion order) is rethrown.
+     */
+    public <T, R> List<R> run(List<T> lines, Function<T, R> call, Consumer<R> compensate) {
+        if (!concurrent || maxParallelism == 1 || lines.size() < 2) {
+            return runSequential(lines, call, compensate);
+        }
+        return runConcurrent(lines, call, compensate);
+    }
+
+    private <T, R> List<R> runSequential(List<T> lines, Function<T, R> call, Consumer<R> compensate) {
+        List<R> results = new ArrayList<>(lines.size());
+        for (T line : lines) {
+            try {
+                results.add(call.apply(line));
+            } catch (RuntimeException ex) {
+                compensateAll(results, compensate);
+                throw ex;
+            }
+        }
+        return results;
+    }
+
+    private <T, R> List<R> runConcurrent(List<T> lines, Function<T, R> call, Consumer<R> compensate) {
+        Semaphore permits = new Semaphore(maxParallelism);
+        List<Future<R>> futures = new ArrayList<>(lines.size());
+        // close() waits for every task, so all outcomes are known before we look at them
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (T line : lines) {
+                futures.add(executor.submit(() -> {
+                    permits.acquire();
+                    try {
+                        return call.apply(line);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+        }
+
+        List<R> results = new ArrayList<>(lines.size());
+        Throwable failure = null;
+        for (Future<R> future : futures) {
+            switch (future.state()) {
+                case SUCCESS -> results.add(future.resultNow());
+                case FAILED -> failure = failure != null ? failure : future.exceptionNow();
+                default -> failure = failure != null ? failure : new IllegalStateException("Purchase line was cancelled");
+            }
+        }
+        if (failure == null) {
+            return results;
+        }
+        compensateAll(results, compensate);
+        if (failure instanceof RuntimeException re) {
+            throw re;
+        }
+        if (failure instanceof Error err) {
+            throw err;
+        }
+        throw new IllegalStateException("Purchase line failed", failure);
+    }
+
+    private <R> void compensateAll(List<R> succeeded, Consumer<R> compensate) {
+        for (R result : succeeded) {
+            try {
+                compensate.accept(result);
+            } catch (RuntimeException ex) {
+                log.warn("Compensation of a purchase line failed: {}", ex.getMessage());
+            }
+        }
+    }
+}
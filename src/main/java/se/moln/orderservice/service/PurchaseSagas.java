@@ -0,0 +1,248 @@
+package se.moln.orderservice.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import se.moln.orderservice.dto.InventoryPurchaseRequest;
+import se.moln.orderservice.model.PurchaseSaga;
+import se.moln.orderservice.model.SagaLine;
+import se.moln.orderservice.model.SagaState;
+import se.moln.orderservice.repository.PurchaseSagaRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small saga engine for purchases. Each step is written to {@code purchase_sagas} before the
+ * request moves on; a saga that ends anywhere other than {@link SagaState#COMPLETED} or
+ * {@link SagaState#ABORTED} has its reservation returned by a worker pool, off the request thread.
+ * Failed returns are retried with backoff. A worker holds its saga under a lease, so a saga left behind by a
+ * crash, or a purchase no instance has touched for {@code abandonedAfter}, is claimed by the sweep of
+ * whichever instance gets to it first.
+ */
+@Component
+public class PurchaseSagas {
+
+    private static final Logger log = LoggerFactory.getLogger(PurchaseSagas.class);
+
+    private final PurchaseSagaRepository sagaRepository;
+    private final InventoryClient inventoryClient;
+    private final ExecutorService workers;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Duration claimLease;
+    private final Duration abandonedAfter;
+
+    // sagas that have a compensation queued or running in this process
+    private final Set<UUID> scheduled = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public PurchaseSagas(PurchaseSagaRepository sagaRepository,
+                         InventoryClient inventoryClient,
+                         @Value("${orders.saga.compensation.workers:4}") int workers,
+                         @Value("${orders.saga.compensation.max-attempts:20}") int maxAttempts,
+                         @Value("${orders.saga.compensation.initial-backoff:5s}") Duration initialBackoff,
+                         @Value("${orders.saga.compensation.max-backoff:30m}") Duration maxBackoff,
+                         @Value("${orders.saga.compensation.claim-lease:2m}") Duration claimLease,
+                         @Value("${orders.saga.abandoned-after:5m}") Duration abandonedAfter) {
+        this(sagaRepository, inventoryClient, Executors.newFixedThreadPool(Math.max(1, workers), namedThreads()),
+                maxAttempts, initialBackoff, maxBackoff, claimLease, abandonedAfter);
+    }
+
+    PurchaseSagas(PurchaseSagaRepository sagaRepository, InventoryClient inventoryClient, ExecutorService workers,
+                  int maxAttempts, Duration initialBackoff, Duration maxBackoff,
+                  Duration claimLease, Duration abandonedAfter) {
+        this.sagaRepository = sagaRepository;
+        this.inventoryClient = inventoryClient;
+        this.workers = workers;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.claimLease = claimLease;
+        this.abandonedAfter = abandonedAfter;
+    }
+
+    /** Records the purchase before anything is reserved. */
+    public PurchaseSaga begin(UUID userId, String correlationId, String jwtToken, List<InventoryPurchaseRequest> reservation) {
+        List<SagaLine> lines = new ArrayList<>(reservation.size());
+        reservation.forEach(r -> lines.add(new SagaLine(r.productId(), r.quantity())));
+        return sagaRepository.save(PurchaseSaga.builder()
+                .userId(userId)
+                .correlationId(correlationId)
+                .bearerToken(jwtToken)
+                .state(SagaState.RESERVING)
+                .lines(lines)
+                .build());
+    }
+
+    public void reserved(PurchaseSaga saga) {
+        saga.setState(SagaState.RESERVED);
+        // RESERVING is compensated the same way, so losing this write is harmless
+        saveQuietly(saga);
+    }
+
+    /**
+     * The reservation failed. Only the lines InventoryClient reports as possibly held are returned:
+     * none after a definite rejection (the saga is aborted), the uncertain and already reserved ones
+     * after a 5xx, timeout or lost connection. Any other failure leaves every line in doubt.
+     */
+    public void reservationFailed(PurchaseSaga saga, RuntimeException cause) {
+        if (!(cause instanceof InventoryReservationException failed)) {
+            compensate(saga, cause);
+            return;
+        }
+        if (failed.possiblyReserved().isEmpty()) {
+            saga.setState(SagaState.ABORTED);
+            saga.setBearerToken(null);
+            saga.setLastError(message(cause));
+            saveQuietly(saga);
+            return;
+        }
+        List<SagaLine> held = new ArrayList<>(failed.possiblyReserved().size());
+        failed.possiblyReserved().forEach(r -> held.add(new SagaLine(r.productId(), r.quantity())));
+        saga.setLines(held);
+        compensate(saga, cause);
+    }
+
+    /** Marks the saga done; called inside the transaction that stores the order. */
+    void complete(UUID sagaId, UUID orderId) {
+        sagaRepository.findById(sagaId).ifPresent(saga -> {
+            saga.setState(SagaState.COMPLETED);
+            saga.setOrderId(orderId);
+            saga.setBearerToken(null);
+            sagaRepository.save(saga);
+        });
+    }
+
+    /**
+     * Queues the return of everything the saga reserved and returns immediately. The queued state is
+     * persisted first, so the return survives a restart even if the worker never gets to it; until the
+     * lease runs out the sweep of other instances leaves it to this one.
+     */
+    public void compensate(PurchaseSaga saga, Throwable cause) {
+        saga.setState(SagaState.COMPENSATING);
+        saga.setLastError(message(cause));
+        saga.setNextAttemptAt(Instant.now().plus(claimLease));
+        saveQuietly(saga);
+        submit(saga);
+    }
+
+    /**
+     * Returns the stock of due retries and of purchases nobody has moved on for {@code abandonedAfter},
+     * which only happens when the instance running them died. Each saga is claimed first, so of several
+     * instances sweeping at once just one returns it.
+     */
+    @Scheduled(fixedDelayString = "${orders.saga.compensation.poll-interval-ms:5000}",
+            initialDelayString = "${orders.saga.compensation.poll-interval-ms:5000}")
+    public void retryDue() {
+        Instant now = Instant.now();
+        Instant abandonedBefore = now.minus(abandonedAfter);
+        for (PurchaseSaga saga : sagaRepository.findDue(now, abandonedBefore)) {
+            if (scheduled.contains(saga.getId())
+                    || sagaRepository.claim(saga.getId(), now, now.plus(claimLease), abandonedBefore) != 1) {
+                continue;
+            }
+            if (saga.getState() != SagaState.COMPENSATING) {
+                log.warn("Purchase saga {} was left in {} since {}, returning its reservation | cid={}",
+                        saga.getId(), saga.getState(), saga.getUpdatedAt(), saga.getCorrelationId());
+                saga.setLastError("abandoned in " + saga.getState());
+                saga.setState(SagaState.COMPENSATING);
+            }
+            saga.setNextAttemptAt(now.plus(claimLease));
+            submit(saga);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        workers.shutdown();
+    }
+
+    private void submit(PurchaseSaga saga) {
+        if (!scheduled.add(saga.getId())) {
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                try {
+                    runCompensation(saga);
+                } finally {
+                    scheduled.remove(saga.getId());
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // shutting down; the lease runs out and the saga is claimed again by the next sweep
+            scheduled.remove(saga.getId());
+        }
+    }
+
+    private void runCompensation(PurchaseSaga saga) {
+        List<InventoryPurchaseRequest> lines = saga.getLines().stream()
+                .map(l -> new InventoryPurchaseRequest(l.getProductId(), l.getQuantity()))
+                .toList();
+        boolean returned = inventoryClient.release(lines, saga.getBearerToken(), saga.getCorrelationId());
+        if (returned) {
+            saga.setState(SagaState.COMPENSATED);
+            saga.setBearerToken(null);
+            saga.setNextAttemptAt(null);
+            saveQuietly(saga);
+            return;
+        }
+        int attempts = saga.getAttempts() + 1;
+        saga.setAttempts(attempts);
+        saga.setLastError("inventory return failed");
+        if (attempts >= maxAttempts) {
+            saga.setState(SagaState.COMPENSATION_FAILED);
+            saga.setNextAttemptAt(null);
+            log.error("Giving up on returning stock for purchase saga {} after {} attempts, lines={} | cid={}",
+                    saga.getId(), attempts, saga.getLines(), saga.getCorrelationId());
+        } else {
+            saga.setNextAttemptAt(Instant.now().plus(backoff(attempts)));
+        }
+        saveQuietly(saga);
+    }
+
+    Duration backoff(int attempts) {
+        long factor = 1L << Math.min(attempts - 1, 20);
+        Duration next = initialBackoff.multipliedBy(factor);
+        return next.compareTo(maxBackoff) > 0 ? maxBackoff : next;
+    }
+
+    private void saveQuietly(PurchaseSaga saga) {
+        try {
+            sagaRepository.save(saga);
+        } catch (RuntimeException ex) {
+            log.error("Could not persist purchase saga {} in state {}: {} | cid={}",
+                    saga.getId(), saga.getState(), ex.getMessage(), saga.getCorrelationId());
+        }
+    }
+
+    private static String message(Throwable t) {
+        String msg = t.getMessage() != null ? t.getMessage() : t.getClass().getSimpleName();
+        return msg.length() > 1000 ? msg.substring(0, 1000) : msg;
+    }
+
+    private static ThreadFactory namedThreads() {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, "saga-compensation-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
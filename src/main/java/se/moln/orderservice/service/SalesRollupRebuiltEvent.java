@@ -0,0 +1,10 @@
+package se.moln.orderservice.service;
+
+import java.time.LocalDate;
+
+/**
+ * Published by {@link DailySalesRollup} after the nightly rebuild has committed, so anything built
+ * from {@code daily_product_sales} can reload the rewritten days.
+ */
+public record SalesRollupRebuiltEvent(LocalDate from, LocalDate to) {
+}
@@ -0,0 +1,291 @@
+package se.moln.orderservice.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import se.moln.orderservice.analytics.ColumnarOrderItems;
+import se.moln.orderservice.model.Money;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Units sold and revenue of CREATED orders per hour, day, week or month over an arbitrary range.
+ * <p>
+ * The rows of the range are read once into primitive columns: order lines for hourly buckets,
+ * {@code daily_product_sales} for the others. Every row is then added to its bucket in a single
+ * pass, split across the common fork/join pool when there are more than
+ * {@code analytics.timeseries.parallel-threshold} rows. With the {@link ColumnarOrderItems} store
+ * enabled, day, week and month buckets are summed from its in-memory columns instead. Times are in
+ * the JVM time zone, like the rollup; the range is widened to whole buckets.
+ */
+@Component
+public class SalesTimeseries {
+
+    private static final int MAX_PRODUCT_FILTER = 100;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Optional<ColumnarOrderItems> columnar;
+    private final int maxBuckets;
+    private final int parallelThreshold;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    public enum Granularity {
+        HOUR, DAY, WEEK, MONTH;
+
+        public static Granularity parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException | NullPointerException ex) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "granularity must be one of hour, day, week, month");
+            }
+        }
+
+        LocalDateTime floor(LocalDateTime t) {
+            return switch (this) {
+                case HOUR -> t.truncatedTo(ChronoUnit.HOURS);
+                case DAY -> t.truncatedTo(ChronoUnit.DAYS);
+                case WEEK -> t.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH -> t.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+            };
+        }
+
+        LocalDateTime next(LocalDateTime bucketStart) {
+            return switch (this) {
+                case HOUR -> bucketStart.plusHours(1);
+                case DAY -> bucketStart.plusDays(1);
+                case WEEK -> bucketStart.plusWeeks(1);
+                case MONTH -> bucketStart.plusMonths(1);
+            };
+        }
+    }
+
+    public record Bucket(LocalDateTime start, long unitsSold, Money revenue) { }
+
+    public record Series(Granularity granularity, LocalDateTime from, LocalDateTime to, List<Bucket> buckets) { }
+
+    // Growable columns: epoch second of the row, units, revenue in cents
+    static final class Rows {
+        long[] times = new long[1024];
+        long[] units = new long[1024];
+        long[] cents = new long[1024];
+        int size;
+
+        void add(long time, long unitCount, long revenueCents) {
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                units = Arrays.copyOf(units, capacity);
+                cents = Arrays.copyOf(cents, capacity);
+            }
+            times[size] = time;
+            units[size] = unitCount;
+            cents[size] = revenueCents;
+            size++;
+        }
+    }
+
+    public SalesTimeseries(JdbcTemplate jdbcTemplate,
+                           Optional<ColumnarOrderItems> columnar,
+                           @Value("${analytics.timeseries.max-buckets:10000}") int maxBuckets,
+                           @Value("${analytics.timeseries.parallel-threshold:50000}") int parallelThreshold) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.columnar = columnar;
+        this.maxBuckets = Math.max(1, maxBuckets);
+        this.parallelThreshold = Math.max(1, parallelThreshold);
+    }
+
+    /**
+     * @param from       start of the range (inclusive)
+     * @param to         end of the range (exclusive)
+     * @param productIds only these products; all products when empty
+     */
+    public Series query(LocalDateTime from, LocalDateTime to, Granularity granularity, Collection<UUID> productIds) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must be before to");
+        }
+        List<UUID> products = productIds == null ? List.of() : List.copyOf(productIds);
+        if (products.size() > MAX_PRODUCT_FILTER) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_PRODUCT_FILTER + " products per query");
+        }
+
+        List<LocalDateTime> starts = bucketStarts(from, to, granularity);
+        LocalDateTime rangeStart = starts.get(0);
+        LocalDateTime rangeEnd = starts.get(starts.size() - 1);
+        long[] bounds = starts.stream().mapToLong(this::epochSecond).toArray();
+
+        long[] totals;
+        if (granularity != Granularity.HOUR && columnar.isPresent()) {
+            int[] boundsDays = starts.stream().mapToInt(t -> (int) t.toLocalDate().toEpochDay()).toArray();
+            totals = columnar.get().sumByDayBuckets(boundsDays, products);
+        } else {
+            Rows rows = granularity == Granularity.HOUR
+                    ? loadOrderLines(rangeStart, rangeEnd, products)
+                    : loadDailyRollup(rangeStart, rangeEnd, products);
+            totals = aggregate(rows, bounds, parallelThreshold);
+        }
+
+        int n = bounds.length - 1;
+        List<Bucket> buckets = new ArrayList<>(n);
+        for (int b = 0; b < n; b++) {
+            buckets.add(new Bucket(starts.get(b), totals[2 * b], Money.ofMinor(totals[2 * b + 1])));
+        }
+        return new Series(granularity, rangeStart, rangeEnd, buckets);
+    }
+
+    // Bucket starts from floor(from) up to and including the first start at or after to
+    List<LocalDateTime> bucketStarts(LocalDateTime from, LocalDateTime to, Granularity granularity) {
+        List<LocalDateTime> starts = new ArrayList<>();
+        LocalDateTime t = granularity.floor(from);
+        starts.add(t);
+        while (t.isBefore(to)) {
+            if (starts.size() > maxBuckets) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Range has more than " + maxBuckets + " " + granularity.name().toLowerCase(Locale.ROOT) + " buckets");
+            }
+            t = granularity.next(t);
+            starts.add(t);
+        }
+        return starts;
+    }
+
+    /**
+     * Sums units and cents per bucket. {@code bounds} holds the n bucket starts followed by the end
+     * of the last bucket, as epoch seconds; rows outside are ignored.
+     *
+     * @return units of bucket b at {@code [2b]}, cents at {@code [2b + 1]}
+     */
+    static long[] aggregate(Rows rows, long[] bounds, int parallelThreshold) {
+        BucketSum task = new BucketSum(rows, bounds, 0, rows.size, parallelThreshold);
+        return rows.size <= parallelThreshold ? task.compute() : ForkJoinPool.commonPool().invoke(task);
+    }
+
+    private static final class BucketSum extends RecursiveTask<long[]> {
+        private final Rows rows;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        BucketSum(Rows rows, long[] bounds, int from, int to, int threshold) {
+            this.rows = rows;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from > threshold) {
+                int mid = (from + to) >>> 1;
+                BucketSum left = new BucketSum(rows, bounds, from, mid, threshold);
+                left.fork();
+                long[] right = new BucketSum(rows, bounds, mid, to, threshold).compute();
+                long[] sum = left.join();
+                for (int i = 0; i < sum.length; i++) {
+                    sum[i] += right[i];
+                }
+                return sum;
+            }
+            long[] sum = new long[2 * (bounds.length - 1)];
+            for (int r = from; r < to; r++) {
+                int b = bucketOf(rows.times[r]);
+                if (b >= 0) {
+                    sum[2 * b] += rows.units[r];
+                    sum[2 * b + 1] += rows.cents[r];
+                }
+            }
+            return sum;
+        }
+
+        private int bucketOf(long time) {
+            if (time < bounds[0] || time >= bounds[bounds.length - 1]) {
+                return -1;
+            }
+            int i = Arrays.binarySearch(bounds, time);
+            // Exact hit on a start; zero-length buckets (DST gaps) share it with the next one, take the last
+            if (i >= 0) {
+                while (i + 1 < bounds.length - 1 && bounds[i + 1] == time) {
+                    i++;
+                }
+                return i;
+            }
+            return -i - 2;
+        }
+    }
+
+    private Rows loadOrderLines(LocalDateTime from, LocalDateTime to, List<UUID> products) {
+        List<Object> args = new ArrayList<>(List.of(OrderStatus.CREATED.name(), offset(from), offset(to)));
+        args.addAll(products);
+        Rows rows = new Rows();
+        jdbcTemplate.query("""
+                SELECT o.order_date, i.quantity, i.price_at_purchase
+                  FROM orders o JOIN order_items i ON i.order_id = o.id
+                 WHERE o.status = ? AND o.order_date >= ? AND o.order_date < ?""" + productFilter("i.product_id", products),
+                rs -> {
+                    long quantity = rs.getLong(2);
+                    rows.add(rs.getObject(1, OffsetDateTime.class).toEpochSecond(), quantity, cents(rs, 3) * quantity);
+                },
+                args.toArray());
+        return rows;
+    }
+
+    private Rows loadDailyRollup(LocalDateTime from, LocalDateTime to, List<UUID> products) {
+        List<Object> args = new ArrayList<>(List.of(OrderStatus.CREATED.name(), from.toLocalDate(), to.toLocalDate()));
+        args.addAll(products);
+        Rows rows = new Rows();
+        jdbcTemplate.query("""
+                SELECT sales_date, units_sold, revenue
+                  FROM daily_product_sales
+                 WHERE status = ? AND sales_date >= ? AND sales_date < ?""" + productFilter("product_id", products),
+                rs -> {
+                    long dayStart = rs.getObject(1, LocalDate.class).atStartOfDay(zone).toEpochSecond();
+                    rows.add(dayStart, rs.getLong(2), cents(rs, 3));
+                },
+                args.toArray());
+        return rows;
+    }
+
+    private static String productFilter(String column, List<UUID> products) {
+        if (products.isEmpty()) {
+            return "";
+        }
+        return " AND " + column + " IN (" + String.join(", ", Collections.nCopies(products.size(), "?")) + ")";
+    }
+
+    private static long cents(ResultSet rs, int column) throws SQLException {
+        BigDecimal amount = rs.getBigDecimal(column);
+        return amount == null ? 0 : Money.of(amount).minorUnits();
+    }
+
+    private OffsetDateTime offset(LocalDateTime t) {
+        return t.atZone(zone).toOffsetDateTime();
+    }
+
+    private long epochSecond(LocalDateTime t) {
+        return t.atZone(zone).toEpochSecond();
+    }
+}
@@ -0,0 +1,54 @@
+package se.moln.orderservice.service;
+
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToLongFunction;
+
+/**
+ * Sampled LRU for the in-process caches: the entry with the lowest rank among a few entries from a
+ * random slice of the map. The slice is found by splitting the map's spliterator towards a random
+ * half until about {@code sample} entries are left, so the sample is not always the head of the
+ * iteration order and entries there are not evicted over and over.
+ */
+final class SampledEviction {
+
+    private SampledEviction() {
+    }
+
+    static <K, V> K victim(Map<K, V> map, int sample, ToLongFunction<V> rank) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Spliterator<Map.Entry<K, V>> slice = map.entrySet().spliterator();
+        for (long size = map.size(); size > 2L * sample; size /= 2) {
+            Spliterator<Map.Entry<K, V>> prefix = slice.trySplit();
+            if (prefix == null) {
+                break;
+            }
+            if (random.nextBoolean()) {
+                slice = prefix;
+            }
+        }
+        Lowest<K> lowest = new Lowest<>();
+        int sampled = 0;
+        while (sampled < sample && slice.tryAdvance(e -> lowest.offer(e.getKey(), rank.applyAsLong(e.getValue())))) {
+            sampled++;
+        }
+        if (lowest.key == null) {
+            // The slice was empty (sparse table); fall back to the head of the map
+            map.entrySet().stream().limit(sample).forEach(e -> lowest.offer(e.getKey(), rank.applyAsLong(e.getValue())));
+        }
+        return lowest.key;
+    }
+
+    private static final class Lowest<K> {
+        K key;
+        long rank = Long.MAX_VALUE;
+
+        void offer(K candidate, long candidateRank) {
+            if (key == null || candidateRank < rank) {
+                key = candidate;
+                rank = candidateRank;
+            }
+        }
+    }
+}
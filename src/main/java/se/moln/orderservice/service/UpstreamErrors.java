@@ -0,0 +1,33 @@
+package se.moln.orderservice.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.net.http.HttpTimeoutException;
+
+final class UpstreamErrors {
+
+    private UpstreamErrors() {
+    }
+
+    // Keep the downstream status (e.g. 404/409) so clients see why the call failed
+    static ResponseStatusException toResponseStatus(String message, RestClientResponseException ex, String cid) {
+        HttpStatus status = ex.getStatusCode() instanceof HttpStatus hs
+                ? hs
+                : HttpStatus.resolve(ex.getStatusCode().value());
+        if (status == null) {
+            status = HttpStatus.BAD_GATEWAY;
+        }
+        return new ResponseStatusException(status, message + " | " + ex.getResponseBodyAsString() + " | cid=" + cid);
+    }
+
+    // No response at all: timed out (504) or could not connect / host limit reached (502)
+    static ResponseStatusException unreachable(String message, ResourceAccessException ex, String cid) {
+        HttpStatus status = ex.getCause() instanceof HttpTimeoutException
+                ? HttpStatus.GATEWAY_TIMEOUT
+                : HttpStatus.BAD_GATEWAY;
+        return new ResponseStatusException(status, message + " | " + ex.getMessage() + " | cid=" + cid);
+    }
+}
@@ -0,0 +1,41 @@
+-- Schema of the entities before migrations took over, as ddl-auto=update created it. Databases
+-- created that way are baselined at this version (spring.flyway.baseline-on-migrate) and skip it.
+
+create table order_items (
+    price_at_purchase numeric(38,2),
+    quantity integer not null,
+    id uuid not null,
+    order_id uuid,
+    product_id uuid,
+    product_name varchar(255),
+    primary key (id)
+);
+
+create table orders (
+    total_amount numeric(38,2),
+    order_date timestamp(6) with time zone,
+    id uuid not null,
+    user_id uuid,
+    order_number varchar(255),
+    payment_id varchar(255),
+    status enum ('CANCELLED','COMPLETED','CREATED'),
+    primary key (id)
+);
+
+create table payments (
+    amount_fiat bigint not null,
+    created_at timestamp(6) with time zone,
+    expires_at timestamp(6) with time zone,
+    updated_at timestamp(6) with time zone,
+    id uuid not null,
+    address_or_url varchar(255),
+    amount_crypto varchar(255),
+    currency_crypto varchar(255),
+    currency_fiat varchar(255) not null,
+    provider varchar(255) not null,
+    provider_ref varchar(255),
+    status enum ('CANCELED','EXPIRED','FAILED','PENDING','REQUIRES_ACTION','SUCCEEDED') not null,
+    primary key (id)
+);
+
+alter table order_items add constraint fk_order_items_order foreign key (order_id) references orders (id);
@@ -0,0 +1,27 @@
+-- Databases created by ddl-auto from older versions of the entities are baselined at version 1 too,
+-- but may lack what those versions did not map yet: the payments table, orders.order_number and
+-- orders.payment_id, and zoned order dates and enum statuses. Bring them to the version 1 schema;
+-- on a database that already has it this changes nothing.
+
+create table if not exists payments (
+    amount_fiat bigint not null,
+    created_at timestamp(6) with time zone,
+    expires_at timestamp(6) with time zone,
+    updated_at timestamp(6) with time zone,
+    id uuid not null,
+    address_or_url varchar(255),
+    amount_crypto varchar(255),
+    currency_crypto varchar(255),
+    currency_fiat varchar(255) not null,
+    provider varchar(255) not null,
+    provider_ref varchar(255),
+    status enum ('CANCELED','EXPIRED','FAILED','PENDING','REQUIRES_ACTION','SUCCEEDED') not null,
+    primary key (id)
+);
+
+alter table orders add column if not exists order_number varchar(255);
+alter table orders add column if not exists payment_id varchar(255);
+
+-- Local timestamps are read in the session time zone, the zone the application wrote them in
+alter table orders alter column order_date set data type timestamp(6) with time zone;
+alter table orders alter column status set data type enum ('CANCELLED','COMPLETED','CREATED');
@@ -0,0 +1,70 @@
+-- Tables of the purchase pipeline (entitlement outbox, purchase sagas) and of the analytics
+-- rollups. The rollups and sketches are filled from the existing orders at startup.
+
+create table entitlement_outbox (
+    attempts integer not null,
+    quantity integer not null,
+    created_at timestamp(6) with time zone,
+    next_attempt_at timestamp(6) with time zone not null,
+    claim_id uuid,
+    id uuid not null,
+    order_id uuid not null,
+    user_id uuid not null,
+    last_error varchar(1000),
+    bearer_token varchar(4096),
+    sku varchar(255) not null,
+    status enum ('FAILED','PENDING') not null,
+    primary key (id)
+);
+
+create table purchase_sagas (
+    attempts integer not null,
+    created_at timestamp(6) with time zone,
+    next_attempt_at timestamp(6) with time zone,
+    updated_at timestamp(6) with time zone,
+    id uuid not null,
+    order_id uuid,
+    user_id uuid not null,
+    last_error varchar(1000),
+    bearer_token varchar(4096),
+    correlation_id varchar(255) not null,
+    state enum ('ABORTED','COMPENSATED','COMPENSATING','COMPENSATION_FAILED','COMPLETED','RESERVED','RESERVING') not null,
+    primary key (id)
+);
+
+create table purchase_saga_lines (
+    quantity integer,
+    product_id uuid,
+    saga_id uuid not null
+);
+
+create table daily_product_sales (
+    revenue numeric(38,2),
+    sales_date date not null,
+    order_count bigint not null,
+    units_sold bigint not null,
+    product_id uuid not null,
+    product_name varchar(255),
+    status enum ('CANCELLED','COMPLETED','CREATED') not null,
+    primary key (sales_date, product_id, status)
+);
+
+create table daily_distinct_sketch (
+    sales_date date not null,
+    registers varbinary(4096) not null,
+    metric enum ('BUYERS','PRODUCTS') not null,
+    primary key (sales_date, metric)
+);
+
+create table monthly_kpis_snapshot (
+    year_month varchar(7) not null,
+    computed_at timestamp(6) with time zone,
+    response varchar(4000) not null,
+    primary key (year_month)
+);
+
+create index idx_entitlement_outbox_due on entitlement_outbox (status, next_attempt_at);
+create index idx_entitlement_outbox_claim on entitlement_outbox (claim_id);
+create index idx_purchase_sagas_state on purchase_sagas (state, next_attempt_at);
+
+alter table purchase_saga_lines add constraint fk_purchase_saga_lines_saga foreign key (saga_id) references purchase_sagas (id);
@@ -0,0 +1,13 @@
+-- Indexes for the queries on the request and analytics paths. IF NOT EXISTS: idx_orders_user_date
+-- may already have been created by ddl-auto=update.
+
+-- Order history, offset and keyset pages: WHERE user_id = ? ORDER BY order_date DESC, id DESC
+create index if not exists idx_orders_user_date on orders (user_id, order_date desc, id desc);
+
+-- Analytics scans and rollup repair: WHERE status = ? AND order_date >= ? [AND order_date < ?]
+create index if not exists idx_orders_status_date on orders (status, order_date);
+
+-- Payment webhooks: findByProviderAndProviderRef
+create index if not exists idx_payments_provider_ref on payments (provider, provider_ref);
+
+-- Items of an order (history fetch, analytics joins) use the index H2 keeps for fk_order_items_order
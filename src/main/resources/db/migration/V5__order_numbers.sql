@@ -0,0 +1,18 @@
+-- Order numbers ORD-yyMMdd-nnnnnnnnn from order_number_seq (OrderNumberGenerator). Each instance
+-- reserves INCREMENT BY numbers per database round trip, so the block size is set here for all of them.
+create sequence order_number_seq start with 100 increment by 100;
+
+-- Numbers from before the sequence (ORD-XXXXXXXX) are kept. A number used twice stays with the
+-- order with the lowest id; the other orders, and orders without a number, get a new one. Each takes
+-- the last number of a whole block, so the generator never hands it out again.
+update orders o set order_number = null
+ where exists (select 1 from orders d where d.order_number = o.order_number and d.id < o.id);
+
+update orders
+   set order_number = 'ORD-' || formatdatetime(coalesce(order_date, current_timestamp), 'yyMMdd', 'en', 'UTC')
+                      || '-' || lpad(cast(next value for order_number_seq as varchar), 9, '0')
+ where order_number is null;
+
+alter table orders alter column order_number set data type varchar(32);
+alter table orders alter column order_number set not null;
+alter table orders add constraint uk_orders_order_number unique (order_number);
@@ -15,8 +15,8 @@ import org.springframework.boot.test.context.SpringBootTest;
                 "spring.datasource.username=sa",
                 "spring.datasource.password=",
                 "spring.datasource.driver-class-name=org.h2.Driver",
-                // JPA settings for tests
-                "spring.jpa.hibernate.ddl-auto=create-drop",
+                // Schema from the Flyway migrations, checked against the entities
+                "spring.jpa.hibernate.ddl-auto=validate",
                 "spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
                 "spring.jpa.open-in-view=false",
                 "spring.sql.init.mode=never"
@@ -0,0 +1,98 @@
+package se.moln.orderservice.analytics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.model.Money;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarOrderItemsTest {
+
+    private static final UUID HUB = UUID.randomUUID();
+    private static final UUID CABLE = UUID.randomUUID();
+    private static final LocalDate MARCH_3 = LocalDate.of(2025, 3, 3);
+
+    private JdbcTemplate jdbc;
+    private ColumnarOrderItems store;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:columnar-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbc.execute("CREATE TABLE orders (id UUID PRIMARY KEY, order_date TIMESTAMP WITH TIME ZONE, status VARCHAR(32))");
+        jdbc.execute("CREATE TABLE order_items (id UUID PRIMARY KEY, order_id UUID, product_id UUID, product_name VARCHAR(255), "
+                + "quantity INT, price_at_purchase NUMERIC(38,2))");
+        store = new ColumnarOrderItems(jdbc);
+    }
+
+    private void line(LocalDate date, String status, UUID productId, String name, int qty, String price) {
+        UUID orderId = UUID.randomUUID();
+        jdbc.update("INSERT INTO orders (id, order_date, status) VALUES (?, ?, ?)",
+                orderId, date.atTime(12, 0).atZone(ZoneId.systemDefault()).toOffsetDateTime(), status);
+        jdbc.update("INSERT INTO order_items (id, order_id, product_id, product_name, quantity, price_at_purchase) VALUES (?, ?, ?, ?, ?, ?)",
+                UUID.randomUUID(), orderId, productId, name, qty, new BigDecimal(price));
+    }
+
+    private static Order order(LocalDate date, OrderStatus status, UUID productId, int qty, String price) {
+        OrderItem item = new OrderItem();
+        item.setProductId(productId);
+        item.setProductName("Appended");
+        item.setQuantity(qty);
+        item.setPriceAtPurchase(Money.parse(price));
+        Order o = new Order();
+        o.setOrderDate(date.atTime(8, 0).atZone(ZoneId.systemDefault()).toOffsetDateTime());
+        o.setStatus(status);
+        o.setOrderItems(List.of(item));
+        return o;
+    }
+
+    @Test
+    void kpis_coverLoadedAndAppendedCreatedLines() {
+        line(MARCH_3, "CREATED", HUB, "USB-C Hub", 2, "25.00");
+        line(MARCH_3, "CREATED", CABLE, "HDMI Cable", 3, "10.00");
+        line(MARCH_3, "COMPLETED", CABLE, "HDMI Cable", 50, "10.00");
+        line(MARCH_3.plusMonths(1), "CREATED", CABLE, "HDMI Cable", 9, "10.00");
+        store.load();
+        store.append(order(MARCH_3.plusDays(10), OrderStatus.CREATED, HUB, 1, "25.00"));
+        store.append(order(MARCH_3.plusDays(10), OrderStatus.COMPLETED, HUB, 7, "25.00"));
+
+        assertEquals(4, store.size());
+        ColumnarOrderItems.Kpis kpis = store.kpis(LocalDate.of(2025, 3, 1), LocalDate.of(2025, 3, 31));
+        assertEquals(6, kpis.unitsSold());
+        assertEquals(10500, kpis.revenueCents());
+        // Tie on units (3 each) goes to the higher revenue
+        assertEquals(HUB, kpis.topProductId());
+        assertEquals("USB-C Hub", kpis.topProductName());
+        assertEquals(3, kpis.topProductUnits());
+        assertEquals(7500, kpis.topProductRevenueCents());
+
+        ColumnarOrderItems.Kpis empty = store.kpis(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31));
+        assertEquals(0, empty.unitsSold());
+        assertNull(empty.topProductId());
+    }
+
+    @Test
+    void sumByDayBuckets_respectsBoundsAndProductFilter() {
+        store.append(order(MARCH_3, OrderStatus.CREATED, HUB, 2, "25.00"));
+        store.append(order(MARCH_3.plusDays(1), OrderStatus.CREATED, CABLE, 3, "9.90"));
+        store.append(order(MARCH_3.plusDays(7), OrderStatus.CREATED, HUB, 1, "25.00"));
+        store.append(order(MARCH_3.plusDays(14), OrderStatus.CREATED, HUB, 100, "25.00"));
+
+        int first = (int) MARCH_3.toEpochDay();
+        int[] weeks = {first, first + 7, first + 14};
+
+        assertArrayEquals(new long[]{5, 7970, 1, 2500}, store.sumByDayBuckets(weeks, List.of()));
+        assertArrayEquals(new long[]{2, 5000, 1, 2500}, store.sumByDayBuckets(weeks, List.of(HUB)));
+    }
+}
@@ -0,0 +1,127 @@
+package se.moln.orderservice.analytics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DistinctCountersTest {
+
+    private static final LocalDate MARCH_3 = LocalDate.of(2025, 3, 3);
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate tx;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = new DriverManagerDataSource(
+                "jdbc:h2:mem:distinct-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbc = new JdbcTemplate(ds);
+        tx = new TransactionTemplate(new DataSourceTransactionManager(ds));
+        jdbc.execute("CREATE TABLE orders (id UUID PRIMARY KEY, user_id UUID, order_date TIMESTAMP WITH TIME ZONE, status VARCHAR(32))");
+        jdbc.execute("CREATE TABLE order_items (id UUID PRIMARY KEY, order_id UUID, product_id UUID)");
+        jdbc.execute("CREATE TABLE daily_distinct_sketch (sales_date DATE, metric VARCHAR(16), registers VARBINARY(4096) NOT NULL, "
+                + "PRIMARY KEY (sales_date, metric))");
+    }
+
+    private static Order order(LocalDate date, OrderStatus status, UUID userId, UUID... products) {
+        List<OrderItem> items = new ArrayList<>();
+        for (UUID productId : products) {
+            OrderItem item = new OrderItem();
+            item.setProductId(productId);
+            items.add(item);
+        }
+        Order o = new Order();
+        o.setUserId(userId);
+        o.setOrderDate(date.atTime(12, 0).atZone(ZoneId.systemDefault()).toOffsetDateTime());
+        o.setStatus(status);
+        o.setOrderItems(items);
+        return o;
+    }
+
+    @Test
+    void hyperLogLog_estimatesWithinFewPercent_andMergesOverlaps() {
+        HyperLogLog small = new HyperLogLog();
+        for (int i = 0; i < 10; i++) {
+            small.add(new UUID(i, 42));
+        }
+        assertEquals(10, small.estimate());
+
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        for (int i = 0; i < 200_000; i++) {
+            UUID id = UUID.randomUUID();
+            if (i < 150_000) {
+                a.add(id);
+            }
+            if (i >= 50_000) {
+                b.add(id);
+                b.add(id);
+            }
+        }
+        assertEquals(150_000, a.estimate(), 150_000 * 0.05);
+        a.merge(b);
+        assertEquals(200_000, a.estimate(), 200_000 * 0.05);
+        assertEquals(a.estimate(), HyperLogLog.of(a.toBytes()).estimate());
+    }
+
+    @Test
+    void countsPendingAndFlushedDays_andSurvivesRestart() {
+        DistinctCounters counters = new DistinctCounters(jdbc, tx, 7);
+        UUID alice = new UUID(1, 1);
+        UUID bob = new UUID(1, 2);
+        UUID hub = new UUID(2, 1);
+        UUID cable = new UUID(2, 2);
+        counters.record(order(MARCH_3, OrderStatus.CREATED, alice, hub, cable));
+        counters.record(order(MARCH_3, OrderStatus.COMPLETED, bob, UUID.randomUUID()));
+        counters.flush();
+        counters.record(order(MARCH_3.plusDays(1), OrderStatus.CREATED, bob, hub));
+        counters.record(order(MARCH_3.plusDays(1), OrderStatus.CREATED, alice, hub));
+
+        assertEquals(new DistinctCounters.Counts(2, 2), counters.count(MARCH_3, MARCH_3.plusDays(1)));
+        assertEquals(new DistinctCounters.Counts(1, 2), counters.count(MARCH_3, MARCH_3));
+
+        counters.flush();
+        // Same day again merges into the stored row
+        counters.record(order(MARCH_3, OrderStatus.CREATED, alice, hub));
+        counters.flush();
+        assertEquals(2, jdbc.queryForObject("SELECT COUNT(*) FROM daily_distinct_sketch WHERE sales_date = ?", Integer.class, MARCH_3));
+
+        DistinctCounters restarted = new DistinctCounters(jdbc, tx, 7);
+        assertEquals(new DistinctCounters.Counts(2, 2), restarted.count(MARCH_3, MARCH_3.plusDays(1)));
+        assertEquals(new DistinctCounters.Counts(0, 0), restarted.count(MARCH_3.plusDays(2), MARCH_3.plusDays(9)));
+    }
+
+    @Test
+    void backfill_readsExistingOrders_andRepairAddsNothingTwice() {
+        LocalDate today = LocalDate.now();
+        for (int i = 0; i < 30; i++) {
+            UUID orderId = UUID.randomUUID();
+            jdbc.update("INSERT INTO orders (id, user_id, order_date, status) VALUES (?, ?, ?, 'CREATED')",
+                    orderId, new UUID(1, i), today.minusDays(i % 3).atTime(9, 0).atZone(ZoneId.systemDefault()).toOffsetDateTime());
+            jdbc.update("INSERT INTO order_items (id, order_id, product_id) VALUES (?, ?, ?)",
+                    UUID.randomUUID(), orderId, new UUID(0, i % 5));
+        }
+        DistinctCounters counters = new DistinctCounters(jdbc, tx, 7);
+        counters.backfillIfEmpty();
+        DistinctCounters.Counts backfilled = counters.count(today.minusDays(2), today);
+        assertEquals(30, backfilled.buyers(), 1);
+        assertEquals(5, backfilled.products());
+
+        counters.repairRecent();
+        assertEquals(backfilled, new DistinctCounters(jdbc, tx, 7).count(today.minusDays(2), today));
+    }
+}
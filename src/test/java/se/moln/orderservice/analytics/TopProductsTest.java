@@ -0,0 +1,152 @@
+package se.moln.orderservice.analytics;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.service.DailySalesRollup;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TopProductsTest {
+
+    private static final UUID HUB = UUID.randomUUID();
+    private static final UUID CABLE = UUID.randomUUID();
+
+    private final LocalDate today = LocalDate.now();
+    private DriverManagerDataSource ds;
+    private JdbcTemplate jdbc;
+
+    @BeforeEach
+    void setUp() {
+        ds = new DriverManagerDataSource("jdbc:h2:mem:top-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE daily_product_sales (sales_date DATE, status VARCHAR(32), product_id UUID, "
+                + "product_name VARCHAR(255), units_sold BIGINT, revenue NUMERIC(38,2), order_count BIGINT, "
+                + "PRIMARY KEY (sales_date, status, product_id))");
+    }
+
+    private static Order order(LocalDate date, OrderStatus status, UUID productId, String name, int qty) {
+        OrderItem item = new OrderItem();
+        item.setProductId(productId);
+        item.setProductName(name);
+        item.setQuantity(qty);
+        Order o = new Order();
+        o.setOrderDate(date.atTime(12, 0).atZone(ZoneId.systemDefault()).toOffsetDateTime());
+        o.setStatus(status);
+        o.setOrderItems(List.of(item));
+        return o;
+    }
+
+    @Test
+    void loadsRollupAndRecordsOrders_exactBelowCapacity() {
+        LocalDate monthAgo = today.minusMonths(1);
+        jdbc.update("INSERT INTO daily_product_sales VALUES (?, 'CREATED', ?, 'HDMI Cable', 5, 49.50, 2)", monthAgo, CABLE);
+        jdbc.update("INSERT INTO daily_product_sales VALUES (?, 'COMPLETED', ?, 'USB-C Hub', 90, 2250, 9)", monthAgo, HUB);
+        TopProducts top = new TopProducts(jdbc, 10, 256, 4, 62, 13);
+        top.load();
+        top.record(order(monthAgo, OrderStatus.CREATED, HUB, "USB-C Hub", 3));
+        top.record(order(monthAgo, OrderStatus.COMPLETED, HUB, "USB-C Hub", 50));
+
+        YearMonth ym = YearMonth.from(monthAgo);
+        TopProducts.Result month = top.top(ym.atDay(1), ym.atEndOfMonth(), 1);
+        assertEquals(8, month.totalUnits());
+        assertEquals(List.of(new TopProducts.Estimate(CABLE, "HDMI Cable", 5, 5, true)), month.products());
+
+        // The same day read through the day windows
+        TopProducts.Result day = top.top(monthAgo, monthAgo, 2);
+        assertEquals(List.of(CABLE, HUB), day.products().stream().map(TopProducts.Estimate::productId).toList());
+        assertEquals(3, day.products().get(1).unitsSold());
+    }
+
+    @Test
+    void findsHeavyHittersAmongManyProducts_withinBounds() {
+        TopProducts top = new TopProducts(jdbc, 100, 1024, 4, 62, 13);
+        Random random = new Random(3);
+        UUID[] heavy = {UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()};
+        long[] heavyUnits = new long[heavy.length];
+        LocalDate first = today.minusDays(20);
+        for (int i = 0; i < 30_000; i++) {
+            LocalDate date = first.plusDays(random.nextInt(21));
+            if (i % 10 == 0) {
+                int h = (i / 10) % heavy.length;
+                top.record(order(date, OrderStatus.CREATED, heavy[h], "Heavy " + h, h + 1));
+                heavyUnits[h] += h + 1;
+            } else {
+                top.record(order(date, OrderStatus.CREATED, UUID.randomUUID(), "Tail", 1));
+            }
+        }
+
+        // Twenty-one day windows merged
+        TopProducts.Result result = top.top(first, today, 3);
+        assertEquals(List.of(heavy[2], heavy[1], heavy[0]),
+                result.products().stream().map(TopProducts.Estimate::productId).toList());
+        for (TopProducts.Estimate e : result.products()) {
+            int h = List.of(heavy).indexOf(e.productId());
+            assertTrue(e.minUnitsSold() <= heavyUnits[h] && heavyUnits[h] <= e.unitsSold(), e.toString());
+            assertTrue(e.unitsSold() - heavyUnits[h] <= result.sketchErrorBound(), e.toString());
+            assertTrue(e.guaranteed());
+        }
+    }
+
+    @Test
+    void rejectsBadKAndRangesOutsideRetention() {
+        TopProducts top = new TopProducts(jdbc, 10, 256, 4, 7, 2);
+        assertThrows(ResponseStatusException.class, () -> top.top(today, today, 0));
+        assertThrows(ResponseStatusException.class, () -> top.top(today, today, 11));
+        assertThrows(ResponseStatusException.class, () -> top.top(today, today.minusDays(1), 5));
+        LocalDate old = today.minusDays(40);
+        assertThrows(ResponseStatusException.class, () -> top.top(old, old, 5));
+        // Last month as a whole is still kept
+        YearMonth previous = YearMonth.from(today).minusMonths(1);
+        assertEquals(0, top.top(previous.atDay(1), previous.atEndOfMonth(), 5).totalUnits());
+    }
+
+    @Test
+    void startup_loadsWhatTheRollupBackfillWrote_andReloadsAfterTheNightlyRebuild() {
+        jdbc.execute("CREATE TABLE orders (id UUID PRIMARY KEY, order_date TIMESTAMP WITH TIME ZONE, status VARCHAR(32))");
+        jdbc.execute("CREATE TABLE order_items (id UUID PRIMARY KEY, order_id UUID, product_id UUID, product_name VARCHAR(255), "
+                + "quantity INT, price_at_purchase NUMERIC(38,2))");
+        insertOrder(today.minusDays(1), HUB, "USB-C Hub", 4);
+
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext()) {
+            context.registerBean(DailySalesRollup.class, () -> new DailySalesRollup(jdbc,
+                    new TransactionTemplate(new DataSourceTransactionManager(ds)), 7, context));
+            context.registerBean(TopProducts.class, () -> new TopProducts(jdbc, 10, 256, 4, 62, 13));
+            context.refresh();
+            TopProducts top = context.getBean(TopProducts.class);
+
+            context.publishEvent(new ApplicationReadyEvent(new SpringApplication(), new String[0], context, Duration.ZERO));
+            assertEquals(4, top.top(today.minusDays(1), today, 1).totalUnits());
+
+            // Written straight to the tables, as by another instance; only the rebuild brings it in
+            insertOrder(today, CABLE, "HDMI Cable", 2);
+            context.getBean(DailySalesRollup.class).rebuildRecent();
+            assertEquals(6, top.top(today.minusDays(1), today, 2).totalUnits());
+        }
+    }
+
+    private void insertOrder(LocalDate date, UUID productId, String name, int qty) {
+        UUID orderId = UUID.randomUUID();
+        jdbc.update("INSERT INTO orders VALUES (?, ?, 'CREATED')", orderId,
+                date.atTime(12, 0).atZone(ZoneId.systemDefault()).toOffsetDateTime());
+        jdbc.update("INSERT INTO order_items VALUES (?, ?, ?, ?, ?, 10)", UUID.randomUUID(), orderId, productId, name, qty);
+    }
+}
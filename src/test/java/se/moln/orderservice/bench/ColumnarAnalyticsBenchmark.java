@@ -0,0 +1,156 @@
+package se.moln.orderservice.bench;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.analytics.ColumnarOrderItems;
+import se.moln.orderservice.model.id.UuidV7;
+import se.moln.orderservice.service.DailySalesRollup;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.IntFunction;
+
+/**
+ * Monthly KPIs at 1M and 10M order lines: aggregate SQL over order_items, the daily rollup queries
+ * the endpoint runs by default, and a scan of {@link ColumnarOrderItems}.
+ * Run with: mvn test -Dbench=true -Dtest=ColumnarAnalyticsBenchmark [-Dbench.items=1000000,10000000]
+ */
+@EnabledIfSystemProperty(named = "bench", matches = "true")
+class ColumnarAnalyticsBenchmark {
+
+    private static final int PRODUCTS = 1_000;
+    private static final int DAYS = 365;
+    private static final int ITEMS_PER_ORDER = 2;
+    private static final LocalDate FIRST_DAY = LocalDate.of(2024, 1, 1);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void monthlyKpis() throws Exception {
+        for (String n : System.getProperty("bench.items", "1000000,10000000").split(",")) {
+            run(Integer.parseInt(n.trim()));
+        }
+    }
+
+    private void run(int items) throws Exception {
+        String url = "jdbc:h2:file:" + dir.resolve("items-" + items).toAbsolutePath() + ";CACHE_SIZE=262144;OPTIMIZE_REUSE_RESULTS=FALSE";
+        SingleConnectionDataSource ds = new SingleConnectionDataSource(url, "sa", "", true);
+        try {
+            JdbcTemplate jdbc = new JdbcTemplate(ds);
+            long start = System.nanoTime();
+            populate(ds.getConnection(), items);
+            new DailySalesRollup(jdbc, new TransactionTemplate(new DataSourceTransactionManager(ds)), 7, event -> { }).rebuildAll();
+            System.out.printf("items=%,d populated in %.1fs%n", items, (System.nanoTime() - start) / 1e9);
+
+            // Each run asks for a different month of the year
+            time(items, "sql over order_items", m -> jdbc.queryForMap("""
+                    SELECT SUM(i.quantity), SUM(i.price_at_purchase * i.quantity)
+                      FROM orders o JOIN order_items i ON i.order_id = o.id
+                     WHERE o.status = 'CREATED' AND o.order_date >= ? AND o.order_date < ?""",
+                    from(m).atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime(),
+                    from(m).plusMonths(1).atStartOfDay(ZoneId.systemDefault()).toOffsetDateTime()), 5);
+            time(items, "daily rollup sql", m -> {
+                jdbc.queryForMap("""
+                        SELECT SUM(units_sold), SUM(revenue) FROM daily_product_sales
+                         WHERE status = 'CREATED' AND sales_date BETWEEN ? AND ?""", from(m), to(m));
+                return jdbc.queryForList("""
+                        SELECT product_id, SUM(units_sold) u FROM daily_product_sales
+                         WHERE status = 'CREATED' AND sales_date BETWEEN ? AND ?
+                         GROUP BY product_id ORDER BY u DESC LIMIT 1""", from(m), to(m));
+            }, 50);
+
+            ColumnarOrderItems columnar = new ColumnarOrderItems(jdbc);
+            long loadStart = System.nanoTime();
+            columnar.load();
+            System.out.printf("items=%,d columnar load %.1fs%n", items, (System.nanoTime() - loadStart) / 1e9);
+            time(items, "columnar scan", m -> columnar.kpis(from(m), to(m)), 200);
+        } finally {
+            ds.destroy();
+        }
+    }
+
+    private static LocalDate from(int run) {
+        return FIRST_DAY.plusMonths(run % 12);
+    }
+
+    private static LocalDate to(int run) {
+        return from(run).plusMonths(1).minusDays(1);
+    }
+
+    private static void time(int items, String label, IntFunction<Object> query, int runs) {
+        query.apply(runs);
+        long[] nanos = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            query.apply(i);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("items=%,-12d %-22s p50=%10.3fms min=%10.3fms%n", items, label, nanos[runs / 2] / 1e6, nanos[0] / 1e6);
+    }
+
+    private static void populate(Connection c, int items) throws SQLException {
+        c.setAutoCommit(false);
+        try (var st = c.createStatement()) {
+            st.execute("CREATE TABLE orders (id UUID PRIMARY KEY, order_date TIMESTAMP WITH TIME ZONE, status VARCHAR(32))");
+            st.execute("CREATE INDEX idx_orders_date ON orders (order_date)");
+            st.execute("CREATE TABLE order_items (id UUID PRIMARY KEY, order_id UUID, product_id UUID, product_name VARCHAR(255), "
+                    + "quantity INT, price_at_purchase NUMERIC(38,2))");
+            st.execute("CREATE INDEX idx_items_order ON order_items (order_id)");
+            st.execute("CREATE TABLE daily_product_sales (sales_date DATE, status VARCHAR(32), product_id UUID, "
+                    + "product_name VARCHAR(255), units_sold BIGINT, revenue NUMERIC(38,2), order_count BIGINT, "
+                    + "PRIMARY KEY (sales_date, status, product_id))");
+        }
+        UUID[] products = new UUID[PRODUCTS];
+        BigDecimal[] prices = new BigDecimal[PRODUCTS];
+        Random random = new Random(7);
+        for (int p = 0; p < PRODUCTS; p++) {
+            products[p] = UUID.randomUUID();
+            prices[p] = BigDecimal.valueOf(100 + random.nextInt(100_000), 2);
+        }
+        try (PreparedStatement order = c.prepareStatement("INSERT INTO orders VALUES (?, ?, 'CREATED')");
+             PreparedStatement item = c.prepareStatement("INSERT INTO order_items VALUES (?, ?, ?, ?, ?, ?)")) {
+            int orders = items / ITEMS_PER_ORDER;
+            for (int o = 0; o < orders; o++) {
+                UUID orderId = UuidV7.randomUuid();
+                LocalDate day = FIRST_DAY.plusDays((long) o * DAYS / orders);
+                order.setObject(1, orderId);
+                order.setObject(2, day.atTime(12, 0).atZone(ZoneId.systemDefault()).toOffsetDateTime());
+                order.addBatch();
+                for (int k = 0; k < ITEMS_PER_ORDER; k++) {
+                    int p = Math.min(PRODUCTS - 1, (int) Math.abs(random.nextGaussian() * PRODUCTS / 4));
+                    item.setObject(1, UuidV7.randomUuid());
+                    item.setObject(2, orderId);
+                    item.setObject(3, products[p]);
+                    item.setString(4, "Product " + p);
+                    item.setInt(5, 1 + random.nextInt(3));
+                    item.setBigDecimal(6, prices[p]);
+                    item.addBatch();
+                }
+                if (o % 5_000 == 4_999) {
+                    order.executeBatch();
+                    item.executeBatch();
+                    c.commit();
+                }
+            }
+            order.executeBatch();
+            item.executeBatch();
+            c.commit();
+        }
+        c.setAutoCommit(true);
+    }
+}
@@ -0,0 +1,147 @@
+package se.moln.orderservice.bench;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import se.moln.orderservice.model.id.UuidV7;
+import se.moln.orderservice.service.GroupCommit;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Orders committed per second into an H2 file database by concurrent writers: one transaction per
+ * order vs {@link GroupCommit}. Each order is one orders row plus two order_items rows.
+ * Run with: mvn test -Dbench=true -Dtest=GroupCommitBenchmark
+ */
+@EnabledIfSystemProperty(named = "bench", matches = "true")
+class GroupCommitBenchmark {
+
+    private static final int WRITERS = 64;
+    private static final int ORDERS_PER_WRITER = 500;
+
+    @TempDir
+    Path dir;
+
+    private record NewOrder(UUID id, UUID userId) { }
+
+    @Test
+    void commitsPerSecond() throws Exception {
+        run("per-order", false);
+        run("group", true);
+    }
+
+    private void run(String label, boolean grouped) throws Exception {
+        String url = "jdbc:h2:file:" + dir.resolve(label).toAbsolutePath() + ";LOCK_TIMEOUT=10000";
+        try (Connection setup = DriverManager.getConnection(url, "sa", "")) {
+            try (Statement st = setup.createStatement()) {
+                st.execute("CREATE TABLE orders (id UUID PRIMARY KEY, user_id UUID, total_amount DECIMAL(19,2))");
+                st.execute("CREATE TABLE order_items (id UUID PRIMARY KEY, order_id UUID, quantity INT)");
+            }
+        }
+        AtomicInteger transactions = new AtomicInteger();
+        ThreadLocal<Connection> connections = ThreadLocal.withInitial(() -> open(url));
+        List<Connection> opened = new ArrayList<>();
+
+        GroupCommit<NewOrder, UUID> groupCommit = grouped
+                ? new GroupCommit<>("bench-group-commit",
+                        batch -> { transactions.incrementAndGet(); return insert(track(connections.get(), opened), batch); },
+                        order -> { transactions.incrementAndGet(); return insert(track(connections.get(), opened), List.of(order)).get(0); },
+                        64, Duration.ofMillis(5), 1024)
+                : null;
+
+        long start = System.nanoTime();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < WRITERS; w++) {
+                futures.add(pool.submit(() -> {
+                    UUID user = UUID.randomUUID();
+                    for (int i = 0; i < ORDERS_PER_WRITER; i++) {
+                        NewOrder order = new NewOrder(UuidV7.randomUuid(), user);
+                        if (groupCommit != null) {
+                            groupCommit.submit(order);
+                        } else {
+                            transactions.incrementAndGet();
+                            insert(track(connections.get(), opened), List.of(order));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            if (groupCommit != null) {
+                groupCommit.close();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int orders = WRITERS * ORDERS_PER_WRITER;
+        System.out.printf("%-9s orders=%d  %8.0f orders/s  %8.0f commits/s  %6.1f orders/commit%n",
+                label, orders, orders / seconds, transactions.get() / seconds, orders / (double) transactions.get());
+        synchronized (opened) {
+            for (Connection c : opened) {
+                c.close();
+            }
+        }
+    }
+
+    private static Connection track(Connection c, List<Connection> opened) {
+        synchronized (opened) {
+            if (!opened.contains(c)) {
+                opened.add(c);
+            }
+        }
+        return c;
+    }
+
+    private static Connection open(String url) {
+        try {
+            Connection c = DriverManager.getConnection(url, "sa", "");
+            c.setAutoCommit(false);
+            return c;
+        } catch (SQLException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static List<UUID> insert(Connection c, List<NewOrder> orders) {
+        try (PreparedStatement o = c.prepareStatement("INSERT INTO orders VALUES (?, ?, 10.00)");
+             PreparedStatement i = c.prepareStatement("INSERT INTO order_items VALUES (?, ?, 1)")) {
+            for (NewOrder order : orders) {
+                o.setObject(1, order.id());
+                o.setObject(2, order.userId());
+                o.addBatch();
+                for (int n = 0; n < 2; n++) {
+                    i.setObject(1, UuidV7.randomUuid());
+                    i.setObject(2, order.id());
+                    i.addBatch();
+                }
+            }
+            o.executeBatch();
+            i.executeBatch();
+            c.commit();
+            return orders.stream().map(NewOrder::id).toList();
+        } catch (SQLException ex) {
+            try {
+                c.rollback();
+            } catch (SQLException ignore) {
+                // the original failure is what matters
+            }
+            throw new IllegalStateException(ex);
+        }
+    }
+}
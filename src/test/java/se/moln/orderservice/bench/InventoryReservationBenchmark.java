@@ -0,0 +1,56 @@
+package se.moln.orderservice.bench;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.web.client.RestTemplate;
+import se.moln.orderservice.dto.InventoryPurchaseRequest;
+import se.moln.orderservice.service.InventoryClient;
+import se.moln.orderservice.service.PurchaseLineExecutor;
+import se.moln.orderservice.support.ProductServiceStub;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Upstream calls and p99 latency per reservation, per-item vs batch, against the local stub.
+ * Run with: mvn test -Dbench=true -Dtest=InventoryReservationBenchmark
+ */
+@EnabledIfSystemProperty(named = "bench", matches = "true")
+class InventoryReservationBenchmark {
+
+    private static final int PURCHASES = 200;
+    private static final Duration UPSTREAM_LATENCY = Duration.ofMillis(2);
+
+    @Test
+    void reservePerItemVsBatch() {
+        for (int lines : new int[]{10, 50, 200}) {
+            run("per-item", false, lines);
+            run("batch", true, lines);
+        }
+    }
+
+    private static void run(String label, boolean batch, int lines) {
+        try (ProductServiceStub stub = ProductServiceStub.start(batch, UPSTREAM_LATENCY)) {
+            InventoryClient client = new InventoryClient(new RestTemplate(), stub.baseUrl(), batch, PurchaseLineExecutor.sequential());
+            List<InventoryPurchaseRequest> cart = IntStream.range(0, lines)
+                    .mapToObj(i -> new InventoryPurchaseRequest(UUID.randomUUID(), 1))
+                    .toList();
+            client.reserve(cart, "token", "warmup");
+            stub.resetCounts();
+
+            long[] nanos = new long[PURCHASES];
+            for (int i = 0; i < PURCHASES; i++) {
+                long start = System.nanoTime();
+                client.reserve(cart, "token", "bench-" + i);
+                nanos[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            System.out.printf("%-8s lines=%-4d calls/purchase=%-6.1f p50=%6.1fms p99=%6.1fms%n",
+                    label, lines, stub.totalCalls() / (double) PURCHASES,
+                    nanos[PURCHASES / 2] / 1e6, nanos[(int) (PURCHASES * 0.99)] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package se.moln.orderservice.bench;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import se.moln.orderservice.service.JwtService;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+/**
+ * Token validations per second, cache off vs on. Each simulated request validates the token and then
+ * reads the user id, like the purchase and analytics endpoints do.
+ * Run with: mvn test -Dbench=true -Dtest=JwtValidationBenchmark
+ */
+@EnabledIfSystemProperty(named = "bench", matches = "true")
+class JwtValidationBenchmark {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+    private static final int USERS = 1_000;
+    private static final int REQUESTS = 1_000_000;
+
+    @Test
+    void validationsPerSecond() {
+        List<String> tokens = IntStream.range(0, USERS)
+                .mapToObj(i -> Jwts.builder()
+                        .setSubject(UUID.randomUUID().toString())
+                        .setIssuer("user-service")
+                        .setExpiration(new Date(System.currentTimeMillis() + 3_600_000))
+                        .signWith(Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8)), SignatureAlgorithm.HS256)
+                        .compact())
+                .toList();
+
+        for (int round = 0; round < 2; round++) {
+            run("no-cache", new JwtService(SECRET, "user-service", 0, Duration.ofMinutes(15)), tokens, round == 1);
+            run("cache", new JwtService(SECRET, "user-service", 10_000, Duration.ofMinutes(15)), tokens, round == 1);
+        }
+    }
+
+    private static void run(String label, JwtService svc, List<String> tokens, boolean print) {
+        long sink = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            String token = tokens.get(i % tokens.size());
+            if (svc.isTokenValid(token)) {
+                sink += svc.extractUserId(token).getLeastSignificantBits();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        if (print) {
+            System.out.printf("%-8s %10.0f requests/s (%d lookups/request) [%d]%n", label, REQUESTS / seconds, 2, sink & 1);
+        }
+    }
+}
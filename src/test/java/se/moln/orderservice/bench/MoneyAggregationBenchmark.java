@@ -0,0 +1,80 @@
+package se.moln.orderservice.bench;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import se.moln.orderservice.model.Money;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.util.Random;
+
+/**
+ * Revenue over order lines (price times quantity, summed), as in the purchase total and the daily
+ * rollup: BigDecimal per line, {@link Money} per line, and minor units summed in a long. Reports lines per second and bytes allocated per line.
+ * Run with: mvn test -Dbench=true -Dtest=MoneyAggregationBenchmark
+ */
+@EnabledIfSystemProperty(named = "bench", matches = "true")
+class MoneyAggregationBenchmark {
+
+    private static final int LINES = 1_000_000;
+    private static final int ROUNDS = 20;
+
+    @Test
+    void revenueSum() {
+        Random random = new Random(7);
+        BigDecimal[] decimalPrices = new BigDecimal[LINES];
+        Money[] moneyPrices = new Money[LINES];
+        int[] quantities = new int[LINES];
+        for (int i = 0; i < LINES; i++) {
+            decimalPrices[i] = BigDecimal.valueOf(100 + random.nextInt(100_000), 2);
+            moneyPrices[i] = Money.of(decimalPrices[i]);
+            quantities[i] = 1 + random.nextInt(3);
+        }
+
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;
+            run("BigDecimal", print, () -> {
+                BigDecimal sum = BigDecimal.ZERO;
+                for (int i = 0; i < LINES; i++) {
+                    sum = sum.add(decimalPrices[i].multiply(BigDecimal.valueOf(quantities[i])));
+                }
+                return sum.unscaledValue().longValue();
+            });
+            run("Money", print, () -> {
+                Money sum = Money.ZERO;
+                for (int i = 0; i < LINES; i++) {
+                    sum = sum.plus(moneyPrices[i].times(quantities[i]));
+                }
+                return sum.minorUnits();
+            });
+            // How the analytics scans sum: minor units in a long, one Money at the end
+            run("Money/long", print, () -> {
+                long cents = 0;
+                for (int i = 0; i < LINES; i++) {
+                    cents = Math.addExact(cents, Math.multiplyExact(moneyPrices[i].minorUnits(), quantities[i]));
+                }
+                return Money.ofMinor(cents).minorUnits();
+            });
+        }
+    }
+
+    private interface Sum {
+        long run();
+    }
+
+    private static void run(String label, boolean print, Sum sum) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sink = 0;
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            sink += sum.run();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+        if (print) {
+            System.out.printf("%-10s %,14.0f lines/s %8.1f bytes/line [%d]%n",
+                    label, (double) LINES * ROUNDS / seconds, (double) allocated / LINES / ROUNDS, sink & 1);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package se.moln.orderservice.bench;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.model.Money;
+import se.moln.orderservice.model.MoneyConverter;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.service.DailySalesRollup;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes of 50-line orders into an H2 file database, counting the statements sent to the driver
+ * (executeUpdate/execute calls plus executeBatch calls):
+ * <ul>
+ *   <li>checkout: one order per transaction through Hibernate, JDBC batching off vs on;</li>
+ *   <li>import: 100 orders per transaction with flush/clear, batching off vs on;</li>
+ *   <li>rollup: {@link DailySalesRollup#record} for each order (JdbcTemplate).</li>
+ * </ul>
+ * Run with: mvn test -Dbench=true -Dtest=OrderBatchWriteBenchmark
+ */
+@EnabledIfSystemProperty(named = "bench", matches = "true")
+class OrderBatchWriteBenchmark {
+
+    private static final int LINES = 50;
+    private static final int CHECKOUT_ORDERS = 500;
+    private static final int IMPORT_ORDERS = 4_000;
+    private static final int IMPORT_CHUNK = 100;
+
+    @TempDir
+    Path dir;
+
+    private static final class Counts {
+        final LongAdder statements = new LongAdder();
+        final LongAdder batches = new LongAdder();
+
+        long total() {
+            return statements.sum() + batches.sum();
+        }
+
+        void reset() {
+            statements.reset();
+            batches.reset();
+        }
+    }
+
+    @Test
+    void statementsAndCommitTime() {
+        for (boolean batched : new boolean[]{false, true}) {
+            Counts counts = new Counts();
+            DataSource ds = counting(h2("hibernate-" + batched), counts);
+            try (SessionFactory sf = sessionFactory(ds, batched)) {
+                UUID[] products = products();
+                // Warm-up
+                for (int i = 0; i < 50; i++) {
+                    sf.inTransaction(s -> s.persist(order(products)));
+                }
+
+                counts.reset();
+                long start = System.nanoTime();
+                for (int i = 0; i < CHECKOUT_ORDERS; i++) {
+                    sf.inTransaction(s -> s.persist(order(products)));
+                }
+                report("checkout", batched ? "batched" : "unbatched", CHECKOUT_ORDERS, counts, System.nanoTime() - start, CHECKOUT_ORDERS);
+
+                counts.reset();
+                start = System.nanoTime();
+                for (int chunk = 0; chunk < IMPORT_ORDERS / IMPORT_CHUNK; chunk++) {
+                    sf.inTransaction(s -> {
+                        for (int i = 0; i < IMPORT_CHUNK; i++) {
+                            s.persist(order(products));
+                        }
+                        s.flush();
+                        s.clear();
+                    });
+                }
+                report("import", batched ? "batched" : "unbatched", IMPORT_ORDERS, counts, System.nanoTime() - start, IMPORT_ORDERS / IMPORT_CHUNK);
+            }
+        }
+
+        Counts counts = new Counts();
+        DataSource ds = counting(h2("rollup"), counts);
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+        jdbc.execute("CREATE TABLE daily_product_sales (sales_date DATE, status VARCHAR(32), product_id UUID, "
+                + "product_name VARCHAR(255), units_sold BIGINT, revenue NUMERIC(38,2), order_count BIGINT, "
+                + "PRIMARY KEY (sales_date, status, product_id))");
+        TransactionTemplate tx = new TransactionTemplate(new DataSourceTransactionManager(ds));
+        DailySalesRollup rollup = new DailySalesRollup(jdbc, tx, 7, event -> { });
+        UUID[] products = products();
+        for (int i = 0; i < 50; i++) {
+            Order order = order(products);
+            tx.executeWithoutResult(s -> rollup.record(List.of(order)));
+        }
+        counts.reset();
+        long start = System.nanoTime();
+        for (int i = 0; i < CHECKOUT_ORDERS; i++) {
+            Order order = order(products);
+            tx.executeWithoutResult(s -> rollup.record(List.of(order)));
+        }
+        report("rollup", "jdbc", CHECKOUT_ORDERS, counts, System.nanoTime() - start, CHECKOUT_ORDERS);
+    }
+
+    private static void report(String label, String variant, int orders, Counts counts, long nanos, int commits) {
+        System.out.printf("%-8s %-9s orders=%-5d statements/order=%6.1f (batches %5.1f)  %7.3f ms/commit  %9.0f lines/s%n",
+                label, variant, orders, counts.total() / (double) orders,
+                counts.batches.sum() / (double) orders, nanos / 1e6 / commits, orders * (double) LINES / (nanos / 1e9));
+    }
+
+    private DataSource h2(String name) {
+        JdbcDataSource ds = new JdbcDataSource();
+        // Kept open between connections; there is no pool
+        ds.setURL("jdbc:h2:file:" + dir.resolve(name).toAbsolutePath() + ";DB_CLOSE_DELAY=-1");
+        ds.setUser("sa");
+        return ds;
+    }
+
+    private static SessionFactory sessionFactory(DataSource ds, boolean batched) {
+        Configuration cfg = new Configuration()
+                .addAnnotatedClass(Order.class)
+                .addAnnotatedClass(OrderItem.class)
+                .addAnnotatedClass(MoneyConverter.class);
+        cfg.getProperties().put(AvailableSettings.JAKARTA_NON_JTA_DATASOURCE, ds);
+        cfg.setProperty(AvailableSettings.HBM2DDL_AUTO, "create");
+        cfg.setProperty(AvailableSettings.STATEMENT_BATCH_SIZE, batched ? "50" : "0");
+        cfg.setProperty(AvailableSettings.ORDER_INSERTS, String.valueOf(batched));
+        cfg.setProperty(AvailableSettings.ORDER_UPDATES, String.valueOf(batched));
+        return cfg.buildSessionFactory();
+    }
+
+    private static UUID[] products() {
+        UUID[] products = new UUID[LINES];
+        for (int i = 0; i < LINES; i++) {
+            products[i] = UUID.randomUUID();
+        }
+        return products;
+    }
+
+    private static Order order(UUID[] products) {
+        Order order = new Order();
+        order.setUserId(UUID.randomUUID());
+        order.setOrderNumber("ORD-" + UUID.randomUUID().toString().substring(0, 24));
+        order.setOrderDate(OffsetDateTime.now());
+        order.setStatus(OrderStatus.CREATED);
+        order.setTotalAmount(Money.ofMinor(LINES * 999L));
+        List<OrderItem> items = new ArrayList<>(LINES);
+        for (UUID productId : products) {
+            OrderItem item = new OrderItem();
+            item.setProductId(productId);
+            item.setProductName("Product");
+            item.setQuantity(1);
+            item.setPriceAtPurchase(Money.ofMinor(999));
+            item.setOrder(order);
+            items.add(item);
+        }
+        order.setOrderItems(items);
+        return order;
+    }
+
+    // Counts statement executions on every connection of the data source
+    private static DataSource counting(DataSource target, Counts counts) {
+        return proxy(DataSource.class, target, (result, method) ->
+                result instanceof Connection c ? proxy(Connection.class, c, (r, m) ->
+                        r instanceof PreparedStatement ps ? proxy(PreparedStatement.class, ps, counter(counts))
+                                : r instanceof Statement st ? proxy(Statement.class, st, counter(counts)) : r) : result);
+    }
+
+    private static ResultWrapper counter(Counts counts) {
+        return (result, method) -> {
+            switch (method) {
+                case "executeBatch", "executeLargeBatch" -> counts.batches.increment();
+                case "execute", "executeUpdate", "executeLargeUpdate" -> counts.statements.increment();
+                default -> { }
+            }
+            return result;
+        };
+    }
+
+    private interface ResultWrapper {
+        Object wrap(Object result, String method);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, T target, ResultWrapper wrapper) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (p, method, args) -> {
+            if (method.getName().equals("unwrap") || method.getName().equals("isWrapperFor")) {
+                return method.invoke(target, args);
+            }
+            try {
+                return wrapper.wrap(method.invoke(target, args), method.getName());
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        });
+    }
+}
@@ -0,0 +1,72 @@
+package se.moln.orderservice.bench;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import se.moln.orderservice.model.id.UuidV7;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Insert throughput and on-disk size of an H2 file table keyed by random v4 vs time-ordered v7 UUIDs.
+ * Run with: mvn test -Dbench=true -Dtest=PrimaryKeyInsertBenchmark [-Dbench.rows=5000000]
+ */
+@EnabledIfSystemProperty(named = "bench", matches = "true")
+class PrimaryKeyInsertBenchmark {
+
+    private static final int BATCH = 1_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void insertV4VsV7() throws Exception {
+        int rows = Integer.getInteger("bench.rows", 2_000_000);
+        run("v4", UUID::randomUUID, rows);
+        run("v7", UuidV7::randomUuid, rows);
+    }
+
+    private void run(String label, Supplier<UUID> ids, int rows) throws SQLException, IOException {
+        Path db = dir.resolve(label);
+        String url = "jdbc:h2:file:" + db.toAbsolutePath();
+        try (Connection c = DriverManager.getConnection(url, "sa", "")) {
+            try (Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE orders (id UUID PRIMARY KEY, user_id UUID, total_amount DECIMAL(19,2), order_date TIMESTAMP WITH TIME ZONE)");
+            }
+            c.setAutoCommit(false);
+            UUID user = UUID.randomUUID();
+            long start = System.nanoTime();
+            long slowestBatch = 0;
+            try (PreparedStatement ps = c.prepareStatement("INSERT INTO orders VALUES (?, ?, 10.00, CURRENT_TIMESTAMP)")) {
+                long batchStart = System.nanoTime();
+                for (int i = 1; i <= rows; i++) {
+                    ps.setObject(1, ids.get());
+                    ps.setObject(2, user);
+                    ps.addBatch();
+                    if (i % BATCH == 0 || i == rows) {
+                        ps.executeBatch();
+                        c.commit();
+                        long now = System.nanoTime();
+                        slowestBatch = Math.max(slowestBatch, now - batchStart);
+                        batchStart = now;
+                    }
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            try (Statement st = c.createStatement()) {
+                st.execute("CHECKPOINT SYNC");
+            }
+            System.out.printf("%s rows=%d  %8.0f rows/s  slowest batch=%6.1fms  file=%6.1fMB%n",
+                    label, rows, rows / seconds, slowestBatch / 1e6, Files.size(dir.resolve(label + ".mv.db")) / 1e6);
+        }
+    }
+}
@@ -1,139 +1,123 @@
 package se.moln.orderservice.controller;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.http.HttpStatus;
-import org.springframework.web.server.ResponseStatusException;
-import se.moln.orderservice.model.Order;
-import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.analytics.DistinctCounters;
+import se.moln.orderservice.analytics.TopProducts;
+import se.moln.orderservice.dto.MonthlyKpisResponse;
 import se.moln.orderservice.model.OrderStatus;
-import se.moln.orderservice.repository.OrderRepository;
-import se.moln.orderservice.service.JwtService;
+import se.moln.orderservice.repository.DailyProductSalesRepository;
+import se.moln.orderservice.repository.DailyProductSalesRepository.ProductTotals;
+import se.moln.orderservice.repository.DailyProductSalesRepository.SalesTotals;
+import se.moln.orderservice.security.AuthenticatedUser;
+import se.moln.orderservice.service.MonthlyKpisCache;
+import se.moln.orderservice.service.SalesTimeseries;
 
 import java.math.BigDecimal;
-import java.time.OffsetDateTime;
 import java.time.YearMonth;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class AnalyticsControllerTest {
 
+    private static final AuthenticatedUser USER = new AuthenticatedUser(UUID.randomUUID(), "token", null);
+
     @Mock
-    OrderRepository orders;
+    DailyProductSalesRepository dailySales;
 
     @Mock
-    JwtService jwtService;
-
-    @InjectMocks
-    AnalyticsController controller;
-
-    private static OrderItem item(UUID productId, String name, int qty, String price) {
-        OrderItem oi = new OrderItem();
-        oi.setProductId(productId);
-        oi.setProductName(name);
-        oi.setQuantity(qty);
-        oi.setPriceAtPurchase(new BigDecimal(price));
-        return oi;
-    }
+    SalesTimeseries timeseries;
 
-    private static Order order(OffsetDateTime when, BigDecimal total, OrderItem... items) {
-        Order o = new Order();
-        o.setId(UUID.randomUUID());
-        o.setOrderDate(when);
-        o.setStatus(OrderStatus.COMPLETED);
-        o.setTotalAmount(total);
-        // link items to order
-        for (OrderItem it : items) {
-            it.setOrder(o);
-        }
-        o.setOrderItems(List.of(items));
-        return o;
-    }
+    @Mock
+    TopProducts topProducts;
 
-    @Test
-    void monthlyKpis_throws401_whenMissingBearer() {
-        ResponseStatusException ex = assertThrows(ResponseStatusException.class, () ->
-                controller.monthlyKpis(null, null, null)
-        );
-        assertEquals(HttpStatus.UNAUTHORIZED, ex.getStatusCode());
-    }
+    @Mock
+    DistinctCounters distinctCounters;
 
-    @Test
-    void monthlyKpis_throws401_whenInvalidToken() {
-        when(jwtService.isTokenValid("invalid")).thenReturn(false);
-        ResponseStatusException ex = assertThrows(ResponseStatusException.class, () ->
-                controller.monthlyKpis(null, null, "Bearer invalid")
-        );
-        assertEquals(HttpStatus.UNAUTHORIZED, ex.getStatusCode());
+    @Mock
+    MonthlyKpisCache kpiCache;
+
+    private AnalyticsController controller;
+
+    @BeforeEach
+    void setUp() {
+        controller = new AnalyticsController(dailySales, timeseries, topProducts, distinctCounters, kpiCache, Optional.empty());
+        lenient().when(kpiCache.get(any(), any())).thenAnswer(inv -> inv.<Supplier<?>>getArgument(1).get());
     }
 
+    private record Totals(long getUnitsSold, BigDecimal getRevenue) implements SalesTotals { }
+
+    private record Product(UUID getProductId, String getProductName, long getUnitsSold, BigDecimal getRevenue)
+            implements ProductTotals { }
+
     @Test
     void monthlyKpis_returnsAggregatedStats_forCurrentMonth() {
-        when(jwtService.isTokenValid("valid")).thenReturn(true);
         YearMonth ym = YearMonth.now();
-        var offset = OffsetDateTime.now().getOffset();
-        OffsetDateTime d1 = ym.atDay(5).atStartOfDay().atOffset(offset);
-        OffsetDateTime d2 = ym.atDay(18).atStartOfDay().atOffset(offset);
-
         UUID p1 = UUID.randomUUID();
-        UUID p2 = UUID.randomUUID();
 
-        Order o1 = order(d1, new BigDecimal("100.00"),
-                item(p1, "USB-C Hub 8-in-1", 2, "25.00"),
-                item(p2, "HDMI Cable", 3, "10.00")
-        );
-        Order o2 = order(d2, new BigDecimal("59.99"),
-                item(p1, "USB-C Hub 8-in-1", 1, "25.00")
-        );
+        when(dailySales.totals(OrderStatus.CREATED, ym.atDay(1), ym.atEndOfMonth()))
+                .thenReturn(new Totals(6, new BigDecimal("105")));
+        when(dailySales.topProduct(OrderStatus.CREATED, ym.atDay(1), ym.atEndOfMonth()))
+                .thenReturn(Optional.of(new Product(p1, "USB-C Hub 8-in-1", 3, new BigDecimal("75.0"))));
 
-        when(orders.findByStatusAndOrderDateBetween(eq(OrderStatus.CREATED), any(), any()))
-                .thenReturn(List.of(o1, o2));
+        when(distinctCounters.count(ym.atDay(1), ym.atEndOfMonth())).thenReturn(new DistinctCounters.Counts(2, 1));
 
-        AnalyticsController.MonthlyKpisResponse resp = controller.monthlyKpis(null, null, "Bearer valid");
+        MonthlyKpisResponse resp = controller.monthlyKpis(USER, null, null);
 
         assertEquals(ym.toString(), resp.yearMonth());
-        assertEquals(6, resp.unitsSold()); // 2 + 3 + 1
-        assertEquals("159.99", resp.revenue()); // 100.00 + 59.99
+        assertEquals(6, resp.unitsSold());
+        assertEquals("105.00", resp.revenue().toString());
         assertNotNull(resp.topProduct());
-        // There is a tie on units (p1=3, p2=3). Verify reported units and that product is one of the tied ones.
+        assertEquals(p1, resp.topProduct().productId());
+        assertEquals("USB-C Hub 8-in-1", resp.topProduct().productName());
         assertEquals(3, resp.topProduct().unitsSold());
-        assertTrue(resp.topProduct().productId().equals(p1) || resp.topProduct().productId().equals(p2));
+        assertEquals("75.00", resp.topProduct().revenue().toString());
+        assertEquals(2, resp.uniqueBuyers());
+        assertEquals(1, resp.uniqueProducts());
     }
 
     @Test
-    void monthlyKpis_withSpecifiedYearMonth_andNullPricesHandled() {
-        when(jwtService.isTokenValid("valid")).thenReturn(true);
-        int year = 2024;
-        int month = 12;
-        var offset = OffsetDateTime.now().getOffset();
-        OffsetDateTime d = YearMonth.of(year, month).atDay(10).atStartOfDay().atOffset(offset);
+    void monthlyKpis_emptyMonth_hasZeroTotals_andNoTopProduct() {
+        YearMonth ym = YearMonth.of(2024, 12);
+        when(dailySales.totals(OrderStatus.CREATED, ym.atDay(1), ym.atEndOfMonth()))
+                .thenReturn(new Totals(0, BigDecimal.ZERO));
+        when(dailySales.topProduct(OrderStatus.CREATED, ym.atDay(1), ym.atEndOfMonth()))
+                .thenReturn(Optional.empty());
 
-        UUID p = UUID.randomUUID();
+        when(distinctCounters.count(ym.atDay(1), ym.atEndOfMonth())).thenReturn(new DistinctCounters.Counts(0, 0));
 
-        OrderItem it = item(p, "Widget", 5, "0");
-        it.setPriceAtPurchase(null); // ensure null price handled as zero
+        MonthlyKpisResponse resp = controller.monthlyKpis(USER, 2024, 12);
 
-        Order o = order(d, null, it); // totalAmount null -> treated as zero in revenue sum
+        assertEquals("2024-12", resp.yearMonth());
+        assertEquals(0, resp.unitsSold());
+        assertEquals("0.00", resp.revenue().toString());
+        assertNull(resp.topProduct());
+    }
 
-        when(orders.findByStatusAndOrderDateBetween(eq(OrderStatus.CREATED), any(), any()))
-                .thenReturn(List.of(o));
+    @Test
+    void topProducts_defaultsToCurrentMonth_andMapsBounds() {
+        YearMonth ym = YearMonth.now();
+        UUID p1 = UUID.randomUUID();
+        when(topProducts.top(ym.atDay(1), ym.atEndOfMonth(), 10)).thenReturn(new TopProducts.Result(
+                ym.atDay(1), ym.atEndOfMonth(), 120, 1, 0.98,
+                List.of(new TopProducts.Estimate(p1, "USB-C Hub 8-in-1", 42, 40, true))));
 
-        AnalyticsController.MonthlyKpisResponse resp = controller.monthlyKpis(year, month, "Bearer valid");
+        AnalyticsController.TopProductsResponse resp = controller.topProducts(USER, 10, null, null);
 
-        assertEquals("2024-12", resp.yearMonth());
-        assertEquals(5, resp.unitsSold());
-        assertEquals("0.00", resp.revenue());
-        assertNotNull(resp.topProduct());
-        assertEquals(p, resp.topProduct().productId());
-        assertEquals("0.00", resp.topProduct().revenue());
+        assertEquals(ym.atDay(1), resp.from());
+        assertEquals(120, resp.totalUnits());
+        assertEquals(1, resp.errorBound());
+        assertEquals(List.of(new AnalyticsController.TopProductEstimate(p1, "USB-C Hub 8-in-1", 42, 40, true)), resp.products());
     }
 }
@@ -3,9 +3,11 @@
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import se.moln.orderservice.dto.OrderHistoryDto;
+import se.moln.orderservice.dto.OrderHistoryPage;
 import se.moln.orderservice.dto.PurchaseRequest;
 import se.moln.orderservice.dto.PurchaseResponse;
 import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.security.AuthenticatedUser;
 import se.moln.orderservice.service.OrderService;
 
 import java.math.BigDecimal;
@@ -18,8 +20,12 @@ import static org.mockito.Mockito.*;
 
 class OrderControllerTest {
 
+    private static AuthenticatedUser user(String token) {
+        return new AuthenticatedUser(UUID.randomUUID(), token, null);
+    }
+
     @Test
-    void purchase_passesTokenAndBodyToService_andReturnsOkResponse() {
+    void purchase_passesPrincipalAndBodyToService_andReturnsOkResponse() {
         OrderService svc = mock(OrderService.class);
         OrderController ctrl = new OrderController(svc);
 
@@ -27,64 +33,43 @@ class OrderControllerTest {
         PurchaseRequest req = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(pid, 3)), null);
         PurchaseResponse expected = new PurchaseResponse(UUID.randomUUID(), "ORD-ABC12345", new BigDecimal("123.45"));
 
-        when(svc.purchaseProduct(any(PurchaseRequest.class), any())).thenReturn(expected);
+        AuthenticatedUser user = user("my.jwt.token");
+        when(svc.purchaseProduct(any(PurchaseRequest.class), any(AuthenticatedUser.class), any())).thenReturn(expected);
 
-        var respEntity = ctrl.purchase("Bearer my.jwt.token", req);
+        var respEntity = ctrl.purchase(user, "key-1", req);
         assertNotNull(respEntity);
         assertEquals(200, respEntity.getStatusCode().value());
         assertEquals(expected, respEntity.getBody());
 
         ArgumentCaptor<PurchaseRequest> reqCap = ArgumentCaptor.forClass(PurchaseRequest.class);
-        ArgumentCaptor<String> tokCap = ArgumentCaptor.forClass(String.class);
-        verify(svc).purchaseProduct(reqCap.capture(), tokCap.capture());
+        verify(svc).purchaseProduct(reqCap.capture(), same(user), eq("key-1"));
         PurchaseRequest captured = reqCap.getValue();
         assertNotNull(captured);
         assertEquals(1, captured.items().size());
         assertEquals(pid, captured.items().get(0).productId());
         assertEquals(3, captured.items().get(0).quantity());
-        assertEquals("my.jwt.token", tokCap.getValue());
     }
 
     @Test
-    void history_passesTokenAndPaging_andReturnsOkResponse() {
+    void history_passesPrincipalAndPaging_andSetsNextCursorHeader() {
         OrderService svc = mock(OrderService.class);
         OrderController ctrl = new OrderController(svc);
         List<OrderHistoryDto> data = List.of(new OrderHistoryDto(
                 UUID.randomUUID(), "ORD-1", new BigDecimal("10.00"), OrderStatus.CREATED,
                 OffsetDateTime.now(), List.of()
         ));
-        when(svc.getOrderHistory("tkn", 1, 5)).thenReturn(data);
+        AuthenticatedUser user = user("tkn");
+        when(svc.getOrderHistory(user, null, 1, 5)).thenReturn(new OrderHistoryPage(data, "abc"));
+        when(svc.getOrderHistory(user, "abc", 0, 5)).thenReturn(new OrderHistoryPage(List.of(), null));
 
-        var respEntity = ctrl.history("Bearer tkn", 1, 5);
+        var respEntity = ctrl.history(user, null, 1, 5);
         assertNotNull(respEntity);
         assertEquals(200, respEntity.getStatusCode().value());
         assertEquals(data, respEntity.getBody());
-    }
-
-    @Test
-    void history_missingBearerYieldsServiceError() {
-        OrderService svc = mock(OrderService.class);
-        OrderController ctrl = new OrderController(svc);
-        when(svc.getOrderHistory(null, 0, 10)).thenThrow(new IllegalArgumentException("Missing bearer token"));
-
-        assertThrows(IllegalArgumentException.class, () -> ctrl.history(null, 0, 10));
-    }
-
-    @Test
-    void purchase_withoutBearerPrefix_passesNullToken_andBubblesServiceError() {
-        OrderService svc = mock(OrderService.class);
-        OrderController ctrl = new OrderController(svc);
-        UUID pid = UUID.randomUUID();
-        PurchaseRequest req2 = new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(pid, 3)), null);
-        // When token is null, service is expected to error
-        when(svc.purchaseProduct(any(PurchaseRequest.class), isNull()))
-                .thenThrow(new IllegalArgumentException("Missing bearer token"));
+        assertEquals("abc", respEntity.getHeaders().getFirst("X-Next-Cursor"));
 
-        assertThrows(IllegalArgumentException.class, () -> ctrl.purchase("notbearer token", req2));
-        ArgumentCaptor<PurchaseRequest> reqCap2 = ArgumentCaptor.forClass(PurchaseRequest.class);
-        verify(svc).purchaseProduct(reqCap2.capture(), isNull());
-        assertEquals(1, reqCap2.getValue().items().size());
-        assertEquals(pid, reqCap2.getValue().items().get(0).productId());
-        assertEquals(3, reqCap2.getValue().items().get(0).quantity());
+        var last = ctrl.history(user, "abc", 0, 5);
+        assertEquals(List.of(), last.getBody());
+        assertFalse(last.getHeaders().containsKey("X-Next-Cursor"));
     }
 }
@@ -0,0 +1,97 @@
+package se.moln.orderservice.http;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import se.moln.orderservice.support.ProductServiceStub;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundHttpTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private ProductServiceStub stub;
+
+    @AfterEach
+    void tearDown() {
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    private OutboundHttp outboundHttp(int maxPerHost) {
+        MockEnvironment env = new MockEnvironment()
+                .withProperty("outbound.http.clients.product-service.read-timeout", "2s");
+        return new OutboundHttp(env, registry, Duration.ofSeconds(1), Duration.ofSeconds(5), HttpClient.Version.HTTP_1_1,
+                maxPerHost, Duration.ofMillis(50));
+    }
+
+    @Test
+    void route_replacesIdSegmentsWithPlaceholder() {
+        assertEquals("/api/products/{id}", OutboundHttp.route("/api/products/" + UUID.randomUUID()));
+        assertEquals("/api/inventory/{id}/purchase", OutboundHttp.route("/api/inventory/42/purchase"));
+        assertEquals("/api/users/me/entitlements", OutboundHttp.route("/api/users/me/entitlements"));
+    }
+
+    @Test
+    void readTimeout_isResolvedPerClient() {
+        OutboundHttp http = outboundHttp(4);
+        assertEquals(Duration.ofSeconds(2), http.readTimeout("product-service"));
+        assertEquals(Duration.ofSeconds(5), http.readTimeout("llm"));
+    }
+
+    @Test
+    void restTemplateAndJdkCalls_areTimedPerHostAndRoute() throws Exception {
+        stub = ProductServiceStub.start(true, Duration.ZERO);
+        OutboundHttp http = outboundHttp(4);
+        UUID id = UUID.randomUUID();
+
+        RestTemplate restTemplate = http.restTemplate("product-service");
+        restTemplate.getForObject(stub.baseUrl() + "/api/products/{id}", String.class, id);
+        HttpResponse<String> resp = http.send("user-service",
+                HttpRequest.newBuilder(URI.create(stub.baseUrl() + "/api/products/" + id)).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, resp.statusCode());
+        assertEquals(1, registry.get("outbound.http.requests")
+                .tag("client", "product-service").tag("route", "/api/products/{id}").tag("status", "200")
+                .timer().count());
+        assertEquals(1, registry.get("outbound.http.requests")
+                .tag("client", "user-service").tag("route", "/api/products/{id}")
+                .timer().count());
+    }
+
+    @Test
+    void requestsBeyondPerHostLimit_areRejected() throws Exception {
+        stub = ProductServiceStub.start(true, Duration.ofMillis(300));
+        OutboundHttp http = outboundHttp(1);
+        RestTemplate restTemplate = http.restTemplate("product-service");
+        String url = stub.baseUrl() + "/api/products/" + UUID.randomUUID();
+
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            pool.submit(() -> {
+                firstStarted.countDown();
+                return restTemplate.getForObject(url, String.class);
+            });
+            firstStarted.await();
+            Thread.sleep(50);
+            ResourceAccessException ex = assertThrows(ResourceAccessException.class, () -> restTemplate.getForObject(url, String.class));
+            assertInstanceOf(HostLimitExceededException.class, ex.getCause());
+        }
+        assertEquals(1.0, registry.get("outbound.http.rejected").counter().count());
+    }
+}
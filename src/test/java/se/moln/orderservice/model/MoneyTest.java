@@ -0,0 +1,50 @@
+package se.moln.orderservice.model;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import se.moln.orderservice.dto.ProductStat;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MoneyTest {
+
+    @Test
+    void arithmetic_isExactInMinorUnits() {
+        Money price = Money.parse("24.99");
+        assertEquals(2499, price.minorUnits());
+        assertEquals(Money.parse("49.98"), price.times(2));
+        assertEquals("74.97", Money.ZERO.plus(price).plus(price.times(2)).toString());
+        assertEquals(new BigDecimal("0.30"), Money.parse("0.1").plus(Money.parse("0.2")).toBigDecimal());
+        // Half-up to the minor unit, as the analytics responses did
+        assertEquals(13, Money.of(new BigDecimal("0.125")).minorUnits());
+
+        Money usd = Money.of(BigDecimal.ONE, Currency.getInstance("USD"));
+        assertThrows(IllegalArgumentException.class, () -> price.plus(usd));
+        assertThrows(ArithmeticException.class, () -> Money.ofMinor(Long.MAX_VALUE).times(2));
+    }
+
+    @Test
+    void converter_usesTheExistingDecimalColumn() {
+        MoneyConverter converter = new MoneyConverter();
+        assertEquals(new BigDecimal("24.99"), converter.convertToDatabaseColumn(Money.parse("24.99")));
+        assertEquals(Money.parse("24.99"), converter.convertToEntityAttribute(new BigDecimal("24.990")));
+        assertNull(converter.convertToDatabaseColumn(null));
+        assertThrows(IllegalArgumentException.class,
+                () -> converter.convertToDatabaseColumn(Money.of(BigDecimal.ONE, Currency.getInstance("EUR"))));
+    }
+
+    @Test
+    void json_isThePlainDecimalString() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        ProductStat stat = new ProductStat(new UUID(0, 1), "USB-C Hub", 3, Money.parse("75"));
+
+        String json = mapper.writeValueAsString(stat);
+
+        assertTrue(json.contains("\"revenue\":\"75.00\""), json);
+        assertEquals(stat, mapper.readValue(json, ProductStat.class));
+    }
+}
@@ -0,0 +1,43 @@
+package se.moln.orderservice.model.id;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UuidV7Test {
+
+    @Test
+    void randomUuid_hasVersion7AndIetfVariant_andCurrentTimestamp() {
+        long before = System.currentTimeMillis();
+        UUID id = UuidV7.randomUuid();
+        long after = System.currentTimeMillis();
+
+        assertEquals(7, id.version());
+        assertEquals(2, id.variant());
+        long ts = UuidV7.timestamp(id);
+        assertTrue(ts >= before && ts <= after + 1, "timestamp " + ts + " not in [" + before + ", " + after + "]");
+    }
+
+    @Test
+    void randomUuid_isStrictlyIncreasing_inUnsignedByteOrder() {
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            ids.add(UuidV7.randomUuid());
+        }
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(Long.compareUnsigned(ids.get(i - 1).getMostSignificantBits(), ids.get(i).getMostSignificantBits()) < 0,
+                    "ids out of order at " + i);
+        }
+        assertEquals(ids.size(), new HashSet<>(ids).size());
+    }
+
+    @Test
+    void timestamp_rejectsOtherVersions() {
+        assertThrows(IllegalArgumentException.class, () -> UuidV7.timestamp(UUID.randomUUID()));
+    }
+}
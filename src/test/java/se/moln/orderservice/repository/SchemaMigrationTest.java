@@ -0,0 +1,198 @@
+package se.moln.orderservice.repository;
+
+import org.flywaydb.core.Flyway;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.boot.model.naming.CamelCaseToUnderscoresNamingStrategy;
+import org.hibernate.cfg.Configuration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import se.moln.orderservice.model.DailyDistinctSketch;
+import se.moln.orderservice.model.DailyProductSales;
+import se.moln.orderservice.model.EntitlementGrant;
+import se.moln.orderservice.model.MoneyConverter;
+import se.moln.orderservice.model.MonthlyKpisSnapshot;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.Payment;
+import se.moln.orderservice.model.PurchaseSaga;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the migrations on an empty database and checks that the hot-path queries (the SQL of the
+ * repository and JdbcTemplate queries) are answered from their index instead of a table scan, and
+ * that a database created by ddl-auto before the migrations is upgraded to a schema the entities
+ * validate against.
+ */
+class SchemaMigrationTest {
+
+    private JdbcTemplate jdbc;
+
+    private static DataSource newDatabase() {
+        return new DriverManagerDataSource("jdbc:h2:mem:migrate-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    // As application.properties configures it
+    private static Flyway flyway(DataSource ds) {
+        return Flyway.configure().dataSource(ds).baselineOnMigrate(true).baselineVersion("1").load();
+    }
+
+    // ddl-auto=validate with Spring's column naming, as at startup
+    private static void validateEntities(DataSource ds) {
+        Configuration cfg = new Configuration();
+        cfg.setPhysicalNamingStrategy(new CamelCaseToUnderscoresNamingStrategy());
+        for (Class<?> type : List.of(Order.class, OrderItem.class, Payment.class, EntitlementGrant.class, PurchaseSaga.class,
+                DailyProductSales.class, DailyDistinctSketch.class, MonthlyKpisSnapshot.class, MoneyConverter.class)) {
+            cfg.addAnnotatedClass(type);
+        }
+        cfg.getProperties().put(AvailableSettings.JAKARTA_NON_JTA_DATASOURCE, ds);
+        cfg.setProperty(AvailableSettings.HBM2DDL_AUTO, "validate");
+        try (SessionFactory ignored = cfg.buildSessionFactory()) {
+            // built only if every mapped table and column exists with a matching type
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        DataSource ds = newDatabase();
+        flyway(ds).migrate();
+        jdbc = new JdbcTemplate(ds);
+
+        // Enough rows for the planner to prefer an index
+        OffsetDateTime start = OffsetDateTime.parse("2025-01-01T00:00:00Z");
+        List<Object[]> orders = new ArrayList<>();
+        List<Object[]> items = new ArrayList<>();
+        List<Object[]> payments = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            UUID orderId = UUID.randomUUID();
+            orders.add(new Object[]{orderId, new UUID(0, i % 200), "ORD-" + i, start.plusHours(i), i % 3 == 0 ? "COMPLETED" : "CREATED"});
+            items.add(new Object[]{UUID.randomUUID(), orderId, UUID.randomUUID()});
+            payments.add(new Object[]{UUID.randomUUID(), i % 2 == 0 ? "stripe" : "monero", "ref-" + i});
+        }
+        jdbc.batchUpdate("INSERT INTO orders (id, user_id, order_number, order_date, status) VALUES (?, ?, ?, ?, ?)", orders);
+        jdbc.batchUpdate("INSERT INTO order_items (id, order_id, product_id, quantity) VALUES (?, ?, ?, 1)", items);
+        jdbc.batchUpdate("INSERT INTO payments (id, provider, provider_ref, status, amount_fiat, currency_fiat) "
+                + "VALUES (?, ?, ?, 'PENDING', 100, 'SEK')", payments);
+        jdbc.execute("ANALYZE");
+    }
+
+    private String plan(String sql) {
+        return jdbc.queryForObject("EXPLAIN " + sql, String.class);
+    }
+
+    private static List<String> appliedVersions(JdbcTemplate jdbc) {
+        return jdbc.queryForList("SELECT \"version\" FROM \"flyway_schema_history\" WHERE \"version\" IS NOT NULL "
+                + "AND \"success\" ORDER BY \"installed_rank\"", String.class);
+    }
+
+    @Test
+    void migratesEmptyDatabase_andIsUpToDate() {
+        assertEquals(List.of("1", "2", "3", "4", "5"), appliedVersions(jdbc));
+        assertEquals(0, flyway(jdbc.getDataSource()).info().pending().length);
+        validateEntities(jdbc.getDataSource());
+    }
+
+    @Test
+    void upgradesDatabaseCreatedByDdlAuto_andKeepsItsOrders() {
+        DataSource ds = newDatabase();
+        JdbcTemplate legacy = new JdbcTemplate(ds);
+        // The committed dev database before migrations: no payments, order numbers or zoned dates yet
+        legacy.execute("CREATE TABLE orders (id UUID NOT NULL PRIMARY KEY, order_date TIMESTAMP(6), status VARCHAR(255), "
+                + "total_amount NUMERIC(38, 2), user_id UUID)");
+        legacy.execute("CREATE TABLE order_items (id UUID NOT NULL PRIMARY KEY, price_at_purchase NUMERIC(38, 2), "
+                + "product_id UUID, product_name VARCHAR(255), quantity INTEGER NOT NULL, order_id UUID)");
+        legacy.execute("ALTER TABLE order_items ADD CONSTRAINT fkbioxgbv59vetrxe0ejfubep1w FOREIGN KEY (order_id) REFERENCES orders (id)");
+        UUID orderId = UUID.randomUUID();
+        legacy.update("INSERT INTO orders VALUES (?, TIMESTAMP '2025-09-11 18:42:36', 'COMPLETED', 258.00, ?)", orderId, UUID.randomUUID());
+        legacy.update("INSERT INTO order_items VALUES (?, 129.00, ?, 'Kebabrulle', 2, ?)", UUID.randomUUID(), UUID.randomUUID(), orderId);
+
+        flyway(ds).migrate();
+
+        // Version 1 is the baseline the existing tables stand for; everything after it is applied
+        assertEquals(List.of("1", "2", "3", "4", "5"), appliedVersions(legacy));
+        validateEntities(ds);
+        assertEquals("COMPLETED", legacy.queryForObject("SELECT status FROM orders WHERE id = ?", String.class, orderId));
+        assertTrue(legacy.queryForObject("SELECT order_number FROM orders WHERE id = ?", String.class, orderId)
+                .matches("ORD-2509(11|12)-000000100"));
+        assertEquals(1, legacy.queryForObject("SELECT COUNT(*) FROM order_items WHERE order_id = ?", Integer.class, orderId));
+        assertEquals(0, legacy.queryForObject("SELECT COUNT(*) FROM payments", Integer.class));
+        assertEquals(List.of("ENUM", "TIMESTAMP WITH TIME ZONE"), legacy.queryForList("SELECT DATA_TYPE FROM INFORMATION_SCHEMA.COLUMNS "
+                + "WHERE TABLE_NAME = 'ORDERS' AND COLUMN_NAME IN ('ORDER_DATE', 'STATUS') ORDER BY COLUMN_NAME DESC", String.class));
+        // Read as local time of the JVM, the zone the application wrote it in
+        assertEquals(LocalDateTime.parse("2025-09-11T18:42:36").atZone(ZoneId.systemDefault()).toInstant(),
+                legacy.queryForObject("SELECT order_date FROM orders", OffsetDateTime.class).toInstant());
+    }
+
+    @Test
+    void orderNumbers_backfillMissingAndRepeatedNumbers_andKeepTheRest() {
+        DataSource ds = newDatabase();
+        // A database as the entities before the migrations left it: random numbers, some missing
+        Flyway.configure().dataSource(ds).target("1").load().migrate();
+        JdbcTemplate pre = new JdbcTemplate(ds);
+        UUID first = new UUID(0, 1);
+        UUID repeated = new UUID(0, 2);
+        UUID missing = new UUID(0, 3);
+        String insert = "INSERT INTO orders (id, order_number, order_date, status) "
+                + "VALUES (?, ?, TIMESTAMP WITH TIME ZONE '2025-09-11 10:00:00Z', 'CREATED')";
+        pre.update(insert, first, "ORD-1A2B3C4D");
+        pre.update(insert, repeated, "ORD-1A2B3C4D");
+        pre.update(insert, missing, null);
+
+        flyway(ds).migrate();
+
+        String sql = "SELECT order_number FROM orders WHERE id = ?";
+        assertEquals("ORD-1A2B3C4D", pre.queryForObject(sql, String.class, first));
+        assertEquals(List.of("ORD-250911-000000100", "ORD-250911-000000200"), List.of(
+                pre.queryForObject(sql, String.class, repeated), pre.queryForObject(sql, String.class, missing)).stream().sorted().toList());
+        // The generator's first block starts after the backfilled numbers
+        assertEquals(300, pre.queryForObject("SELECT NEXT VALUE FOR order_number_seq", Long.class));
+        assertThrows(DataIntegrityViolationException.class, () -> pre.update(insert, UUID.randomUUID(), "ORD-1A2B3C4D"));
+        assertThrows(DataIntegrityViolationException.class, () -> pre.update(insert, UUID.randomUUID(), null));
+    }
+
+    @Test
+    void historyPages_seekOnUserDateIndex() {
+        String offsetPage = plan("""
+                SELECT id FROM orders WHERE user_id = '00000000-0000-0000-0000-000000000007'
+                 ORDER BY order_date DESC, id DESC OFFSET 20 ROWS FETCH FIRST 20 ROWS ONLY""");
+        assertTrue(offsetPage.contains("IDX_ORDERS_USER_DATE"), offsetPage);
+
+        String keysetPage = plan("""
+                SELECT id FROM orders WHERE user_id = '00000000-0000-0000-0000-000000000007'
+                   AND (order_date < TIMESTAMP WITH TIME ZONE '2025-02-01 00:00:00Z'
+                        OR (order_date = TIMESTAMP WITH TIME ZONE '2025-02-01 00:00:00Z' AND id < '00000000-0000-0000-0000-000000000000'))
+                 ORDER BY order_date DESC, id DESC FETCH FIRST 20 ROWS ONLY""");
+        assertTrue(keysetPage.contains("IDX_ORDERS_USER_DATE"), keysetPage);
+    }
+
+    @Test
+    void analyticsScan_usesStatusDateIndex_andItemsByOrder() {
+        String scan = plan("""
+                SELECT o.order_date, i.quantity, i.price_at_purchase
+                  FROM orders o JOIN order_items i ON i.order_id = o.id
+                 WHERE o.status = 'CREATED'
+                   AND o.order_date >= TIMESTAMP WITH TIME ZONE '2025-01-10 00:00:00Z'
+                   AND o.order_date < TIMESTAMP WITH TIME ZONE '2025-01-11 00:00:00Z'""");
+        assertTrue(scan.contains("IDX_ORDERS_STATUS_DATE"), scan);
+        // H2 indexes foreign keys itself
+        assertTrue(scan.contains("FK_ORDER_ITEMS_ORDER_INDEX"), scan);
+    }
+
+    @Test
+    void paymentLookup_usesProviderRefIndex() {
+        String lookup = plan("SELECT id FROM payments WHERE provider = 'stripe' AND provider_ref = 'ref-42'");
+        assertTrue(lookup.contains("IDX_PAYMENTS_PROVIDER_REF"), lookup);
+    }
+}
@@ -0,0 +1,117 @@
+package se.moln.orderservice.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import se.moln.orderservice.service.JwtService;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtAuthenticationFilterTest {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+
+    private final JwtAuthenticationFilter filter = new JwtAuthenticationFilter(
+            new JwtService(SECRET, "user-service"),
+            new ObjectMapper(),
+            List.of("/api/orders/purchase", "/analytics/**"));
+
+    private static String token(UUID uid, Date exp) {
+        return Jwts.builder()
+                .setSubject("user@example.com")
+                .setIssuer("user-service")
+                .setExpiration(exp)
+                .claim("uid", uid.toString())
+                .signWith(Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8)), SignatureAlgorithm.HS256)
+                .compact();
+    }
+
+    private static MockHttpServletRequest request(String method, String path, String authorization) {
+        MockHttpServletRequest req = new MockHttpServletRequest(method, path);
+        if (authorization != null) {
+            req.addHeader("Authorization", authorization);
+        }
+        return req;
+    }
+
+    @Test
+    void validToken_setsPrincipal_andContinuesChain() throws Exception {
+        UUID uid = UUID.randomUUID();
+        String jwt = token(uid, new Date(System.currentTimeMillis() + 60_000));
+        MockHttpServletRequest req = request("POST", "/api/orders/purchase", "Bearer " + jwt);
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(req, new MockHttpServletResponse(), chain);
+
+        assertNotNull(chain.getRequest());
+        AuthenticatedUser user = (AuthenticatedUser) req.getAttribute(AuthenticatedUser.REQUEST_ATTRIBUTE);
+        assertEquals(uid, user.userId());
+        assertEquals(jwt, user.token());
+        assertEquals("user@example.com", user.claims().getSubject());
+    }
+
+    @Test
+    void missingToken_yields401_withoutCallingChain() throws Exception {
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request("GET", "/analytics/monthly-kpis", null), resp, chain);
+
+        assertEquals(401, resp.getStatus());
+        assertEquals("Bearer", resp.getHeader("WWW-Authenticate"));
+        assertTrue(resp.getContentAsString().contains("Missing Bearer token"));
+        assertNull(chain.getRequest());
+    }
+
+    @Test
+    void expiredToken_yields401() throws Exception {
+        String jwt = token(UUID.randomUUID(), new Date(System.currentTimeMillis() - 60_000));
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+
+        filter.doFilter(request("POST", "/api/orders/purchase", "Bearer " + jwt), resp, chain);
+
+        assertEquals(401, resp.getStatus());
+        assertTrue(resp.getContentAsString().contains("Invalid or expired token"));
+        assertNull(chain.getRequest());
+    }
+
+    @Test
+    void unprotectedPathAndPreflight_passThroughWithoutToken() throws Exception {
+        MockFilterChain publicChain = new MockFilterChain();
+        filter.doFilter(request("POST", "/api/orders/payments/confirm", null), new MockHttpServletResponse(), publicChain);
+        assertNotNull(publicChain.getRequest());
+
+        MockFilterChain preflightChain = new MockFilterChain();
+        filter.doFilter(request("OPTIONS", "/api/orders/purchase", null), new MockHttpServletResponse(), preflightChain);
+        assertNotNull(preflightChain.getRequest());
+    }
+
+    @Test
+    void encodedAndParameterisedPaths_areProtectedLikeTheRoutedPath() throws Exception {
+        // Spring MVC strips ;params and decodes before routing, so these reach the analytics handlers
+        for (String uri : List.of("/analytics;x=1/monthly-kpis", "/%61nalytics/monthly-kpis",
+                "/analytics;x/top-products", "/api/orders/purchase;jsessionid=1", "//analytics//timeseries",
+                "/api/orders/x/../purchase")) {
+            MockHttpServletRequest req = request("GET", "/", null);
+            req.setRequestURI(uri);
+            MockHttpServletResponse resp = new MockHttpServletResponse();
+            MockFilterChain chain = new MockFilterChain();
+
+            filter.doFilter(req, resp, chain);
+
+            assertEquals(401, resp.getStatus(), uri);
+            assertNull(chain.getRequest(), uri);
+        }
+    }
+}
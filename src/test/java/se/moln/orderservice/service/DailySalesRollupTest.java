@@ -0,0 +1,165 @@
+package se.moln.orderservice.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.model.Money;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DailySalesRollupTest {
+
+    private static final UUID HUB = UUID.randomUUID();
+    private static final UUID CABLE = UUID.randomUUID();
+
+    private JdbcTemplate jdbc;
+    private TransactionTemplate tx;
+    private DailySalesRollup rollup;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource ds = new DriverManagerDataSource(
+                "jdbc:h2:mem:rollup-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbc = new JdbcTemplate(ds);
+        tx = new TransactionTemplate(new DataSourceTransactionManager(ds));
+        // Same columns as the JPA mappings of Order, OrderItem and DailyProductSales
+        jdbc.execute("CREATE TABLE orders (id UUID PRIMARY KEY, order_date TIMESTAMP WITH TIME ZONE, status VARCHAR(32))");
+        jdbc.execute("CREATE TABLE order_items (id UUID PRIMARY KEY, order_id UUID, product_id UUID, product_name VARCHAR(255), "
+                + "quantity INT, price_at_purchase NUMERIC(38,2))");
+        jdbc.execute("CREATE TABLE daily_product_sales (sales_date DATE, status VARCHAR(32), product_id UUID, "
+                + "product_name VARCHAR(255), units_sold BIGINT, revenue NUMERIC(38,2), order_count BIGINT, "
+                + "PRIMARY KEY (sales_date, status, product_id))");
+        rollup = new DailySalesRollup(jdbc, tx, 7, event -> { });
+    }
+
+    private static OrderItem item(UUID productId, String name, int qty, String price) {
+        OrderItem oi = new OrderItem();
+        oi.setId(UUID.randomUUID());
+        oi.setProductId(productId);
+        oi.setProductName(name);
+        oi.setQuantity(qty);
+        oi.setPriceAtPurchase(Money.parse(price));
+        return oi;
+    }
+
+    private static Order order(OffsetDateTime when, OrderItem... items) {
+        Order o = new Order();
+        o.setId(UUID.randomUUID());
+        o.setOrderDate(when);
+        o.setStatus(OrderStatus.CREATED);
+        o.setOrderItems(List.of(items));
+        return o;
+    }
+
+    private void insert(Order o) {
+        jdbc.update("INSERT INTO orders (id, order_date, status) VALUES (?, ?, ?)", o.getId(), o.getOrderDate(), o.getStatus().name());
+        for (OrderItem i : o.getOrderItems()) {
+            jdbc.update("INSERT INTO order_items (id, order_id, product_id, product_name, quantity, price_at_purchase) VALUES (?, ?, ?, ?, ?, ?)",
+                    i.getId(), o.getId(), i.getProductId(), i.getProductName(), i.getQuantity(), i.getPriceAtPurchase().toBigDecimal());
+        }
+    }
+
+    private List<Map<String, Object>> rows() {
+        return jdbc.queryForList("SELECT sales_date, status, product_id, units_sold, revenue, order_count "
+                + "FROM daily_product_sales ORDER BY sales_date, product_id");
+    }
+
+    private Map<String, Object> row(LocalDate day, UUID productId) {
+        return jdbc.queryForMap("SELECT units_sold, revenue, order_count FROM daily_product_sales "
+                + "WHERE sales_date = ? AND status = 'CREATED' AND product_id = ?", day, productId);
+    }
+
+    @Test
+    void record_addsToExistingRows_andCountsOrdersOncePerProduct() {
+        OffsetDateTime now = OffsetDateTime.now();
+        LocalDate today = now.atZoneSameInstant(ZoneId.systemDefault()).toLocalDate();
+
+        tx.executeWithoutResult(s -> rollup.record(List.of(
+                order(now, item(HUB, "USB-C Hub", 2, "25.00"), item(HUB, "USB-C Hub", 1, "25.00")),
+                order(now, item(CABLE, "HDMI Cable", 3, "10.00")))));
+        tx.executeWithoutResult(s -> rollup.record(List.of(order(now, item(HUB, "USB-C Hub", 1, "25.00")))));
+
+        Map<String, Object> hub = row(today, HUB);
+        assertEquals(4L, ((Number) hub.get("UNITS_SOLD")).longValue());
+        assertEquals(0, new BigDecimal("100.00").compareTo((BigDecimal) hub.get("REVENUE")));
+        assertEquals(2L, ((Number) hub.get("ORDER_COUNT")).longValue());
+        assertEquals(3L, ((Number) row(today, CABLE).get("UNITS_SOLD")).longValue());
+    }
+
+    @Test
+    void record_batchInsertCollision_addsToTheConcurrentRowOnce() {
+        OffsetDateTime now = OffsetDateTime.now();
+        LocalDate today = now.atZoneSameInstant(ZoneId.systemDefault()).toLocalDate();
+        UUID mouse = UUID.randomUUID();
+        // Another purchase creates the CABLE row between our UPDATE and INSERT batches
+        JdbcTemplate racing = new JdbcTemplate(jdbc.getDataSource()) {
+            @Override
+            public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+                if (sql.contains("INSERT")) {
+                    jdbc.update("INSERT INTO daily_product_sales VALUES (?, 'CREATED', ?, 'HDMI Cable', 5, 50.00, 1)", today, CABLE);
+                }
+                return super.batchUpdate(sql, batchArgs);
+            }
+        };
+        DailySalesRollup rollup = new DailySalesRollup(racing, tx, 7, event -> { });
+
+        rollup.record(List.of(order(now, item(HUB, "USB-C Hub", 1, "25.00"), item(CABLE, "HDMI Cable", 3, "10.00"),
+                item(mouse, "Mouse", 2, "15.00"))));
+
+        assertEquals(3, rows().size());
+        assertEquals(1L, ((Number) row(today, HUB).get("UNITS_SOLD")).longValue());
+        assertEquals(8L, ((Number) row(today, CABLE).get("UNITS_SOLD")).longValue());
+        assertEquals(2L, ((Number) row(today, CABLE).get("ORDER_COUNT")).longValue());
+        assertEquals(2L, ((Number) row(today, mouse).get("UNITS_SOLD")).longValue());
+    }
+
+    @Test
+    void record_rollsBackWithTheTransaction() {
+        assertThrows(IllegalStateException.class, () -> tx.executeWithoutResult(s -> {
+            rollup.record(List.of(order(OffsetDateTime.now(), item(HUB, "USB-C Hub", 1, "25.00"))));
+            throw new IllegalStateException("order save failed");
+        }));
+
+        assertTrue(rows().isEmpty());
+    }
+
+    @Test
+    void rebuild_matchesIncrementalRollup_andBackfillsEmptyTable() {
+        OffsetDateTime now = OffsetDateTime.now();
+        List<Order> orders = new ArrayList<>();
+        for (int d = 0; d < 5; d++) {
+            orders.add(order(now.minusDays(d), item(HUB, "USB-C Hub", 1 + d, "25.00"), item(CABLE, "HDMI Cable", 2, "9.90")));
+            orders.add(order(now.minusDays(d), item(HUB, "USB-C Hub", 1, "25.00")));
+        }
+        orders.forEach(this::insert);
+        tx.executeWithoutResult(s -> rollup.record(orders));
+        List<Map<String, Object>> incremental = rows();
+
+        jdbc.update("UPDATE daily_product_sales SET units_sold = 0");
+        LocalDate today = now.atZoneSameInstant(ZoneId.systemDefault()).toLocalDate();
+        assertEquals(4, rollup.rebuild(today.minusDays(1), today));
+        assertEquals(incremental.subList(6, 10), rows().subList(6, 10));
+
+        assertEquals(10, rollup.rebuildAll());
+        assertEquals(incremental, rows());
+
+        jdbc.update("DELETE FROM daily_product_sales");
+        rollup.backfillIfEmpty();
+        assertEquals(incremental, rows());
+    }
+}
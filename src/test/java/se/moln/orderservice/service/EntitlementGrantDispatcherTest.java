@@ -0,0 +1,147 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.moln.orderservice.model.EntitlementGrant;
+import se.moln.orderservice.model.OutboxStatus;
+import se.moln.orderservice.repository.EntitlementGrantRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The dispatcher against the real outbox table, so claims and merges run as they do in production.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EntitlementGrantDispatcherTest {
+
+    @Autowired
+    EntitlementGrantRepository grantRepository;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    private EntitlementClient entitlementClient;
+    private EntitlementGrantDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        grantRepository.deleteAllInBatch();
+        entitlementClient = mock(EntitlementClient.class);
+        dispatcher = dispatcher();
+    }
+
+    private EntitlementGrantDispatcher dispatcher() {
+        return new EntitlementGrantDispatcher(grantRepository, entitlementClient, new TransactionTemplate(transactionManager),
+                true, 100, 3, Duration.ofSeconds(2), Duration.ofSeconds(30), Duration.ofMinutes(1), new SimpleMeterRegistry());
+    }
+
+    private EntitlementGrant grant(UUID userId, String sku, int qty, String token, Instant createdAt) {
+        EntitlementGrant row = grantRepository.save(EntitlementGrant.builder()
+                .orderId(UUID.randomUUID())
+                .userId(userId)
+                .sku(sku)
+                .quantity(qty)
+                .bearerToken(token)
+                .status(OutboxStatus.PENDING)
+                .nextAttemptAt(createdAt)
+                .build());
+        row.setCreatedAt(createdAt);
+        return grantRepository.save(row);
+    }
+
+    @Test
+    void drain_mergesGrantsForSameUserAndSku_intoOneCall_withNewestToken() {
+        UUID alice = UUID.randomUUID();
+        UUID bob = UUID.randomUUID();
+        Instant t0 = Instant.now().minusSeconds(60);
+        EntitlementGrant aliceOld = grant(alice, "HOROSCOPE_PDF", 1, "old", t0);
+        EntitlementGrant bobs = grant(bob, "HOROSCOPE_PDF", 2, "bob", t0.plusSeconds(1));
+        grant(alice, "HOROSCOPE_PDF", 3, "new", t0.plusSeconds(2));
+
+        assertEquals(3, dispatcher.drain());
+
+        // The merged call is keyed by the row that is kept, the oldest
+        verify(entitlementClient).grantEntitlement("Bearer new", "HOROSCOPE_PDF", 4, aliceOld.getId().toString());
+        verify(entitlementClient).grantEntitlement("Bearer bob", "HOROSCOPE_PDF", 2, bobs.getId().toString());
+        verifyNoMoreInteractions(entitlementClient);
+        assertEquals(0, grantRepository.count());
+    }
+
+    @Test
+    void drain_failedGrant_isRescheduledWithBackoff_andFailsAfterMaxAttempts() {
+        EntitlementGrant retry = grant(UUID.randomUUID(), "HOROSCOPE_PDF", 1, "t", Instant.now());
+        EntitlementGrant lastTry = grant(UUID.randomUUID(), "HOROSCOPE_PDF", 1, "u", Instant.now());
+        lastTry.setAttempts(2);
+        grantRepository.save(lastTry);
+        doThrow(new RuntimeException("Grant entitlement error", new RuntimeException("503")))
+                .when(entitlementClient).grantEntitlement(anyString(), anyString(), anyInt(), anyString());
+
+        Instant before = Instant.now();
+        assertEquals(0, dispatcher.drain());
+
+        EntitlementGrant retried = grantRepository.findById(retry.getId()).orElseThrow();
+        assertEquals(OutboxStatus.PENDING, retried.getStatus());
+        assertEquals(1, retried.getAttempts());
+        assertEquals("503", retried.getLastError());
+        assertFalse(retried.getNextAttemptAt().isBefore(before.plusSeconds(2)));
+        assertNull(retried.getClaimId());
+        EntitlementGrant failed = grantRepository.findById(lastTry.getId()).orElseThrow();
+        assertEquals(OutboxStatus.FAILED, failed.getStatus());
+        assertNull(failed.getBearerToken());
+    }
+
+    @Test
+    void drain_rowSentBefore_keepsItsIdempotencyKey_andIsNotMergedWithNewRows() {
+        UUID user = UUID.randomUUID();
+        EntitlementGrant sent = grant(user, "HOROSCOPE_PDF", 1, "t", Instant.now().minusSeconds(60));
+        // Claimed by a dispatcher that died before deleting it; its lease has passed
+        grantRepository.claim(List.of(sent.getId()), UUID.randomUUID(), Instant.now(), Instant.now().minusSeconds(1));
+        EntitlementGrant fresh = grant(user, "HOROSCOPE_PDF", 2, "t2", Instant.now().minusSeconds(30));
+
+        assertEquals(2, dispatcher.drain());
+
+        verify(entitlementClient).grantEntitlement("Bearer t", "HOROSCOPE_PDF", 1, sent.getId().toString());
+        verify(entitlementClient).grantEntitlement("Bearer t2", "HOROSCOPE_PDF", 2, fresh.getId().toString());
+        verifyNoMoreInteractions(entitlementClient);
+    }
+
+    @Test
+    void drain_rowsClaimedByAnotherDispatcher_areNotDeliveredTwice() {
+        grant(UUID.randomUUID(), "HOROSCOPE_PDF", 1, "t", Instant.now().minusSeconds(1));
+        EntitlementGrantDispatcher other = dispatcher();
+        AtomicInteger deliveredByOther = new AtomicInteger(-1);
+        doAnswer(inv -> {
+            deliveredByOther.compareAndSet(-1, other.drain());
+            return null;
+        }).when(entitlementClient).grantEntitlement(anyString(), anyString(), anyInt(), anyString());
+
+        assertEquals(1, dispatcher.drain());
+
+        assertEquals(0, deliveredByOther.get());
+        verify(entitlementClient, times(1)).grantEntitlement(anyString(), anyString(), anyInt(), anyString());
+        assertEquals(0, grantRepository.count());
+    }
+
+    @Test
+    void backoff_doublesUpToMax() {
+        assertEquals(Duration.ofSeconds(2), dispatcher.backoff(1));
+        assertEquals(Duration.ofSeconds(8), dispatcher.backoff(3));
+        assertEquals(Duration.ofSeconds(30), dispatcher.backoff(9));
+    }
+}
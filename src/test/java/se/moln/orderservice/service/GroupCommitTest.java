@@ -0,0 +1,96 @@
+package se.moln.orderservice.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitTest {
+
+    private final List<List<Integer>> batches = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> singles = Collections.synchronizedList(new ArrayList<>());
+    private GroupCommit<Integer, String> groupCommit;
+
+    @AfterEach
+    void tearDown() {
+        if (groupCommit != null) {
+            groupCommit.close();
+        }
+    }
+
+    private List<String> writeBatch(List<Integer> items) {
+        if (items.contains(-1)) {
+            throw new IllegalStateException("constraint violation");
+        }
+        batches.add(items);
+        return items.stream().map(i -> "saved-" + i).toList();
+    }
+
+    private String writeSingle(Integer item) {
+        if (item == -1) {
+            throw new IllegalStateException("constraint violation");
+        }
+        singles.add(item);
+        return "saved-" + item;
+    }
+
+    @Test
+    void concurrentSubmits_areWrittenInFewBatches_andEachCallerGetsItsOwnResult() throws Exception {
+        groupCommit = new GroupCommit<>("test-group-commit", this::writeBatch, this::writeSingle, 16, Duration.ofMillis(50), 256);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<String>> results = new ArrayList<>();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 32; i++) {
+                int item = i;
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return groupCommit.submit(item);
+                }));
+            }
+            start.countDown();
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("saved-" + i, results.get(i).get());
+            }
+        }
+        assertTrue(batches.size() < 32, "expected coalescing, got " + batches.size() + " batches");
+        assertTrue(batches.stream().allMatch(b -> b.size() <= 16));
+        assertTrue(singles.isEmpty());
+    }
+
+    @Test
+    void submit_waitsAtMostMaxWait_whenAlone() {
+        groupCommit = new GroupCommit<>("test-group-commit", this::writeBatch, this::writeSingle, 64, Duration.ofMillis(20), 256);
+
+        long start = System.nanoTime();
+        assertEquals("saved-1", groupCommit.submit(1));
+        long millis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        assertTrue(millis < 500, "took " + millis + "ms");
+        assertEquals(List.of(List.of(1)), batches);
+    }
+
+    @Test
+    void failingBatch_isRetriedOneByOne_soOnlyTheBadItemFails() throws Exception {
+        groupCommit = new GroupCommit<>("test-group-commit", this::writeBatch, this::writeSingle, 8, Duration.ofMillis(100), 256);
+
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> good = pool.submit(() -> groupCommit.submit(7));
+            Future<String> bad = pool.submit(() -> groupCommit.submit(-1));
+
+            assertEquals("saved-7", good.get());
+            var ex = assertThrows(java.util.concurrent.ExecutionException.class, bad::get);
+            assertInstanceOf(IllegalStateException.class, ex.getCause());
+        }
+        assertTrue(singles.contains(7));
+    }
+}
@@ -0,0 +1,103 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyStoreTest {
+
+    private final UUID user = UUID.randomUUID();
+
+    private static IdempotencyStore store(Duration ttl) {
+        return new IdempotencyStore(true, ttl, Duration.ofSeconds(5), 100, new SimpleMeterRegistry());
+    }
+
+    @Test
+    void completedKey_isReplayed_withoutRunningAgain() {
+        IdempotencyStore store = store(Duration.ofHours(1));
+        AtomicInteger runs = new AtomicInteger();
+
+        String first = store.execute(user, "k1", "body", () -> "order-" + runs.incrementAndGet());
+        String second = store.execute(user, "k1", "body", () -> "order-" + runs.incrementAndGet());
+
+        assertEquals("order-1", first);
+        assertEquals("order-1", second);
+        assertEquals(1, runs.get());
+        // keys are per user
+        assertEquals("order-2", store.execute(UUID.randomUUID(), "k1", "body", () -> "order-" + runs.incrementAndGet()));
+    }
+
+    @Test
+    void concurrentDuplicates_waitForTheRunningAttempt() throws Exception {
+        IdempotencyStore store = store(Duration.ofHours(1));
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> first = pool.submit(() -> store.execute(user, "k1", "body", () -> {
+                runs.incrementAndGet();
+                running.countDown();
+                await(release);
+                return "order-1";
+            }));
+            running.await();
+            List<Future<String>> duplicates = List.of(
+                    pool.submit(() -> store.execute(user, "k1", "body", () -> "order-" + runs.incrementAndGet())),
+                    pool.submit(() -> store.execute(user, "k1", "body", () -> "order-" + runs.incrementAndGet())));
+            Thread.sleep(50);
+            release.countDown();
+
+            assertEquals("order-1", first.get());
+            for (Future<String> duplicate : duplicates) {
+                assertEquals("order-1", duplicate.get());
+            }
+        }
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void keyReusedForDifferentRequest_isRejected() {
+        IdempotencyStore store = store(Duration.ofHours(1));
+        store.execute(user, "k1", "body", () -> "order-1");
+
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> store.execute(user, "k1", "other body", () -> "order-2"));
+        assertEquals(HttpStatus.UNPROCESSABLE_ENTITY, ex.getStatusCode());
+    }
+
+    @Test
+    void failedAttempt_isNotStored_andExpiredKeysRunAgain() throws Exception {
+        IdempotencyStore store = store(Duration.ofMillis(20));
+
+        assertThrows(IllegalStateException.class,
+                () -> store.execute(user, "k1", "body", () -> { throw new IllegalStateException("boom"); }));
+        assertEquals("order-1", store.execute(user, "k1", "body", () -> "order-1"));
+
+        Thread.sleep(40);
+        assertEquals("order-2", store.execute(user, "k1", "body", () -> "order-2"));
+        Thread.sleep(40);
+        store.purgeExpired();
+        assertEquals(0, store.size());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.RestTemplate;
+import se.moln.orderservice.dto.InventoryPurchaseRequest;
+import se.moln.orderservice.http.OutboundHttp;
+import se.moln.orderservice.support.ProductServiceStub;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InventoryClientTest {
+
+    private ProductServiceStub stub;
+
+    @AfterEach
+    void tearDown() {
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    private static List<InventoryPurchaseRequest> cart(int lines) {
+        return IntStream.range(0, lines)
+                .mapToObj(i -> new InventoryPurchaseRequest(UUID.randomUUID(), 1 + i % 3))
+                .toList();
+    }
+
+    @Test
+    void reserve_sendsWholeCartInOneCall_whenBatchIsSupported() {
+        stub = ProductServiceStub.start(true, Duration.ZERO);
+        InventoryClient client = new InventoryClient(new RestTemplate(), stub.baseUrl(), true, PurchaseLineExecutor.sequential());
+
+        client.reserve(cart(20), "token", "cid-1");
+        assertTrue(client.release(cart(20), "token", "cid-1"));
+
+        assertEquals(1, stub.calls(ProductServiceStub.BATCH_PURCHASE));
+        assertEquals(1, stub.calls(ProductServiceStub.BATCH_RETURN));
+        assertEquals(0, stub.calls(ProductServiceStub.PURCHASE));
+        assertEquals(0, stub.calls(ProductServiceStub.RETURN));
+    }
+
+    @Test
+    void reserve_fallsBackToPerItemCalls_andRemembersMissingBatchEndpoint() {
+        stub = ProductServiceStub.start(false, Duration.ZERO);
+        InventoryClient client = new InventoryClient(new RestTemplate(), stub.baseUrl(), true, PurchaseLineExecutor.sequential());
+
+        client.reserve(cart(5), "token", "cid-1");
+        assertEquals(1, stub.calls(ProductServiceStub.BATCH_PURCHASE));
+        assertEquals(1, stub.calls(ProductServiceStub.BATCH_PROBE));
+        assertEquals(5, stub.calls(ProductServiceStub.PURCHASE));
+
+        stub.resetCounts();
+        client.reserve(cart(5), "token", "cid-2");
+        // no second probe of the batch endpoint
+        assertEquals(5, stub.totalCalls());
+    }
+
+    @Test
+    void reserve_unknownProductInBatch_isARejection_andKeepsUsingBatch() {
+        stub = ProductServiceStub.start(true, Duration.ZERO);
+        InventoryClient client = new InventoryClient(new RestTemplate(), stub.baseUrl(), true, PurchaseLineExecutor.sequential());
+        List<InventoryPurchaseRequest> cart = cart(3);
+        stub.unknownProduct(cart.get(1).productId());
+
+        InventoryReservationException ex = assertThrows(InventoryReservationException.class,
+                () -> client.reserve(cart, "token", "cid-1"));
+        assertEquals(404, ex.getStatusCode().value());
+        assertTrue(ex.possiblyReserved().isEmpty());
+        assertEquals(1, stub.calls(ProductServiceStub.BATCH_PROBE));
+
+        client.reserve(cart(3), "token", "cid-2");
+        assertEquals(2, stub.calls(ProductServiceStub.BATCH_PURCHASE));
+        assertEquals(0, stub.calls(ProductServiceStub.PURCHASE));
+    }
+
+    @Test
+    void reserve_batchServerError_reportsTheWholeCartAsPossiblyReserved() {
+        stub = ProductServiceStub.start(true, Duration.ZERO);
+        stub.failPurchases(true);
+        InventoryClient client = new InventoryClient(new RestTemplate(), stub.baseUrl(), true, PurchaseLineExecutor.sequential());
+        List<InventoryPurchaseRequest> cart = cart(4);
+
+        InventoryReservationException ex = assertThrows(InventoryReservationException.class,
+                () -> client.reserve(cart, "token", "cid-1"));
+
+        assertEquals(500, ex.getStatusCode().value());
+        assertEquals(cart, ex.possiblyReserved());
+        assertEquals(0, stub.calls(ProductServiceStub.BATCH_PROBE));
+        assertEquals(0, stub.calls(ProductServiceStub.PURCHASE));
+    }
+
+    @Test
+    void reserve_turnedAwayByTheHostLimit_reportsNothingAsPossiblyReserved() throws Exception {
+        stub = ProductServiceStub.start(true, Duration.ofMillis(300));
+        OutboundHttp http = new OutboundHttp(new MockEnvironment(), new SimpleMeterRegistry(), Duration.ofSeconds(1),
+                Duration.ofSeconds(5), HttpClient.Version.HTTP_1_1, 1, Duration.ofMillis(50));
+        RestTemplate restTemplate = http.restTemplate("product-service");
+        InventoryClient client = new InventoryClient(restTemplate, stub.baseUrl(), true, PurchaseLineExecutor.sequential());
+
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            pool.submit(() -> {
+                firstStarted.countDown();
+                return restTemplate.getForObject(stub.baseUrl() + "/api/products/" + UUID.randomUUID(), String.class);
+            });
+            firstStarted.await();
+            Thread.sleep(50);
+            InventoryReservationException ex = assertThrows(InventoryReservationException.class,
+                    () -> client.reserve(cart(2), "token", "cid-1"));
+
+            assertEquals(502, ex.getStatusCode().value());
+            assertEquals(List.of(), ex.possiblyReserved());
+        }
+        assertEquals(0, stub.calls(ProductServiceStub.BATCH_PURCHASE));
+    }
+
+    @Test
+    void release_reportsFailedReturns_insteadOfIgnoringThem() {
+        stub = ProductServiceStub.start(false, Duration.ZERO);
+        stub.failReturns(true);
+        InventoryClient client = new InventoryClient(new RestTemplate(), stub.baseUrl(), false, PurchaseLineExecutor.sequential());
+
+        assertFalse(client.release(cart(3), "token", "cid-1"));
+        assertEquals(3, stub.calls(ProductServiceStub.RETURN));
+    }
+}
@@ -1,12 +1,15 @@
 package se.moln.orderservice.service;
 
+import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Date;
 import java.util.UUID;
 
@@ -53,4 +56,45 @@ class JwtServiceTest {
         String tokenWithSub = buildToken(new Date(System.currentTimeMillis() + 60_000), sub.toString(), null);
         assertEquals(sub, svc.extractUserId(tokenWithSub));
     }
+
+    @Test
+    void extractAllClaims_verifiesOncePerToken_andRejectsTamperedOrExpiredTokens() {
+        JwtService svc = new JwtService(SECRET, "user-service", 100, Duration.ofMinutes(15));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        svc.bindTo(registry);
+        UUID uid = UUID.randomUUID();
+        String token = buildToken(new Date(System.currentTimeMillis() + 60_000), uid.toString(), uid);
+
+        assertTrue(svc.isTokenValid(token));
+        assertEquals(uid, svc.extractUserId(token));
+        assertEquals(uid, svc.extractUserId(token));
+        assertEquals(1.0, registry.get("jwt.claims.cache.requests").tag("result", "miss").functionCounter().count());
+        assertEquals(2.0, registry.get("jwt.claims.cache.requests").tag("result", "hit").functionCounter().count());
+
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA");
+        assertFalse(svc.isTokenValid(tampered));
+        assertEquals(1, svc.cacheSize());
+    }
+
+    @Test
+    void cachedClaims_expireWithTheToken() throws Exception {
+        JwtService svc = new JwtService(SECRET, "user-service", 100, Duration.ofMinutes(15));
+        // jjwt truncates exp to whole seconds
+        String token = buildToken(new Date(System.currentTimeMillis() + 1_500), UUID.randomUUID().toString(), null);
+
+        assertTrue(svc.isTokenValid(token));
+        Thread.sleep(2_100);
+
+        assertFalse(svc.isTokenValid(token));
+        assertThrows(ExpiredJwtException.class, () -> svc.extractUserId(token));
+    }
+
+    @Test
+    void cache_isBounded() {
+        JwtService svc = new JwtService(SECRET, "user-service", 10, Duration.ofMinutes(15));
+        for (int i = 0; i < 50; i++) {
+            svc.extractUserId(buildToken(new Date(System.currentTimeMillis() + 60_000), UUID.randomUUID().toString(), null));
+        }
+        assertTrue(svc.cacheSize() <= 10);
+    }
 }
@@ -0,0 +1,117 @@
+package se.moln.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import se.moln.orderservice.dto.MonthlyKpisResponse;
+import se.moln.orderservice.dto.ProductStat;
+import se.moln.orderservice.model.Money;
+import se.moln.orderservice.model.Order;
+
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MonthlyKpisCacheTest {
+
+    private JdbcTemplate jdbc;
+    private final AtomicInteger computed = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:kpis-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbc.execute("CREATE TABLE monthly_kpis_snapshot (year_month VARCHAR(7) PRIMARY KEY, response VARCHAR(4000) NOT NULL, "
+                + "computed_at TIMESTAMP WITH TIME ZONE)");
+    }
+
+    private MonthlyKpisCache cache() {
+        MonthlyKpisCache cache = new MonthlyKpisCache(jdbc, new ObjectMapper(), 7);
+        cache.onBackfillsDone();
+        return cache;
+    }
+
+    private MonthlyKpisResponse compute(YearMonth ym) {
+        int n = computed.incrementAndGet();
+        ProductStat top = new ProductStat(new UUID(1, 2), "USB-C Hub", 3, Money.parse("75"));
+        return new MonthlyKpisResponse(ym.toString(), n, Money.parse("105"), top, 2, 1);
+    }
+
+    private static OrderPlacedEvent placed(YearMonth ym) {
+        Order order = new Order();
+        order.setOrderDate(ym.atDay(1).atTime(12, 0).atZone(ZoneId.systemDefault()).toOffsetDateTime());
+        return new OrderPlacedEvent(order);
+    }
+
+    @Test
+    void closedMonth_isComputedOnce_andReadFromDiskAfterRestart() {
+        YearMonth closed = YearMonth.now().minusMonths(3);
+        MonthlyKpisResponse first = cache().get(closed, () -> compute(closed));
+        MonthlyKpisCache restarted = cache();
+        MonthlyKpisResponse again = restarted.get(closed, () -> compute(closed));
+        restarted.onOrderPlaced(placed(closed));
+
+        assertEquals(1, computed.get());
+        assertEquals(first, again);
+        assertEquals("105.00", again.revenue().toString());
+        assertEquals("75.00", again.topProduct().revenue().toString());
+        assertSame(again, restarted.get(closed, () -> compute(closed)));
+    }
+
+    @Test
+    void currentMonth_isKeptUntilAnOrderInItCommits() {
+        MonthlyKpisCache cache = cache();
+        YearMonth now = YearMonth.now();
+        assertEquals(1, cache.get(now, () -> compute(now)).unitsSold());
+        assertEquals(1, cache.get(now, () -> compute(now)).unitsSold());
+
+        cache.onOrderPlaced(placed(now.minusYears(1)));
+        assertEquals(1, cache.get(now, () -> compute(now)).unitsSold());
+        cache.onOrderPlaced(placed(now));
+        assertEquals(2, cache.get(now, () -> compute(now)).unitsSold());
+
+        // An order committing while the month is computed: the result is returned but not kept
+        cache.invalidate(now);
+        assertEquals(3, cache.get(now, () -> {
+            cache.invalidate(now);
+            return compute(now);
+        }).unitsSold());
+        assertEquals(4, cache.get(now, () -> compute(now)).unitsSold());
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM monthly_kpis_snapshot", Integer.class));
+    }
+
+    @Test
+    void nothingIsKept_untilTheStartupBackfillsHaveRun() {
+        MonthlyKpisCache starting = new MonthlyKpisCache(jdbc, new ObjectMapper(), 7);
+        YearMonth closed = YearMonth.now().minusMonths(3);
+        YearMonth now = YearMonth.now();
+
+        assertEquals(1, starting.get(closed, () -> compute(closed)).unitsSold());
+        assertEquals(2, starting.get(now, () -> compute(now)).unitsSold());
+        assertEquals(0, jdbc.queryForObject("SELECT COUNT(*) FROM monthly_kpis_snapshot", Integer.class));
+
+        starting.onBackfillsDone();
+        assertEquals(3, starting.get(closed, () -> compute(closed)).unitsSold());
+        assertEquals(3, starting.get(closed, () -> compute(closed)).unitsSold());
+        assertEquals(4, starting.get(now, () -> compute(now)).unitsSold());
+        assertEquals(1, jdbc.queryForObject("SELECT COUNT(*) FROM monthly_kpis_snapshot", Integer.class));
+    }
+
+    @Test
+    void futureMonths_areNotKept() {
+        MonthlyKpisCache cache = cache();
+        for (int months = 1; months <= 3; months++) {
+            YearMonth future = YearMonth.now().plusMonths(months);
+            cache.get(future, () -> compute(future));
+            cache.get(future, () -> compute(future));
+        }
+
+        assertEquals(6, computed.get());
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,86 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import se.moln.orderservice.dto.OrderHistoryDto;
+import se.moln.orderservice.dto.OrderHistoryPage;
+import se.moln.orderservice.dto.OrderItemDto;
+import se.moln.orderservice.model.OrderStatus;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderHistoryCacheTest {
+
+    private static OrderHistoryPage page(int orders) {
+        List<OrderHistoryDto> dtos = new ArrayList<>();
+        for (int i = 0; i < orders; i++) {
+            dtos.add(new OrderHistoryDto(UUID.randomUUID(), "ORD-" + i, new BigDecimal("10.00"), OrderStatus.CREATED,
+                    OffsetDateTime.now(), List.of(new OrderItemDto(UUID.randomUUID(), "USB-C Hub", 1, new BigDecimal("10.00")))));
+        }
+        return new OrderHistoryPage(List.copyOf(dtos), null);
+    }
+
+    @Test
+    void countsHitsAndBytes_andStaysWithinMaxUsers() {
+        OrderHistoryCache cache = new OrderHistoryCache(3, 1, Duration.ofMinutes(10));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cache.bindTo(registry);
+        AtomicInteger loads = new AtomicInteger();
+        UUID alice = UUID.randomUUID();
+
+        OrderHistoryPage first = cache.get(alice, 0, 20, () -> { loads.incrementAndGet(); return page(2); });
+        assertSame(first, cache.get(alice, 0, 20, () -> { loads.incrementAndGet(); return page(2); }));
+        // Other page size is its own entry, later pages are never cached
+        cache.get(alice, 0, 5, () -> { loads.incrementAndGet(); return page(2); });
+        cache.get(alice, 1, 20, () -> { loads.incrementAndGet(); return page(0); });
+        cache.get(alice, 1, 20, () -> { loads.incrementAndGet(); return page(0); });
+        assertEquals(4, loads.get());
+        assertEquals(1.0, registry.get("orders.history.cache.requests").tag("result", "hit").functionCounter().count());
+        assertEquals(2.0, registry.get("orders.history.cache.requests").tag("result", "miss").functionCounter().count());
+        assertEquals(2 * OrderHistoryCache.estimateBytes(first), cache.estimatedBytes());
+        assertEquals(cache.estimatedBytes(), registry.get("orders.history.cache.memory").gauge().value());
+
+        for (int i = 0; i < 10; i++) {
+            cache.get(UUID.randomUUID(), 0, 20, () -> page(1));
+        }
+        assertEquals(3, cache.size());
+        cache.evict(alice);
+        assertEquals(cache.size() * OrderHistoryCache.estimateBytes(page(1)), cache.estimatedBytes());
+    }
+
+    @Test
+    void orderCommittedWhileLoading_isNotKept() {
+        OrderHistoryCache cache = new OrderHistoryCache(100, 1, Duration.ofMinutes(10));
+        UUID bob = UUID.randomUUID();
+        cache.get(bob, 0, 20, () -> {
+            cache.evict(bob);
+            return page(1);
+        });
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.estimatedBytes());
+    }
+
+    @Test
+    void expiredPages_areLoadedAgain_andZeroDisables() {
+        AtomicInteger loads = new AtomicInteger();
+        OrderHistoryCache expiring = new OrderHistoryCache(100, 1, Duration.ZERO);
+        UUID carol = UUID.randomUUID();
+        expiring.get(carol, 0, 20, () -> { loads.incrementAndGet(); return page(1); });
+        expiring.get(carol, 0, 20, () -> { loads.incrementAndGet(); return page(1); });
+        assertEquals(2, loads.get());
+
+        OrderHistoryCache disabled = new OrderHistoryCache(0, 1, Duration.ofMinutes(10));
+        disabled.get(carol, 0, 20, () -> { loads.incrementAndGet(); return page(1); });
+        disabled.get(carol, 0, 20, () -> { loads.incrementAndGet(); return page(1); });
+        assertEquals(4, loads.get());
+        assertEquals(0, disabled.size());
+    }
+}
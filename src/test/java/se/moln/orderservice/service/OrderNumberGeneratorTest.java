@@ -0,0 +1,88 @@
+package se.moln.orderservice.service;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderNumberGeneratorTest {
+
+    private static final Clock FIXED = Clock.fixed(Instant.parse("2025-09-12T10:15:30Z"), ZoneOffset.UTC);
+
+    @Test
+    void next_formatsDateAndSequence_andAllocatesOneBlockPerBlockSizeNumbers() {
+        AtomicInteger allocations = new AtomicInteger();
+        AtomicLong sequence = new AtomicLong();
+        OrderNumberGenerator generator = new OrderNumberGenerator(() -> {
+            allocations.incrementAndGet();
+            return sequence.addAndGet(10);
+        }, 10, FIXED);
+
+        List<String> numbers = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            numbers.add(generator.next());
+        }
+
+        assertEquals("ORD-250912-000000001", numbers.get(0));
+        assertEquals("ORD-250912-000000025", numbers.get(24));
+        assertEquals(3, allocations.get());
+        assertEquals(numbers.stream().sorted().toList(), numbers);
+    }
+
+    @Test
+    void next_isUniqueUnderConcurrency_acrossInstancesSharingASequence() throws Exception {
+        AtomicLong sequence = new AtomicLong();
+        OrderNumberGenerator a = new OrderNumberGenerator(() -> sequence.addAndGet(7), 7, FIXED);
+        OrderNumberGenerator b = new OrderNumberGenerator(() -> sequence.addAndGet(7), 7, FIXED);
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                OrderNumberGenerator generator = t % 2 == 0 ? a : b;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        assertTrue(seen.add(generator.next()));
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        }
+        assertEquals(8000, seen.size());
+    }
+
+    @Test
+    void databaseSequence_isDefinedByTheMigration_andSharedWithoutOverlap() {
+        DriverManagerDataSource ds = new DriverManagerDataSource("jdbc:h2:mem:ordernumbers;DB_CLOSE_DELAY=-1", "sa", "");
+        Flyway.configure().dataSource(ds).load().migrate();
+        JdbcTemplate jdbc = new JdbcTemplate(ds);
+
+        Set<String> seen = new HashSet<>();
+        OrderNumberGenerator first = new OrderNumberGenerator(jdbc);
+        OrderNumberGenerator second = new OrderNumberGenerator(jdbc);
+        for (int i = 0; i < 150; i++) {
+            assertTrue(seen.add(first.next()));
+            assertTrue(seen.add(second.next()));
+        }
+        // Blocks of 100 from the migration: 150 numbers took two blocks per instance
+        assertEquals(500, jdbc.queryForObject("SELECT NEXT VALUE FOR order_number_seq", Long.class));
+    }
+}
@@ -1,34 +1,55 @@
 package se.moln.orderservice.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.server.ResponseStatusException;
 import se.moln.orderservice.dto.ProductResponse;
 import se.moln.orderservice.dto.PurchaseRequest;
+import se.moln.orderservice.model.EntitlementGrant;
 import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.PurchaseSaga;
+import se.moln.orderservice.model.SagaState;
+import se.moln.orderservice.repository.EntitlementGrantRepository;
 import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.repository.PurchaseSagaRepository;
 
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
+@ExtendWith(MockitoExtension.class)
 class OrderServicePurchaseTest {
 
+    @Captor
+    private ArgumentCaptor<List<EntitlementGrant>> grants;
+
     private OrderRepository orderRepository;
     private JwtService jwtService;
-    private EntitlementClient entitlementClient;
+    private EntitlementGrantRepository grantRepository;
+    private PurchaseSagaRepository sagaRepository;
     private RestTemplate restTemplate;
     private OrderService orderService;
     private UUID userId;
@@ -38,20 +59,43 @@ class OrderServicePurchaseTest {
     void setUp() {
         orderRepository = mock(OrderRepository.class);
         jwtService = mock(JwtService.class);
-        entitlementClient = mock(EntitlementClient.class);
+        grantRepository = mock(EntitlementGrantRepository.class);
+        sagaRepository = mock(PurchaseSagaRepository.class);
+        // Shared by most tests; the ones that stop before reserving or before the token is read leave them unused
+        lenient().when(sagaRepository.save(any(PurchaseSaga.class))).thenAnswer(inv -> {
+            PurchaseSaga saga = inv.getArgument(0);
+            if (saga.getId() == null) {
+                saga.setId(UUID.randomUUID());
+            }
+            return saga;
+        });
 
-        orderService = new OrderService(orderRepository, "http://product.test", jwtService, entitlementClient);
-        restTemplate = mock(RestTemplate.class);
-        ReflectionTestUtils.setField(orderService, "restTemplate", restTemplate);
+        orderService = newOrderService(PurchaseLineExecutor.sequential());
 
         userId = UUID.randomUUID();
         productId = UUID.randomUUID();
-        when(jwtService.extractUserId("token"))
+        lenient().when(jwtService.extractUserId("token"))
                 .thenReturn(userId);
     }
 
+    private OrderService newOrderService(PurchaseLineExecutor lineExecutor) {
+        // batch endpoint and product cache off: these tests pin the per-item upstream calls
+        restTemplate = mock(RestTemplate.class);
+        InventoryClient inventoryClient = new InventoryClient(restTemplate, "http://product.test", false, lineExecutor);
+        ProductCatalog productCatalog = new ProductCatalog(restTemplate, "http://product.test", false, 100,
+                Duration.ofSeconds(10), Duration.ofSeconds(60), new SimpleMeterRegistry());
+        PurchaseSagas sagas = new PurchaseSagas(sagaRepository, inventoryClient, Executors.newVirtualThreadPerTaskExecutor(),
+                3, Duration.ofSeconds(1), Duration.ofSeconds(10), Duration.ofMinutes(1), Duration.ofMinutes(5));
+        return new OrderService(orderRepository, jwtService, new OrderWriter(orderRepository, grantRepository, sagas, mock(DailySalesRollup.class),
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), event -> { }, false, 64, Duration.ofMillis(5)),
+                lineExecutor, inventoryClient, productCatalog, sagas,
+                new IdempotencyStore(true, Duration.ofHours(1), Duration.ofSeconds(5), 100, new SimpleMeterRegistry()),
+                new OrderNumberGenerator(new AtomicLong()::incrementAndGet, 1, Clock.systemUTC()),
+                new OrderHistoryCache(0, 0, Duration.ZERO));
+    }
+
     @Test
-    void purchaseProduct_success_reservesInventory_andGrantsEntitlement() {
+    void purchaseProduct_success_reservesInventory_andQueuesEntitlementGrant() {
         ProductResponse product = new ProductResponse(productId, "USB-C Hub", new BigDecimal("24.99"), 10);
 
         when(restTemplate.exchange(
@@ -103,7 +147,47 @@ class OrderServicePurchaseTest {
                 eq(productId));
 
         verify(orderRepository).save(any(Order.class));
-        verify(entitlementClient).grantEntitlement("Bearer " + "token", "HOROSCOPE_PDF", 2);
+        verify(grantRepository).saveAll(grants.capture());
+        assertEquals(1, grants.getValue().size());
+        EntitlementGrant grant = grants.getValue().get(0);
+        assertEquals(response.orderId(), grant.getOrderId());
+        assertEquals(userId, grant.getUserId());
+        assertEquals("HOROSCOPE_PDF", grant.getSku());
+        assertEquals(2, grant.getQuantity());
+        assertEquals("token", grant.getBearerToken());
+    }
+
+    @Test
+    void purchaseProduct_retryWithSameIdempotencyKey_replaysResponse_withoutSecondOrder() {
+        when(restTemplate.exchange(
+                eq("http://product.test/api/products/{id}"),
+                eq(HttpMethod.GET),
+                any(HttpEntity.class),
+                eq(ProductResponse.class),
+                any(UUID.class)))
+                .thenReturn(ResponseEntity.ok(new ProductResponse(productId, "USB-C Hub", new BigDecimal("24.99"), 10)));
+        when(restTemplate.exchange(
+                eq("http://product.test/api/inventory/{id}/purchase"),
+                eq(HttpMethod.POST),
+                any(HttpEntity.class),
+                eq(Void.class),
+                any(UUID.class)))
+                .thenReturn(ResponseEntity.ok().build());
+        when(orderRepository.save(any(Order.class))).thenAnswer(inv -> {
+            Order o = inv.getArgument(0);
+            o.setId(UUID.randomUUID());
+            return o;
+        });
+        PurchaseRequest request = new PurchaseRequest(
+                List.of(new PurchaseRequest.OrderItemRequest(productId, 1)),
+                null);
+
+        var first = orderService.purchaseProduct(request, "token", "retry-1");
+        var retry = orderService.purchaseProduct(request, "token", "retry-1");
+
+        assertEquals(first, retry);
+        verify(orderRepository, times(1)).save(any(Order.class));
+        verify(restTemplate, times(2)).exchange(anyString(), any(HttpMethod.class), any(HttpEntity.class), any(Class.class), any(UUID.class));
     }
 
     @Test
@@ -125,7 +209,7 @@ class OrderServicePurchaseTest {
 
         assertEquals(HttpStatus.NOT_FOUND, ex.getStatusCode());
         verify(orderRepository, never()).save(any());
-        verify(entitlementClient, never()).grantEntitlement(anyString(), anyString(), anyInt());
+        verifyNoInteractions(grantRepository);
     }
 
     @Test
@@ -138,7 +222,7 @@ class OrderServicePurchaseTest {
                 () -> orderService.purchaseProduct(request, null));
 
         assertTrue(ex.getMessage().toLowerCase().contains("missing bearer token"));
-        verifyNoInteractions(restTemplate, orderRepository, entitlementClient, jwtService);
+        verifyNoInteractions(restTemplate, orderRepository, grantRepository, jwtService);
     }
 
     @Test
@@ -171,4 +255,129 @@ class OrderServicePurchaseTest {
         assertEquals(HttpStatus.CONFLICT, ex.getStatusCode());
         verify(orderRepository, never()).save(any());
     }
+
+    @Test
+    void purchaseProduct_saveFailure_returnsStockAsynchronously_viaSaga() {
+        ProductResponse product = new ProductResponse(productId, "USB-C Hub", new BigDecimal("24.99"), 10);
+        when(restTemplate.exchange(
+                eq("http://product.test/api/products/{id}"),
+                eq(HttpMethod.GET),
+                any(HttpEntity.class),
+                eq(ProductResponse.class),
+                any(UUID.class)))
+                .thenReturn(ResponseEntity.ok(product));
+        when(restTemplate.exchange(
+                anyString(),
+                eq(HttpMethod.POST),
+                any(HttpEntity.class),
+                eq(Void.class),
+                any(UUID.class)))
+                .thenReturn(ResponseEntity.ok().build());
+        when(orderRepository.save(any(Order.class))).thenThrow(new IllegalStateException("db down"));
+
+        PurchaseRequest request = new PurchaseRequest(
+                List.of(new PurchaseRequest.OrderItemRequest(productId, 2)),
+                null);
+
+        assertThrows(IllegalStateException.class, () -> orderService.purchaseProduct(request, "token"));
+
+        verify(restTemplate, timeout(2000)).exchange(
+                eq("http://product.test/api/inventory/{id}/return"),
+                eq(HttpMethod.POST),
+                any(HttpEntity.class),
+                eq(Void.class),
+                eq(productId));
+        ArgumentCaptor<PurchaseSaga> sagas = ArgumentCaptor.forClass(PurchaseSaga.class);
+        verify(sagaRepository, timeout(2000).atLeast(4)).save(sagas.capture());
+        PurchaseSaga saga = sagas.getValue();
+        assertEquals(SagaState.COMPENSATED, saga.getState());
+        assertNull(saga.getBearerToken());
+        verifyNoInteractions(grantRepository);
+    }
+
+    @Test
+    void purchaseProduct_concurrentMode_keepsLineOrder_andReturnsReservedStockWhenALineFails() {
+        orderService = newOrderService(new PurchaseLineExecutor(true, 4));
+        UUID okProduct = UUID.randomUUID();
+        UUID soldOutProduct = UUID.randomUUID();
+
+        when(restTemplate.exchange(
+                eq("http://product.test/api/products/{id}"),
+                eq(HttpMethod.GET),
+                any(HttpEntity.class),
+                eq(ProductResponse.class),
+                any(UUID.class)))
+                .thenAnswer(inv -> ResponseEntity.ok(new ProductResponse(inv.getArgument(4), "Item", new BigDecimal("10.00"), 5)));
+
+        when(restTemplate.exchange(
+                eq("http://product.test/api/inventory/{id}/purchase"),
+                eq(HttpMethod.POST),
+                any(HttpEntity.class),
+                eq(Void.class),
+                eq(okProduct)))
+                .thenReturn(ResponseEntity.ok().build());
+        when(restTemplate.exchange(
+                eq("http://product.test/api/inventory/{id}/purchase"),
+                eq(HttpMethod.POST),
+                any(HttpEntity.class),
+                eq(Void.class),
+                eq(soldOutProduct)))
+                .thenThrow(new HttpClientErrorException(HttpStatus.CONFLICT, "conflict", new byte[0], StandardCharsets.UTF_8));
+
+        PurchaseRequest request = new PurchaseRequest(
+                List.of(new PurchaseRequest.OrderItemRequest(okProduct, 1),
+                        new PurchaseRequest.OrderItemRequest(soldOutProduct, 3)),
+                null);
+
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> orderService.purchaseProduct(request, "token"));
+
+        assertEquals(HttpStatus.CONFLICT, ex.getStatusCode());
+        // The reserved line is returned by the saga
+        verify(restTemplate, timeout(2000)).exchange(
+                eq("http://product.test/api/inventory/{id}/return"),
+                eq(HttpMethod.POST),
+                any(HttpEntity.class),
+                eq(Void.class),
+                eq(okProduct));
+        verify(restTemplate, never()).exchange(
+                eq("http://product.test/api/inventory/{id}/return"),
+                eq(HttpMethod.POST),
+                any(HttpEntity.class),
+                eq(Void.class),
+                eq(soldOutProduct));
+        verify(orderRepository, never()).save(any());
+    }
+
+    @Test
+    void purchaseProduct_concurrentMode_buildsItemsInRequestOrder() {
+        orderService = newOrderService(new PurchaseLineExecutor(true, 2));
+        List<UUID> productIds = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+
+        when(restTemplate.exchange(
+                eq("http://product.test/api/products/{id}"),
+                eq(HttpMethod.GET),
+                any(HttpEntity.class),
+                eq(ProductResponse.class),
+                any(UUID.class)))
+                .thenAnswer(inv -> ResponseEntity.ok(new ProductResponse(inv.getArgument(4), "Item", new BigDecimal("2.50"), 5)));
+        when(restTemplate.exchange(
+                eq("http://product.test/api/inventory/{id}/purchase"),
+                eq(HttpMethod.POST),
+                any(HttpEntity.class),
+                eq(Void.class),
+                any(UUID.class)))
+                .thenReturn(ResponseEntity.ok().build());
+        ArgumentCaptor<Order> saved = ArgumentCaptor.forClass(Order.class);
+        when(orderRepository.save(saved.capture())).thenAnswer(inv -> inv.getArgument(0));
+
+        PurchaseRequest request = new PurchaseRequest(
+                productIds.stream().map(id -> new PurchaseRequest.OrderItemRequest(id, 2)).toList(),
+                null);
+
+        var response = orderService.purchaseProduct(request, "token");
+
+        assertEquals(new BigDecimal("20.00"), response.totalAmount());
+        assertEquals(productIds, saved.getValue().getOrderItems().stream().map(OrderItem::getProductId).toList());
+    }
 }
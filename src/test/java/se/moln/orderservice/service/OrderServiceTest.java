@@ -1,28 +1,46 @@
 package se.moln.orderservice.service;
 
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.web.server.ResponseStatusException;
 import se.moln.orderservice.dto.OrderHistoryDto;
+import se.moln.orderservice.dto.OrderHistoryPage;
+import se.moln.orderservice.dto.ProductResponse;
+import se.moln.orderservice.dto.PurchaseRequest;
+import se.moln.orderservice.model.Money;
 import se.moln.orderservice.model.Order;
 import se.moln.orderservice.model.OrderItem;
 import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.model.PurchaseSaga;
 import se.moln.orderservice.repository.OrderRepository;
+import se.moln.orderservice.security.AuthenticatedUser;
 
 import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -35,57 +53,176 @@ class OrderServiceTest {
     private JwtService jwtService;
 
     @Mock
-    private EntitlementClient entitlementClient;
+    private OrderWriter orderWriter;
+
+    @Mock
+    private InventoryClient inventoryClient;
+
+    @Mock
+    private ProductCatalog productCatalog;
+
+    @Mock
+    private PurchaseSagas sagas;
+
+    private final OrderHistoryCache historyCache = new OrderHistoryCache(100, 1, Duration.ofMinutes(10));
 
     private OrderService orderService;
 
     @BeforeEach
     void setUp() {
-        orderService = new OrderService(orderRepository, "http://products", jwtService, entitlementClient);
+        orderService = new OrderService(orderRepository, jwtService, orderWriter,
+                PurchaseLineExecutor.sequential(), inventoryClient, productCatalog, sagas,
+                new IdempotencyStore(true, Duration.ofHours(1), Duration.ofSeconds(5), 100, new SimpleMeterRegistry()),
+                new OrderNumberGenerator(new AtomicLong()::incrementAndGet, 1, Clock.systemUTC()),
+                historyCache);
     }
 
     @Test
     void getOrderHistory_mapsEntitiesToDtos() {
         UUID userId = UUID.randomUUID();
-        when(jwtService.extractUserId("token")).thenReturn(userId);
+        AuthenticatedUser user = new AuthenticatedUser(userId, "token", null);
 
         Order order = new Order();
         order.setId(UUID.randomUUID());
         order.setOrderNumber("ORD-12345678");
         order.setStatus(OrderStatus.COMPLETED);
         order.setOrderDate(OffsetDateTime.now());
-        order.setTotalAmount(new BigDecimal("49.98"));
+        order.setTotalAmount(Money.parse("49.98"));
 
         OrderItem item = new OrderItem();
         item.setProductId(UUID.randomUUID());
         item.setProductName("USB-C Hub 8-in-1");
         item.setQuantity(2);
-        item.setPriceAtPurchase(new BigDecimal("24.99"));
+        item.setPriceAtPurchase(Money.parse("24.99"));
         item.setOrder(order);
         order.setOrderItems(List.of(item));
 
-        Page<Order> page = new PageImpl<>(List.of(order), PageRequest.of(0, 10), 1);
-        when(orderRepository.findByUserId(any(UUID.class), any())).thenReturn(page);
+        when(orderRepository.findIdsByUserId(userId, PageRequest.of(0, 10))).thenReturn(List.of(order.getId()));
+        when(orderRepository.findWithItemsByIdIn(List.of(order.getId()))).thenReturn(List.of(order));
 
-        List<OrderHistoryDto> dtos = orderService.getOrderHistory("token", 0, 10);
+        List<OrderHistoryDto> dtos = orderService.getOrderHistory(user, null, 0, 10).orders();
         assertEquals(1, dtos.size());
         OrderHistoryDto dto = dtos.get(0);
         assertEquals(order.getId(), dto.id());
         assertEquals(order.getOrderNumber(), dto.orderNumber());
-        assertEquals(order.getTotalAmount(), dto.totalAmount());
+        assertEquals(order.getTotalAmount().toBigDecimal(), dto.totalAmount());
         assertEquals(order.getStatus(), dto.status());
         assertEquals(order.getOrderDate(), dto.orderDate());
         assertEquals(1, dto.items().size());
         assertEquals(item.getProductId(), dto.items().get(0).productId());
         assertEquals(item.getProductName(), dto.items().get(0).productName());
         assertEquals(item.getQuantity(), dto.items().get(0).quantity());
-        assertEquals(item.getPriceAtPurchase(), dto.items().get(0).priceAtPurchase());
+        assertEquals(item.getPriceAtPurchase().toBigDecimal(), dto.items().get(0).priceAtPurchase());
+    }
+
+    @Test
+    void getOrderHistory_keepsIdOrder_andSkipsFetchForEmptyPage() {
+        UUID userId = UUID.randomUUID();
+        AuthenticatedUser user = new AuthenticatedUser(userId, "token", null);
+        Order newer = new Order();
+        newer.setId(UUID.randomUUID());
+        newer.setOrderNumber("ORD-2");
+        newer.setOrderItems(List.of());
+        Order older = new Order();
+        older.setId(UUID.randomUUID());
+        older.setOrderNumber("ORD-1");
+        older.setOrderItems(List.of());
+        List<UUID> ids = List.of(newer.getId(), older.getId());
+        when(orderRepository.findIdsByUserId(userId, PageRequest.of(1, 2))).thenReturn(ids);
+        // The fetch query has no ORDER BY
+        when(orderRepository.findWithItemsByIdIn(ids)).thenReturn(List.of(older, newer));
+
+        assertEquals(List.of("ORD-2", "ORD-1"),
+                orderService.getOrderHistory(user, null, 1, 2).orders().stream().map(OrderHistoryDto::orderNumber).toList());
+
+        when(orderRepository.findIdsByUserId(userId, PageRequest.of(5, 2))).thenReturn(List.of());
+        assertTrue(orderService.getOrderHistory(user, null, 5, 2).orders().isEmpty());
+        verify(orderRepository, never()).findWithItemsByIdIn(List.of());
+    }
+
+    @Test
+    void getOrderHistory_cursorSeeksPastLastOrder_andRejectsGarbage() {
+        AuthenticatedUser user = new AuthenticatedUser(UUID.randomUUID(), "token", null);
+        Order last = new Order();
+        last.setId(UUID.randomUUID());
+        last.setOrderDate(OffsetDateTime.parse("2025-03-03T12:00:00.123456+01:00"));
+        last.setOrderItems(List.of());
+        when(orderRepository.findIdsByUserId(user.userId(), PageRequest.of(0, 1))).thenReturn(List.of(last.getId()));
+        when(orderRepository.findWithItemsByIdIn(List.of(last.getId()))).thenReturn(List.of(last));
+
+        OrderHistoryPage first = orderService.getOrderHistory(user, null, 0, 1);
+        assertEquals(1, first.orders().size());
+        assertNotNull(first.nextCursor());
+
+        when(orderRepository.findIdsByUserIdBefore(user.userId(), last.getOrderDate(), last.getId(), PageRequest.ofSize(1)))
+                .thenReturn(List.of());
+        OrderHistoryPage end = orderService.getOrderHistory(user, first.nextCursor(), 7, 1);
+        assertTrue(end.orders().isEmpty());
+        assertNull(end.nextCursor());
+
+        ResponseStatusException ex = assertThrows(ResponseStatusException.class,
+                () -> orderService.getOrderHistory(user, "not-a-cursor", 0, 1));
+        assertEquals(400, ex.getStatusCode().value());
+    }
+
+    @Test
+    void getOrderHistory_firstPageIsCached_untilTheUsersNextOrder() {
+        AuthenticatedUser user = new AuthenticatedUser(UUID.randomUUID(), "token", null);
+        when(orderRepository.findIdsByUserId(user.userId(), PageRequest.of(0, 20))).thenReturn(List.of());
+        when(orderRepository.findIdsByUserId(user.userId(), PageRequest.of(1, 20))).thenReturn(List.of());
+
+        orderService.getOrderHistory(user, null, 0, 20);
+        orderService.getOrderHistory(user, "", 0, 20);
+        orderService.getOrderHistory(user, null, 1, 20);
+        orderService.getOrderHistory(user, null, 1, 20);
+        verify(orderRepository, times(1)).findIdsByUserId(user.userId(), PageRequest.of(0, 20));
+        verify(orderRepository, times(2)).findIdsByUserId(user.userId(), PageRequest.of(1, 20));
+
+        Order placed = new Order();
+        placed.setUserId(user.userId());
+        historyCache.onOrderPlaced(new OrderPlacedEvent(placed));
+        orderService.getOrderHistory(user, null, 0, 20);
+        verify(orderRepository, times(2)).findIdsByUserId(user.userId(), PageRequest.of(0, 20));
+    }
+
+    @Test
+    void purchaseResponse_keepsTheScaleOfTheProductPricesOnTheWire() throws Exception {
+        UUID whole = UUID.randomUUID();
+        UUID half = UUID.randomUUID();
+        AuthenticatedUser user = new AuthenticatedUser(UUID.randomUUID(), "token", null);
+        when(productCatalog.get(eq(whole), eq("token"), anyString())).thenReturn(new ProductResponse(whole, "Reading", new BigDecimal("10"), 5));
+        when(productCatalog.get(eq(half), eq("token"), anyString())).thenReturn(new ProductResponse(half, "Chart", new BigDecimal("10.5"), 5));
+        when(sagas.begin(eq(user.userId()), anyString(), eq("token"), anyList())).thenReturn(PurchaseSaga.builder().id(UUID.randomUUID()).build());
+        when(orderWriter.save(any(Order.class), anyList(), any(UUID.class))).thenAnswer(inv -> inv.getArgument(0));
+        JsonMapper json = JsonMapper.builder().findAndAddModules().build();
+
+        var wholeOnly = orderService.purchaseProduct(
+                new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(whole, 2)), null), user, null);
+        var mixed = orderService.purchaseProduct(
+                new PurchaseRequest(List.of(new PurchaseRequest.OrderItemRequest(whole, 1), new PurchaseRequest.OrderItemRequest(half, 1)), null), user, null);
+
+        assertTrue(json.writeValueAsString(wholeOnly).contains("\"totalAmount\":20}"), json.writeValueAsString(wholeOnly));
+        assertTrue(json.writeValueAsString(mixed).contains("\"totalAmount\":20.5}"), json.writeValueAsString(mixed));
     }
 
     @Test
-    void getOrderHistory_errorsOnMissingToken() {
-        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
-                () -> orderService.getOrderHistory("", 0, 10));
-        assertTrue(ex.getMessage().toLowerCase().contains("missing bearer token"));
+    void orderHistory_writesAmountsWithTwoDecimals_asReadFromTheDatabase() throws Exception {
+        AuthenticatedUser user = new AuthenticatedUser(UUID.randomUUID(), "token", null);
+        Order order = new Order();
+        order.setId(UUID.randomUUID());
+        order.setOrderDate(OffsetDateTime.now());
+        order.setTotalAmount(Money.parse("10"));
+        OrderItem item = new OrderItem();
+        item.setQuantity(1);
+        item.setPriceAtPurchase(Money.parse("10.5"));
+        order.setOrderItems(List.of(item));
+        when(orderRepository.findIdsByUserId(user.userId(), PageRequest.of(0, 10))).thenReturn(List.of(order.getId()));
+        when(orderRepository.findWithItemsByIdIn(List.of(order.getId()))).thenReturn(List.of(order));
+
+        String body = JsonMapper.builder().findAndAddModules().build()
+                .writeValueAsString(orderService.getOrderHistory(user, null, 0, 10));
+
+        assertTrue(body.contains("\"totalAmount\":10.00,"), body);
+        assertTrue(body.contains("\"priceAtPurchase\":10.50}"), body);
     }
 }
@@ -0,0 +1,110 @@
+package se.moln.orderservice.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import se.moln.orderservice.model.EntitlementGrant;
+import se.moln.orderservice.model.Money;
+import se.moln.orderservice.model.Order;
+import se.moln.orderservice.model.OrderItem;
+import se.moln.orderservice.model.OrderStatus;
+import se.moln.orderservice.model.OutboxStatus;
+import se.moln.orderservice.repository.EntitlementGrantRepository;
+import se.moln.orderservice.repository.OrderRepository;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Group commit against the real JPA mappings: a batch that fails on one order is retried order by
+ * order, and the good orders of the batch are stored.
+ */
+@DataJpaTest
+@Import(OrderWriter.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+@TestPropertySource(properties = {
+        "orders.write.group-commit.enabled=true",
+        "orders.write.group-commit.max-batch=2",
+        // The batch closes when both orders are queued
+        "orders.write.group-commit.max-wait=5s"
+})
+class OrderWriterTest {
+
+    @Autowired
+    OrderWriter writer;
+
+    @Autowired
+    OrderRepository orders;
+
+    @Autowired
+    EntitlementGrantRepository grants;
+
+    @MockitoBean
+    PurchaseSagas sagas;
+
+    @MockitoBean
+    DailySalesRollup salesRollup;
+
+    private static Order order(String orderNumber) {
+        Order order = new Order();
+        order.setUserId(UUID.randomUUID());
+        order.setOrderNumber(orderNumber);
+        order.setOrderDate(OffsetDateTime.now());
+        order.setStatus(OrderStatus.CREATED);
+        order.setTotalAmount(Money.ofMinor(999));
+        OrderItem item = new OrderItem();
+        item.setProductId(UUID.randomUUID());
+        item.setProductName("Hub");
+        item.setQuantity(1);
+        item.setPriceAtPurchase(Money.ofMinor(999));
+        item.setOrder(order);
+        order.setOrderItems(new ArrayList<>(List.of(item)));
+        return order;
+    }
+
+    private static EntitlementGrant grant(Order order, String sku) {
+        return EntitlementGrant.builder()
+                .userId(order.getUserId())
+                .sku(sku)
+                .quantity(1)
+                .bearerToken("token")
+                .status(OutboxStatus.PENDING)
+                .nextAttemptAt(Instant.now())
+                .build();
+    }
+
+    @Test
+    void failedBatch_storesTheValidOrder_andFailsOnlyTheBadOne() {
+        Order good = order("ORD-G-1");
+        List<EntitlementGrant> goodGrants = List.of(grant(good, "HOROSCOPE_PDF"));
+        // entitlement_outbox.sku is NOT NULL, so this order fails the batch
+        Order bad = order("ORD-B-1");
+        List<EntitlementGrant> badGrants = List.of(grant(bad, null));
+        CompletableFuture<Order> first = CompletableFuture.supplyAsync(() -> writer.save(good, goodGrants, UUID.randomUUID()));
+        CompletableFuture<Order> second = CompletableFuture.supplyAsync(() -> writer.save(bad, badGrants, UUID.randomUUID()));
+
+        Order saved = first.join();
+        CompletionException ex = assertThrows(CompletionException.class, second::join);
+        assertInstanceOf(DataIntegrityViolationException.class, ex.getCause());
+
+        Order stored = orders.findWithItemsByIdIn(List.of(saved.getId())).getFirst();
+        assertEquals(good.getOrderNumber(), stored.getOrderNumber());
+        assertEquals(1, stored.getOrderItems().size());
+        assertEquals(1, orders.count());
+        assertEquals(1, grants.count());
+        assertEquals(saved.getId(), grants.findAll().getFirst().getOrderId());
+    }
+}
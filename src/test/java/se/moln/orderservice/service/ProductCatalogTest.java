@@ -0,0 +1,115 @@
+package se.moln.orderservice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import se.moln.orderservice.dto.ProductResponse;
+import se.moln.orderservice.support.ProductServiceStub;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProductCatalogTest {
+
+    private ProductServiceStub stub;
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @AfterEach
+    void tearDown() {
+        if (stub != null) {
+            stub.close();
+        }
+    }
+
+    private ProductCatalog catalog(int maxSize, Duration refreshAfter, Duration expireAfter) {
+        return new ProductCatalog(new RestTemplate(), stub.baseUrl(), true, maxSize, refreshAfter, expireAfter, registry);
+    }
+
+    @Test
+    void concurrentMisses_forSameProduct_shareOneUpstreamCall() throws Exception {
+        stub = ProductServiceStub.start(true, Duration.ofMillis(100));
+        ProductCatalog catalog = catalog(100, Duration.ofSeconds(10), Duration.ofSeconds(60));
+        UUID id = UUID.randomUUID();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ProductResponse>> results = new ArrayList<>();
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 20; i++) {
+                results.add(pool.submit(() -> {
+                    start.await();
+                    return catalog.get(id, "token", "cid");
+                }));
+            }
+            start.countDown();
+        }
+
+        for (Future<ProductResponse> r : results) {
+            assertEquals(id, r.get().id());
+        }
+        assertEquals(1, stub.calls(ProductServiceStub.GET_PRODUCT));
+    }
+
+    @Test
+    void rejectedTokenOfTheFirstCaller_isNotHandedToCallersWaitingOnIt() throws Exception {
+        stub = ProductServiceStub.start(true, Duration.ofMillis(200));
+        stub.rejectToken("expired");
+        ProductCatalog catalog = catalog(100, Duration.ofSeconds(10), Duration.ofSeconds(60));
+        UUID id = UUID.randomUUID();
+
+        try (ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<ProductResponse> first = pool.submit(() -> catalog.get(id, "expired", "cid-1"));
+            Thread.sleep(50);
+            Future<ProductResponse> waiting = pool.submit(() -> catalog.get(id, "token", "cid-2"));
+
+            ExecutionException rejected = assertThrows(ExecutionException.class, first::get);
+            assertEquals(HttpStatus.UNAUTHORIZED, ((ResponseStatusException) rejected.getCause()).getStatusCode());
+            assertEquals(id, waiting.get().id());
+        }
+        assertEquals(2, stub.calls(ProductServiceStub.GET_PRODUCT));
+    }
+
+    @Test
+    void staleEntry_isServedWhileRefreshedInBackground() throws Exception {
+        stub = ProductServiceStub.start(true, Duration.ZERO);
+        ProductCatalog catalog = catalog(100, Duration.ofMillis(50), Duration.ofSeconds(60));
+        UUID id = UUID.randomUUID();
+
+        catalog.get(id, "token", "cid");
+        catalog.get(id, "token", "cid");
+        assertEquals(1, stub.calls(ProductServiceStub.GET_PRODUCT));
+
+        Thread.sleep(80);
+        assertEquals(id, catalog.get(id, "token", "cid").id());
+        for (int i = 0; i < 50 && stub.calls(ProductServiceStub.GET_PRODUCT) < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, stub.calls(ProductServiceStub.GET_PRODUCT));
+        assertEquals(1.0, registry.get("product.cache.requests").tag("result", "stale").counter().count());
+        assertEquals(1.0, registry.get("product.cache.requests").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void cache_staysWithinMaxSize() {
+        stub = ProductServiceStub.start(true, Duration.ZERO);
+        ProductCatalog catalog = catalog(10, Duration.ofSeconds(10), Duration.ofSeconds(60));
+
+        for (int i = 0; i < 50; i++) {
+            catalog.get(UUID.randomUUID(), "token", "cid");
+        }
+
+        assertEquals(10, catalog.size());
+        assertEquals(50.0, registry.get("product.cache.requests").tag("result", "miss").counter().count());
+    }
+}
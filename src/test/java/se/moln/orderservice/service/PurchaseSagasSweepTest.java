@@ -0,0 +1,142 @@
+package se.moln.orderservice.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import se.moln.orderservice.dto.InventoryPurchaseRequest;
+import se.moln.orderservice.model.PurchaseSaga;
+import se.moln.orderservice.model.SagaState;
+import se.moln.orderservice.repository.PurchaseSagaRepository;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * The compensation sweep against the real saga table, with two instances sharing it.
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PurchaseSagasSweepTest {
+
+    @Autowired
+    PurchaseSagaRepository sagaRepository;
+
+    @Autowired
+    JdbcTemplate jdbc;
+
+    private InventoryClient inventoryClient;
+    private ExecutorService workers;
+    private PurchaseSagas instanceA;
+    private PurchaseSagas instanceB;
+
+    @BeforeEach
+    void setUp() {
+        jdbc.update("delete from purchase_saga_lines");
+        sagaRepository.deleteAllInBatch();
+        inventoryClient = mock(InventoryClient.class);
+        when(inventoryClient.release(anyList(), anyString(), anyString())).thenReturn(true);
+        workers = Executors.newVirtualThreadPerTaskExecutor();
+        instanceA = instance();
+        instanceB = instance();
+    }
+
+    @AfterEach
+    void tearDown() {
+        workers.shutdown();
+    }
+
+    private PurchaseSagas instance() {
+        return new PurchaseSagas(sagaRepository, inventoryClient, workers,
+                3, Duration.ofSeconds(5), Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMinutes(5));
+    }
+
+    private PurchaseSaga reserved(PurchaseSagas sagas) {
+        PurchaseSaga saga = sagas.begin(UUID.randomUUID(), "cid-1", "token",
+                List.of(new InventoryPurchaseRequest(UUID.randomUUID(), 2)));
+        sagas.reserved(saga);
+        return saga;
+    }
+
+    private void lastTouched(PurchaseSaga saga, Instant at) {
+        jdbc.update("update purchase_sagas set updated_at = ? where id = ?", Timestamp.from(at), saga.getId());
+    }
+
+    private SagaState stateOf(PurchaseSaga saga) {
+        return sagaRepository.findById(saga.getId()).orElseThrow().getState();
+    }
+
+    private PurchaseSaga awaitState(PurchaseSaga saga, SagaState state) throws InterruptedException {
+        PurchaseSaga current = sagaRepository.findById(saga.getId()).orElseThrow();
+        for (int i = 0; i < 200 && current.getState() != state; i++) {
+            Thread.sleep(10);
+            current = sagaRepository.findById(saga.getId()).orElseThrow();
+        }
+        assertEquals(state, current.getState());
+        return current;
+    }
+
+    @Test
+    void retryDue_leavesPurchasesBegunSinceStartupAlone() {
+        PurchaseSaga live = reserved(instanceA);
+        PurchaseSaga stillReserving = instanceA.begin(UUID.randomUUID(), "cid-2", "token",
+                List.of(new InventoryPurchaseRequest(UUID.randomUUID(), 1)));
+
+        instanceB.retryDue();
+        instanceA.retryDue();
+
+        verifyNoInteractions(inventoryClient);
+        assertEquals(SagaState.RESERVED, stateOf(live));
+        assertEquals(SagaState.RESERVING, stateOf(stillReserving));
+    }
+
+    @Test
+    void retryDue_returnsAbandonedPurchase_onceAcrossInstances() throws Exception {
+        PurchaseSaga abandoned = reserved(instanceA);
+        lastTouched(abandoned, Instant.now().minus(Duration.ofMinutes(6)));
+
+        instanceA.retryDue();
+        instanceB.retryDue();
+
+        PurchaseSaga done = awaitState(abandoned, SagaState.COMPENSATED);
+        assertEquals("abandoned in RESERVED", done.getLastError());
+        assertNull(done.getBearerToken());
+        instanceB.retryDue();
+        verify(inventoryClient, times(1)).release(anyList(), eq("token"), eq("cid-1"));
+    }
+
+    @Test
+    void retryDue_leavesAReturnInFlightOnAnotherInstanceAlone() throws Exception {
+        CountDownLatch inFlight = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        when(inventoryClient.release(anyList(), anyString(), anyString())).thenAnswer(inv -> {
+            inFlight.countDown();
+            finish.await();
+            return true;
+        });
+        PurchaseSaga saga = reserved(instanceA);
+
+        instanceA.compensate(saga, new IllegalStateException("db down"));
+        assertTrue(inFlight.await(2, TimeUnit.SECONDS));
+        instanceB.retryDue();
+        finish.countDown();
+
+        awaitState(saga, SagaState.COMPENSATED);
+        verify(inventoryClient, times(1)).release(anyList(), anyString(), anyString());
+    }
+}
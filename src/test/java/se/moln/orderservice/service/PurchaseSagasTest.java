@@ -0,0 +1,113 @@
+package se.moln.orderservice.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import se.moln.orderservice.dto.InventoryPurchaseRequest;
+import se.moln.orderservice.model.PurchaseSaga;
+import se.moln.orderservice.model.SagaLine;
+import se.moln.orderservice.model.SagaState;
+import se.moln.orderservice.repository.PurchaseSagaRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PurchaseSagasTest {
+
+    private PurchaseSagaRepository sagaRepository;
+    private InventoryClient inventoryClient;
+    private PurchaseSagas sagas;
+
+    @BeforeEach
+    void setUp() {
+        sagaRepository = mock(PurchaseSagaRepository.class);
+        inventoryClient = mock(InventoryClient.class);
+        when(sagaRepository.save(any(PurchaseSaga.class))).thenAnswer(inv -> inv.getArgument(0));
+        sagas = new PurchaseSagas(sagaRepository, inventoryClient, Executors.newVirtualThreadPerTaskExecutor(),
+                2, Duration.ofSeconds(5), Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMinutes(5));
+    }
+
+    private static PurchaseSaga saga(SagaState state) {
+        return PurchaseSaga.builder()
+                .id(UUID.randomUUID())
+                .userId(UUID.randomUUID())
+                .correlationId("cid-1")
+                .bearerToken("token")
+                .state(state)
+                .lines(new ArrayList<>(List.of(new SagaLine(UUID.randomUUID(), 2))))
+                .build();
+    }
+
+    @Test
+    void failedReturn_isRetriedWithBackoff_thenGivenUp() throws Exception {
+        PurchaseSaga saga = saga(SagaState.RESERVED);
+        when(inventoryClient.release(anyList(), anyString(), anyString())).thenReturn(false);
+
+        Instant before = Instant.now();
+        sagas.compensate(saga, new IllegalStateException("db down"));
+        verify(inventoryClient, timeout(2000)).release(anyList(), anyString(), anyString());
+        verify(sagaRepository, timeout(2000).times(2)).save(saga);
+
+        assertEquals(SagaState.COMPENSATING, saga.getState());
+        assertEquals(1, saga.getAttempts());
+        assertFalse(saga.getNextAttemptAt().isBefore(before.plusSeconds(5)));
+
+        when(sagaRepository.findDue(any(), any())).thenReturn(List.of(saga));
+        when(sagaRepository.claim(eq(saga.getId()), any(), any(), any())).thenReturn(1);
+        // The first worker may still hold the saga for a moment after its save; the sweep skips it until then
+        for (int i = 0; i < 200 && mockingDetails(inventoryClient).getInvocations().size() < 2; i++) {
+            sagas.retryDue();
+            Thread.sleep(10);
+        }
+        verify(inventoryClient, timeout(2000).times(2)).release(anyList(), anyString(), anyString());
+        verify(sagaRepository, timeout(2000).times(3)).save(saga);
+        assertEquals(SagaState.COMPENSATION_FAILED, saga.getState());
+    }
+
+    @Test
+    void reservationFailed_abortsOnDefiniteRejection() {
+        PurchaseSaga rejected = saga(SagaState.RESERVING);
+        sagas.reservationFailed(rejected, new InventoryReservationException(HttpStatus.CONFLICT, "out of stock", List.of()));
+
+        assertEquals(SagaState.ABORTED, rejected.getState());
+        assertNull(rejected.getBearerToken());
+        verifyNoInteractions(inventoryClient);
+    }
+
+    @Test
+    void reservationFailed_returnsOnlyTheLinesThatMayBeHeld() {
+        PurchaseSaga saga = saga(SagaState.RESERVING);
+        UUID uncertain = UUID.randomUUID();
+        saga.getLines().add(new SagaLine(uncertain, 1));
+        when(inventoryClient.release(anyList(), anyString(), anyString())).thenReturn(true);
+
+        // e.g. a 502 after the request was sent, or a 5xx from the batch endpoint
+        sagas.reservationFailed(saga, new InventoryReservationException(HttpStatus.BAD_GATEWAY, "connection reset",
+                List.of(new InventoryPurchaseRequest(uncertain, 1))));
+
+        verify(inventoryClient, timeout(2000)).release(eq(List.of(new InventoryPurchaseRequest(uncertain, 1))), eq("token"), eq("cid-1"));
+        verify(sagaRepository, timeout(2000).times(2)).save(saga);
+        assertEquals(SagaState.COMPENSATED, saga.getState());
+    }
+
+    @Test
+    void reservationFailed_returnsEverything_whenTheFailureSaysNothingAboutTheLines() {
+        PurchaseSaga saga = saga(SagaState.RESERVING);
+        when(inventoryClient.release(anyList(), anyString(), anyString())).thenReturn(true);
+
+        sagas.reservationFailed(saga, new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "timeout"));
+
+        verify(inventoryClient, timeout(2000)).release(argThat(lines -> lines.size() == 1), eq("token"), eq("cid-1"));
+        verify(sagaRepository, timeout(2000).times(2)).save(saga);
+        assertEquals(SagaState.COMPENSATED, saga.getState());
+    }
+}
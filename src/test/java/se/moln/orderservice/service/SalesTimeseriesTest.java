@@ -0,0 +1,118 @@
+package se.moln.orderservice.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.web.server.ResponseStatusException;
+import se.moln.orderservice.model.Money;
+import se.moln.orderservice.service.SalesTimeseries.Bucket;
+import se.moln.orderservice.service.SalesTimeseries.Granularity;
+import se.moln.orderservice.service.SalesTimeseries.Series;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SalesTimeseriesTest {
+
+    private static final UUID HUB = UUID.randomUUID();
+    private static final UUID CABLE = UUID.randomUUID();
+
+    private JdbcTemplate jdbc;
+    private SalesTimeseries timeseries;
+
+    @BeforeEach
+    void setUp() {
+        jdbc = new JdbcTemplate(new DriverManagerDataSource(
+                "jdbc:h2:mem:timeseries-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", ""));
+        jdbc.execute("CREATE TABLE orders (id UUID PRIMARY KEY, order_date TIMESTAMP WITH TIME ZONE, status VARCHAR(32))");
+        jdbc.execute("CREATE TABLE order_items (id UUID PRIMARY KEY, order_id UUID, product_id UUID, quantity INT, "
+                + "price_at_purchase NUMERIC(38,2))");
+        jdbc.execute("CREATE TABLE daily_product_sales (sales_date DATE, status VARCHAR(32), product_id UUID, "
+                + "product_name VARCHAR(255), units_sold BIGINT, revenue NUMERIC(38,2), order_count BIGINT, "
+                + "PRIMARY KEY (sales_date, status, product_id))");
+        timeseries = new SalesTimeseries(jdbc, Optional.empty(), 1000, 50000);
+    }
+
+    private void line(LocalDateTime when, String status, UUID productId, int qty, String price) {
+        UUID orderId = UUID.randomUUID();
+        jdbc.update("INSERT INTO orders (id, order_date, status) VALUES (?, ?, ?)",
+                orderId, when.atZone(ZoneId.systemDefault()).toOffsetDateTime(), status);
+        jdbc.update("INSERT INTO order_items (id, order_id, product_id, quantity, price_at_purchase) VALUES (?, ?, ?, ?, ?)",
+                UUID.randomUUID(), orderId, productId, qty, new BigDecimal(price));
+    }
+
+    private void day(LocalDate date, UUID productId, long units, String revenue) {
+        jdbc.update("INSERT INTO daily_product_sales (sales_date, status, product_id, product_name, units_sold, revenue, order_count) "
+                + "VALUES (?, 'CREATED', ?, 'x', ?, ?, 1)", date, productId, units, new BigDecimal(revenue));
+    }
+
+    @Test
+    void hourly_readsOrderLines_andFillsEmptyBuckets() {
+        LocalDateTime nine = LocalDateTime.of(2025, 3, 4, 9, 0);
+        line(nine.plusMinutes(5), "CREATED", HUB, 2, "25.00");
+        line(nine.plusMinutes(59), "CREATED", CABLE, 1, "9.90");
+        line(nine.plusHours(2).plusMinutes(30), "CREATED", HUB, 1, "25.00");
+        line(nine.plusMinutes(10), "COMPLETED", HUB, 5, "25.00");
+
+        Series s = timeseries.query(nine.plusMinutes(20), nine.plusHours(3), Granularity.HOUR, List.of());
+
+        assertEquals(nine, s.from());
+        assertEquals(List.of(
+                new Bucket(nine, 3, Money.parse("59.90")),
+                new Bucket(nine.plusHours(1), 0, Money.parse("0.00")),
+                new Bucket(nine.plusHours(2), 1, Money.parse("25.00"))), s.buckets());
+
+        Series hubOnly = timeseries.query(nine, nine.plusHours(1), Granularity.HOUR, List.of(HUB));
+        assertEquals(2, hubOnly.buckets().get(0).unitsSold());
+    }
+
+    @Test
+    void weeklyAndMonthly_readDailyRollup() {
+        // 2025-03-02 is a Sunday, 2025-03-03 a Monday
+        day(LocalDate.of(2025, 3, 2), HUB, 1, "25.00");
+        day(LocalDate.of(2025, 3, 3), HUB, 2, "50.00");
+        day(LocalDate.of(2025, 3, 9), CABLE, 4, "39.60");
+        day(LocalDate.of(2025, 4, 1), HUB, 8, "200.00");
+
+        Series weeks = timeseries.query(LocalDate.of(2025, 3, 1).atStartOfDay(), LocalDate.of(2025, 3, 10).atStartOfDay(),
+                Granularity.WEEK, null);
+        assertEquals(LocalDate.of(2025, 2, 24).atStartOfDay(), weeks.from());
+        assertEquals(List.of(1L, 6L), weeks.buckets().stream().map(Bucket::unitsSold).toList());
+
+        Series months = timeseries.query(LocalDate.of(2025, 3, 15).atStartOfDay(), LocalDate.of(2025, 4, 2).atStartOfDay(),
+                Granularity.MONTH, List.of(HUB));
+        assertEquals(List.of(new Bucket(LocalDate.of(2025, 3, 1).atStartOfDay(), 3, Money.parse("75.00")),
+                new Bucket(LocalDate.of(2025, 4, 1).atStartOfDay(), 8, Money.parse("200.00"))), months.buckets());
+    }
+
+    @Test
+    void aggregate_forkJoinMatchesSinglePass() {
+        Random random = new Random(42);
+        SalesTimeseries.Rows rows = new SalesTimeseries.Rows();
+        for (int i = 0; i < 200_000; i++) {
+            rows.add(random.nextInt(10_000), 1 + random.nextInt(3), random.nextInt(10_000));
+        }
+        long[] bounds = {0, 100, 2_500, 2_500, 7_000, 9_000};
+
+        assertArrayEquals(SalesTimeseries.aggregate(rows, bounds, Integer.MAX_VALUE),
+                SalesTimeseries.aggregate(rows, bounds, 1_000));
+    }
+
+    @Test
+    void query_rejectsEmptyRangesAndTooManyBuckets() {
+        LocalDateTime t = LocalDateTime.of(2025, 1, 1, 0, 0);
+        assertThrows(ResponseStatusException.class, () -> timeseries.query(t, t, Granularity.DAY, List.of()));
+        assertThrows(ResponseStatusException.class, () -> timeseries.query(t, t.plusYears(1), Granularity.HOUR, List.of()));
+        assertThrows(ResponseStatusException.class, () -> Granularity.parse("fortnight"));
+        assertEquals(Granularity.WEEK, Granularity.parse("week"));
+    }
+}
@@ -0,0 +1,41 @@
+package se.moln.orderservice.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SampledEvictionTest {
+
+    @Test
+    void victims_comeFromAcrossTheMap_notOnlyItsHead() {
+        Map<Integer, Long> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            map.put(i, 0L);
+        }
+
+        Set<Integer> victims = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            victims.add(SampledEviction.victim(map, 16, Long::longValue));
+        }
+
+        // Sampling from the head would return the same key every time
+        assertTrue(victims.size() > 16, "distinct victims: " + victims.size());
+    }
+
+    @Test
+    void victim_isTheLowestRankInTheSample() {
+        Map<Integer, Long> map = new ConcurrentHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            map.put(i, 100L + i);
+        }
+        map.put(7, 1L);
+
+        assertEquals(7, SampledEviction.victim(map, 16, Long::longValue));
+        assertNull(SampledEviction.victim(new ConcurrentHashMap<Integer, Long>(), 16, Long::longValue));
+    }
+}
@@ -0,0 +1,169 @@
+package se.moln.orderservice.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process stand-in for product-service: product lookup plus the per-item and
+ * (optionally) batch inventory endpoints. Counts calls per route and can add latency.
+ */
+public class ProductServiceStub implements AutoCloseable {
+
+    public static final String GET_PRODUCT = "GET /api/products/{id}";
+    public static final String PURCHASE = "POST /api/inventory/{id}/purchase";
+    public static final String RETURN = "POST /api/inventory/{id}/return";
+    public static final String BATCH_PURCHASE = "POST /api/inventory/batch/purchase";
+    public static final String BATCH_RETURN = "POST /api/inventory/batch/return";
+    public static final String BATCH_PROBE = "OPTIONS /api/inventory/batch/{action}";
+
+    private final HttpServer server;
+    private final boolean batchSupported;
+    private final Duration latency;
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final Set<UUID> unknownProducts = ConcurrentHashMap.newKeySet();
+    private final Set<String> rejectedTokens = ConcurrentHashMap.newKeySet();
+    private volatile boolean failReturns;
+    private volatile boolean failPurchases;
+
+    private ProductServiceStub(boolean batchSupported, Duration latency) throws IOException {
+        this.batchSupported = batchSupported;
+        this.latency = latency;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        this.server.createContext("/api/", this::handle);
+        this.server.start();
+    }
+
+    public static ProductServiceStub start(boolean batchSupported, Duration latency) {
+        try {
+            return new ProductServiceStub(batchSupported, latency);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not start product-service stub", e);
+        }
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public int calls(String route) {
+        AtomicInteger n = calls.get(route);
+        return n == null ? 0 : n.get();
+    }
+
+    public int totalCalls() {
+        return calls.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    public void resetCounts() {
+        calls.clear();
+    }
+
+    public void failReturns(boolean failReturns) {
+        this.failReturns = failReturns;
+    }
+
+    public void failPurchases(boolean failPurchases) {
+        this.failPurchases = failPurchases;
+    }
+
+    /** Inventory calls naming this product are answered with 404, as product-service does. */
+    public void unknownProduct(UUID productId) {
+        unknownProducts.add(productId);
+    }
+
+    /** Requests with this bearer token are answered with 401. */
+    public void rejectToken(String token) {
+        rejectedTokens.add(token);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange; InputStream body = exchange.getRequestBody()) {
+            String request = new String(body.readAllBytes(), StandardCharsets.UTF_8);
+            sleep();
+            String method = exchange.getRequestMethod();
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            // parts: "", "api", "products"|"inventory", id|"batch", action
+            if ("GET".equals(method) && parts.length == 4 && "products".equals(parts[2])) {
+                count(GET_PRODUCT);
+                String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+                if (authorization != null && rejectedTokens.contains(authorization.substring("Bearer ".length()))) {
+                    respond(exchange, 401, "{\"status\":401,\"detail\":\"Invalid or expired token\"}");
+                    return;
+                }
+                UUID id = UUID.fromString(parts[3]);
+                respond(exchange, 200, "{\"id\":\"" + id + "\",\"name\":\"Product " + id.toString().substring(0, 8)
+                        + "\",\"price\":10.00,\"stockQuantity\":1000}");
+                return;
+            }
+            if ("OPTIONS".equals(method) && parts.length == 5 && "batch".equals(parts[3])) {
+                count(BATCH_PROBE);
+                exchange.getResponseHeaders().set("Allow", "POST,OPTIONS");
+                respond(exchange, batchSupported ? 200 : 404, "");
+                return;
+            }
+            if ("POST".equals(method) && parts.length == 5 && "inventory".equals(parts[2])) {
+                boolean batch = "batch".equals(parts[3]);
+                boolean isReturn = "return".equals(parts[4]);
+                count(batch ? (isReturn ? BATCH_RETURN : BATCH_PURCHASE) : (isReturn ? RETURN : PURCHASE));
+                if (batch && !batchSupported) {
+                    respond(exchange, 404, "");
+                    return;
+                }
+                String product = batch ? request : parts[3];
+                if (unknownProducts.stream().anyMatch(id -> product.contains(id.toString()))) {
+                    respond(exchange, 404, "{\"status\":404,\"detail\":\"Product not found\"}");
+                    return;
+                }
+                boolean fail = isReturn ? failReturns : failPurchases;
+                respond(exchange, fail ? 500 : 200, "");
+                return;
+            }
+            respond(exchange, 404, "");
+        }
+    }
+
+    private void count(String route) {
+        calls.computeIfAbsent(route, r -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private void sleep() {
+        if (latency.isZero()) {
+            return;
+        }
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}